@@ -0,0 +1,187 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.client.OioConstants.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.models.OioUrl;
+
+/**
+ * Throughput of a whole object upload with and without client-side
+ * encryption, against an in-process stub of the proxy and of a rawx service
+ * which drops the data it receives.
+ * <p>
+ * Each operation uploads {@link #SIZE} bytes in positions of
+ * {@link #CHUNK_SIZE} bytes, so that the throughput is
+ * {@code ops/s * 64 MiB}, e.g. 1 GB/s is about 15 ops/s. Positions of a file
+ * are encrypted on several cores at once, those of a stream one after the
+ * other. Run it with {@code ./gradlew jmh -PjmhArgs=EncryptionBenchmark}.
+ *
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@Threads(1)
+public class EncryptionBenchmark {
+
+    static final int SIZE = 64 << 20;
+    static final int CHUNK_SIZE = 8 << 20;
+
+    @Param({ "false", "true" })
+    public boolean encryption;
+
+    @Param({ "file", "stream" })
+    public String source;
+
+    private EventLoopGroup group;
+    private String stub;
+    private DefaultClient client;
+    private OioUrl url;
+    private byte[] data;
+    private File file;
+
+    @Setup
+    public void setup() throws Exception {
+        group = new NioEventLoopGroup(4);
+        Channel server = new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec(),
+                                new Stub());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        stub = "http://127.0.0.1:"
+                + ((InetSocketAddress) server.localAddress()).getPort();
+        RawxSettings settings = new RawxSettings().verifyChunkHashes(false);
+        if (encryption)
+            settings.encryptionKey(new SecretKeySpec(new byte[32], "AES"));
+        client = ClientBuilder.prepareClient()
+                .ns("OPENIO")
+                .proxydUrl(stub)
+                .rawxSettings(settings)
+                .build();
+        url = OioUrl.url("BENCH", "BENCH", "big");
+        data = new byte[SIZE];
+        new Random(0).nextBytes(data);
+        file = File.createTempFile("bench", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        group.shutdownGracefully();
+        file.delete();
+    }
+
+    @Benchmark
+    public Object putObject() throws Exception {
+        if ("file".equals(source))
+            return client.putObject(url, SIZE, file, null).get();
+        return client.putObject(url, SIZE, new ByteArrayInputStream(data),
+                null).get();
+    }
+
+    /**
+     * Prepares a single copy of each position, and acknowledges any chunk
+     * upload or commit once its body has been received.
+     */
+    private class Stub extends SimpleChannelInboundHandler<HttpObject> {
+
+        private String uri;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                HttpObject msg) {
+            if (msg instanceof HttpRequest)
+                uri = ((HttpRequest) msg).getUri();
+            if (!(msg instanceof LastHttpContent))
+                return;
+            FullHttpResponse resp;
+            if (uri.contains("/content/prepare")) {
+                StringBuilder sb = new StringBuilder("[");
+                for (int i = 0; i < SIZE / CHUNK_SIZE; i++)
+                    sb.append(0 == i ? "" : ",")
+                            .append("{\"url\":\"").append(stub)
+                            .append("/rawx/").append(i)
+                            .append("\",\"pos\":\"").append(i)
+                            .append("\",\"size\":").append(CHUNK_SIZE)
+                            .append(",\"hash\":\"00000000000000000000000000000000\"}");
+                resp = response(HttpResponseStatus.OK,
+                        sb.append("]").toString());
+                resp.headers().set(CONTENT_META_ID_HEADER, "0123456789ABCDEF")
+                        .set(CONTENT_META_LENGTH_HEADER, String.valueOf(SIZE))
+                        .set(CONTENT_META_CTIME_HEADER, "0")
+                        .set(CONTENT_META_VERSION_HEADER, "0")
+                        .set(CONTENT_META_CHUNK_METHOD_HEADER, "plain/nb_copy=1")
+                        .set(CONTENT_META_POLICY_HEADER, "SINGLE")
+                        .set(CONTENT_META_HASH_METHOD_HEADER, "md5")
+                        .set(CONTENT_META_MIME_TYPE_HEADER,
+                                "application/octet-stream");
+            } else if (uri.startsWith("/rawx/")) {
+                resp = response(HttpResponseStatus.CREATED, "");
+            } else {
+                resp = response(HttpResponseStatus.NO_CONTENT, "");
+            }
+            ctx.writeAndFlush(resp);
+        }
+
+        private FullHttpResponse response(HttpResponseStatus status,
+                String body) {
+            FullHttpResponse resp = new DefaultFullHttpResponse(
+                    HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(
+                            body, StandardCharsets.UTF_8));
+            resp.headers().set("Content-Length",
+                    resp.content().readableBytes());
+            return resp;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.client.OioConstants.*;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.models.OioUrl;
+
+/**
+ * Latency of a whole small object upload from an {@code InputStream}:
+ * prepare, chunk uploads and commit, against an in-process stub of the proxy
+ * and of three rawx services which answer at once.
+ * <p>
+ * A {@code smallObjectSize} of {@code 0} measures the regular chain, where
+ * the stream is read by the client workers once the chunks are prepared. The
+ * sample mode reports the p50 and p99 latencies. Run it with
+ * {@code ./gradlew jmh -PjmhArgs=SmallObjectBenchmark}.
+ *
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(1)
+public class SmallObjectBenchmark {
+
+    @Param({ "1024", "4096", "65536" })
+    public int size;
+
+    @Param({ "0", "65536" })
+    public int smallObjectSize;
+
+    private EventLoopGroup group;
+    private String stub;
+    private DefaultClient client;
+    private OioUrl url;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws Exception {
+        group = new NioEventLoopGroup(2);
+        Channel server = new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec(),
+                                new HttpObjectAggregator(1 << 20),
+                                new Stub());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        stub = "http://127.0.0.1:"
+                + ((InetSocketAddress) server.localAddress()).getPort();
+        client = ClientBuilder.prepareClient()
+                .ns("OPENIO")
+                .proxydUrl(stub)
+                .rawxSettings(new RawxSettings()
+                        .smallObjectSize(smallObjectSize)
+                        .verifyChunkHashes(false))
+                .build();
+        url = OioUrl.url("BENCH", "BENCH", "small");
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        group.shutdownGracefully();
+    }
+
+    @Benchmark
+    public Object putObject() throws Exception {
+        return client.putObject(url, size, new ByteArrayInputStream(data),
+                null).get();
+    }
+
+    /**
+     * Prepares three copies of a single position, and acknowledges any chunk
+     * upload or commit.
+     */
+    private class Stub extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                FullHttpRequest req) {
+            FullHttpResponse resp;
+            if (req.getUri().contains("/content/prepare")) {
+                StringBuilder sb = new StringBuilder("[");
+                for (int i = 0; i < 3; i++)
+                    sb.append(0 == i ? "" : ",")
+                            .append("{\"url\":\"").append(stub)
+                            .append("/rawx/").append(i)
+                            .append("\",\"pos\":\"0\",\"size\":1048576,")
+                            .append("\"hash\":\"00000000000000000000000000000000\"}");
+                resp = response(HttpResponseStatus.OK,
+                        sb.append("]").toString());
+                resp.headers().set(CONTENT_META_ID_HEADER, "0123456789ABCDEF")
+                        .set(CONTENT_META_LENGTH_HEADER, String.valueOf(size))
+                        .set(CONTENT_META_CTIME_HEADER, "0")
+                        .set(CONTENT_META_VERSION_HEADER, "0")
+                        .set(CONTENT_META_CHUNK_METHOD_HEADER, "plain/nb_copy=3")
+                        .set(CONTENT_META_POLICY_HEADER, "THREECOPIES")
+                        .set(CONTENT_META_HASH_METHOD_HEADER, "md5")
+                        .set(CONTENT_META_MIME_TYPE_HEADER,
+                                "application/octet-stream");
+            } else if (req.getUri().startsWith("/rawx/")) {
+                resp = response(HttpResponseStatus.CREATED, "");
+            } else {
+                resp = response(HttpResponseStatus.NO_CONTENT, "");
+            }
+            ctx.writeAndFlush(resp);
+        }
+
+        private FullHttpResponse response(HttpResponseStatus status,
+                String body) {
+            FullHttpResponse resp = new DefaultFullHttpResponse(
+                    HttpVersion.HTTP_1_1, status, Unpooled.copiedBuffer(
+                            body, StandardCharsets.UTF_8));
+            resp.headers().set("Content-Length",
+                    resp.content().readableBytes());
+            return resp;
+        }
+    }
+}
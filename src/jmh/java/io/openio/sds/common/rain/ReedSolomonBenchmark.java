@@ -0,0 +1,86 @@
+package io.openio.sds.common.rain;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding throughput of a single core, one stripe of
+ * {@code k} cells of {@link StripeLayout#CELL_SIZE} bytes per operation.
+ * <p>
+ * The data throughput is {@code ops/s * k * CELL_SIZE} bytes per second, e.g.
+ * 1 GB/s is about 5100 ops/s with {@code k = 6}. Run it with
+ * {@code ./gradlew jmh}.
+ *
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(1)
+public class ReedSolomonBenchmark {
+
+    @Param({ "6+3", "4+2", "12+3" })
+    public String scheme;
+
+    private ReedSolomon codec;
+    private ByteBuffer[] data;
+    private ByteBuffer[] parity;
+    private ByteBuffer[] fragments;
+    private boolean[] present;
+
+    @Setup
+    public void setup() {
+        String[] km = scheme.split("\\+");
+        int k = Integer.parseInt(km[0]);
+        int m = Integer.parseInt(km[1]);
+        codec = new ReedSolomon(k, m);
+        Random rand = new Random(0);
+        data = new ByteBuffer[k];
+        parity = new ByteBuffer[m];
+        fragments = new ByteBuffer[k + m];
+        for (int i = 0; i < k; i++) {
+            byte[] b = new byte[StripeLayout.CELL_SIZE];
+            rand.nextBytes(b);
+            data[i] = ByteBuffer.wrap(b);
+            fragments[i] = data[i];
+        }
+        for (int i = 0; i < m; i++) {
+            parity[i] = ByteBuffer.allocate(StripeLayout.CELL_SIZE);
+            fragments[k + i] = parity[i];
+        }
+        codec.encode(data, parity, StripeLayout.CELL_SIZE);
+        // the first m data fragments are lost
+        present = new boolean[k + m];
+        for (int i = m; i < k + m; i++)
+            present[i] = true;
+    }
+
+    @Benchmark
+    public ByteBuffer[] encode() {
+        codec.encode(data, parity, StripeLayout.CELL_SIZE);
+        return parity;
+    }
+
+    @Benchmark
+    public ByteBuffer[] decode() {
+        codec.decode(fragments, present, StripeLayout.CELL_SIZE);
+        return fragments;
+    }
+}
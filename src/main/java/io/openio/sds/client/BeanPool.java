@@ -0,0 +1,211 @@
+package io.openio.sds.client;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+import io.openio.sds.client.settings.ProxySettings;
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+
+/**
+ * Pool of chunk locations prepared ahead of the uploads of small objects.
+ * <p>
+ * Locations are kept per container and per size class, a class holding the
+ * objects up to a power of two. Each time a location is requested, the
+ * entries of its class are topped up in the background, so that the next
+ * uploads to the same container find their chunks already prepared (a hit).
+ * When the class is empty the chunks are prepared for the object itself (a
+ * miss). Entries older than {@link ProxySettings#beanPoolTtl()} are
+ * discarded, as the services they point to may have changed since.
+ * <p>
+ * Only objects of a single position are pooled, and the whole pool is bounded
+ * by {@link ProxySettings#beanPoolCapacity()} entries, prepared or being
+ * prepared.
+ *
+ *
+ */
+public class BeanPool {
+
+    private static final SDSLogger logger = Loggers.getLogger(BeanPool.class);
+
+    static final long MIN_SIZE_CLASS = 4096L;
+
+    private final BiFunction<OioUrl, Long, CompletableFuture<ObjectInfo>> prepare;
+    private final int depth;
+    private final int capacity;
+    private final long ttl;
+    private final long maxObjectSize;
+    private final Map<String, SizeClass> classes = new ConcurrentHashMap<>();
+    private final AtomicInteger entries = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * @param prepare
+     *            prepares the chunks of an object of the specified size
+     */
+    BeanPool(BiFunction<OioUrl, Long, CompletableFuture<ObjectInfo>> prepare,
+            ProxySettings settings) {
+        this.prepare = prepare;
+        this.depth = settings.beanPoolDepth();
+        this.capacity = settings.beanPoolCapacity();
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(settings.beanPoolTtl());
+        this.maxObjectSize = settings.beanPoolMaxObjectSize();
+    }
+
+    /**
+     * Returns the chunks to upload an object of the specified size to,
+     * from the pool if possible.
+     *
+     * @param url
+     *            the url of the object
+     * @param size
+     *            the size of the object
+     * @return a future which handles the prepared {@code ObjectInfo}
+     */
+    CompletableFuture<ObjectInfo> take(OioUrl url, long size) {
+        if (0 == depth || 0 > size || size > maxObjectSize)
+            return prepare.apply(url, size);
+        long cls = sizeClass(size);
+        SizeClass sc = classes.computeIfAbsent(
+                url.account() + '/' + url.container() + '/' + cls,
+                k -> new SizeClass(cls));
+        ObjectInfo oinf = sc.poll();
+        sc.refill(url);
+        if (null == oinf) {
+            misses.incrementAndGet();
+            return prepare.apply(url, size);
+        }
+        hits.incrementAndGet();
+        return CompletableFuture.completedFuture(oinf.url(url).size(size));
+    }
+
+    /**
+     * Returns the number of uploads started with pooled chunks
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of uploads which prepared their own chunks because
+     * the pool had none for them
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of pooled entries discarded because they were too
+     * old
+     */
+    public long expired() {
+        return expired.get();
+    }
+
+    /**
+     * Returns the number of entries in the pool, prepared or being prepared
+     */
+    public int entries() {
+        return entries.get();
+    }
+
+    /**
+     * @return the smallest power of two holding the specified size, at least
+     *         {@link #MIN_SIZE_CLASS}
+     */
+    static long sizeClass(long size) {
+        if (MIN_SIZE_CLASS >= size)
+            return MIN_SIZE_CLASS;
+        return Long.highestOneBit(size - 1) << 1;
+    }
+
+    private boolean reserve() {
+        if (entries.incrementAndGet() <= capacity)
+            return true;
+        entries.decrementAndGet();
+        // the room may be held by entries nobody takes anymore
+        classes.values().forEach(SizeClass::purge);
+        return false;
+    }
+
+    private class SizeClass {
+
+        private final long size;
+        private final ConcurrentLinkedQueue<Entry> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        SizeClass(long size) {
+            this.size = size;
+        }
+
+        /**
+         * Returns the oldest valid entry, discarding the expired ones.
+         */
+        ObjectInfo poll() {
+            long now = System.nanoTime();
+            for (Entry e = ready.poll(); null != e; e = ready.poll()) {
+                entries.decrementAndGet();
+                if (now - e.prepared < ttl)
+                    return e.oinf;
+                expired.incrementAndGet();
+            }
+            return null;
+        }
+
+        void purge() {
+            long now = System.nanoTime();
+            for (Entry e : ready) {
+                if (now - e.prepared >= ttl && ready.remove(e)) {
+                    entries.decrementAndGet();
+                    expired.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Prepares new entries until the class holds its depth.
+         */
+        void refill(OioUrl url) {
+            int missing = depth - ready.size() - pending.get();
+            for (int i = 0; i < missing; i++) {
+                if (!reserve())
+                    return;
+                pending.incrementAndGet();
+                long start = System.nanoTime();
+                prepare.apply(url, size).whenComplete((o, t) -> {
+                    if (null == t && 1 == o.nbchunks()) {
+                        ready.offer(new Entry(o, start));
+                        pending.decrementAndGet();
+                        return;
+                    }
+                    pending.decrementAndGet();
+                    entries.decrementAndGet();
+                    if (null != t)
+                        logger.warn("Unable to prepare pooled chunks for %s: %s",
+                                url, t);
+                });
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final ObjectInfo oinf;
+        private final long prepared;
+
+        Entry(ObjectInfo oinf, long prepared) {
+            this.oinf = oinf;
+            this.prepared = prepared;
+        }
+    }
+}
@@ -2,13 +2,19 @@ package io.openio.sds.client;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.concurrent.Future;
 
+import io.openio.sds.client.data.UploadSource;
 import io.openio.sds.models.ContainerInfo;
 import io.openio.sds.models.ListOptions;
 import io.openio.sds.models.ObjectInfo;
 import io.openio.sds.models.ObjectList;
 import io.openio.sds.models.OioUrl;
+import io.openio.sds.models.Range;
 
 /**
  * <p>
@@ -144,6 +150,94 @@ public interface Client {
     public Future<ObjectInfo> putObject(OioUrl url, long size,
             InputStream data, CompletionListener<ObjectInfo> listener);
 
+    /**
+     * Push an object into the oio namespace, without holding any thread while
+     * waiting for the data
+     * 
+     * @param url
+     *            the url of the object to create
+     * @param size
+     *            the size of the object
+     * @param data
+     *            the {@link UploadSource} to read the data from
+     * @param listener
+     * @return a Future which will contains informations about the object.
+     */
+    public Future<ObjectInfo> putObject(OioUrl url, long size,
+            UploadSource data, CompletionListener<ObjectInfo> listener);
+
+    /**
+     * Push an object into the oio namespace, recording its progress in the
+     * specified local journal so that a failed upload can be resumed.
+     * <p>
+     * The chunks of each position are recorded once they are all written.
+     * Calling this method again with the same object, size and journal, and
+     * a new source of the same data, uploads only the positions from the
+     * first one which was not recorded. The data of the previous positions is
+     * read again to be hashed, but not sent. The journal is removed once the
+     * object is committed.
+     * 
+     * @param url
+     *            the url of the object to create
+     * @param size
+     *            the size of the object
+     * @param data
+     *            the {@link UploadSource} to read the data from, from its
+     *            start
+     * @param journal
+     *            the path of the journal, created if needed
+     * @param listener
+     * @return a Future which will contains informations about the object.
+     */
+    public Future<ObjectInfo> putObject(OioUrl url, long size,
+            UploadSource data, Path journal,
+            CompletionListener<ObjectInfo> listener);
+
+    /**
+     * Push an object into the oio namespace, from data held in memory. The
+     * data is sent as is, without being copied.
+     * 
+     * @param url
+     *            the url of the object to create
+     * @param data
+     *            the data of the object
+     * @param listener
+     * @return a Future which will contains informations about the object.
+     */
+    public Future<ObjectInfo> putObject(OioUrl url, byte[] data,
+            CompletionListener<ObjectInfo> listener);
+
+    /**
+     * Push an object into the oio namespace, from data held in memory. The
+     * data, from the position to the limit of the buffer, is sent as is,
+     * without being copied, and must not be modified until the returned
+     * future completes.
+     * 
+     * @param url
+     *            the url of the object to create
+     * @param data
+     *            the data of the object, in a heap or direct buffer
+     * @param listener
+     * @return a Future which will contains informations about the object.
+     */
+    public Future<ObjectInfo> putObject(OioUrl url, ByteBuffer data,
+            CompletionListener<ObjectInfo> listener);
+
+    /**
+     * Push an object of unknown size into the oio namespace, from the data
+     * written to the returned stream. The object is committed when the
+     * stream is closed.
+     * 
+     * @param url
+     *            the url of the object to create
+     * @param listener
+     *            the listener to use on completion or exception. Could be
+     *            {@code null}.
+     * @return the stream to write the data of the object to
+     */
+    public ObjectUploadStream putObject(OioUrl url,
+            CompletionListener<ObjectInfo> listener);
+
     /**
      * Returns informations about the specified object
      * 
@@ -168,6 +262,58 @@ public interface Client {
     public Future<Boolean> downloadObject(ObjectInfo oinf,
             DownloadListener listener);
 
+    /**
+     * Returns the specified range of the data of the specified object. Only
+     * the chunks covering the range are read.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param range
+     *            the range of the data to download
+     * @param listener
+     *            the listener which handles data
+     * @return a Future
+     */
+    public Future<Boolean> downloadObject(ObjectInfo oinf, Range range,
+            DownloadListener listener);
+
+    /**
+     * Opens a stream on the data of the specified object. The chunks are read
+     * as fast as the stream is, so that only a bounded amount of data is held
+     * in memory, whatever the speed of the reader. The stream should be
+     * closed once read, or to stop the download.
+     * 
+     * @param oinf
+     *            the object to read
+     * @return the stream of the data of the object
+     */
+    public ObjectDownloadStream openStream(ObjectInfo oinf);
+
+    /**
+     * Downloads the specified object into a file, several chunks at a time,
+     * each one being written at its offset as it is received.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param file
+     *            the file to write, from its first byte
+     * @return a Future completed once the whole object is written
+     */
+    public Future<Boolean> downloadTo(ObjectInfo oinf, FileChannel file);
+
+    /**
+     * Downloads the specified object into a channel, in order. The channel
+     * should be in blocking mode.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param channel
+     *            the channel to write
+     * @return a Future completed once the whole object is written
+     */
+    public Future<Boolean> downloadTo(ObjectInfo oinf,
+            WritableByteChannel channel);
+
     /**
      * Deletes the specified object
      * 
@@ -1,5 +1,9 @@
 package io.openio.sds.client;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.Dsl;
 
@@ -20,6 +24,9 @@ public class ClientBuilder {
     private String ns;
     private String proxydUrl;
     private AsyncHttpClient http;
+    private ProxySettings proxySettings;
+    private RawxSettings rawxSettings;
+    private List<String> rawxHosts = Collections.emptyList();
 
     /**
      * Generates a client builder to prepare {@link Client} configuration
@@ -67,6 +74,46 @@ public class ClientBuilder {
         return this;
     }
 
+    /**
+     * Set the settings used by the built clients to deal with the proxyd
+     * service, such as the pool of prepared chunk locations. Its namespace
+     * and url are replaced by the ones of this builder.
+     * 
+     * @param proxySettings
+     *            the ProxySettings instance to set
+     * @return this
+     */
+    public ClientBuilder proxySettings(ProxySettings proxySettings) {
+        this.proxySettings = proxySettings;
+        return this;
+    }
+
+    /**
+     * Set the settings used by the built clients to deal with rawx services,
+     * such as the number of positions uploaded at the same time.
+     * 
+     * @param rawxSettings
+     *            the RawxSettings instance to set
+     * @return this
+     */
+    public ClientBuilder rawxSettings(RawxSettings rawxSettings) {
+        this.rawxSettings = rawxSettings;
+        return this;
+    }
+
+    /**
+     * Defines the rawx services to which connections are opened as soon as
+     * the client is built, see {@link RawxSettings#warmupConnections()}
+     * 
+     * @param rawxHosts
+     *            the addresses of the rawx services, as {@code ip:port}
+     * @return this
+     */
+    public ClientBuilder rawxHosts(String... rawxHosts) {
+        this.rawxHosts = Arrays.asList(rawxHosts);
+        return this;
+    }
+
     /**
      * Builds a client using the specified settings
      * 
@@ -75,11 +122,18 @@ public class ClientBuilder {
     public DefaultClient build() {
         checkArgument(null != ns, "Namespace cannot be null");
         checkArgument(null != proxydUrl, "Proxyd URL cannot be null");
-        return new DefaultClient(null == http ? Dsl.asyncHttpClient() : http,
-                new Settings().proxy(new ProxySettings()
+        RawxSettings rawx = null == rawxSettings ? new RawxSettings()
+                : rawxSettings;
+        DefaultClient client = new DefaultClient(
+                null == http ? http(rawx) : http,
+                new Settings().proxy((null == proxySettings
+                        ? new ProxySettings() : proxySettings)
                         .ns(ns)
                         .url(proxydUrl))
-                        .rawx(new RawxSettings()));
+                        .rawx(rawx));
+        if (!rawxHosts.isEmpty())
+            client.rawx().warmUp(rawxHosts);
+        return client;
     }
 
     /**
@@ -93,11 +147,19 @@ public class ClientBuilder {
      * @return The build {@link Client}
      */
     public static DefaultClient newClient(String ns, String proxydUrl) {
-        return new DefaultClient(Dsl.asyncHttpClient(),
+        RawxSettings rawx = new RawxSettings();
+        return new DefaultClient(http(rawx),
                 new Settings().proxy(new ProxySettings()
                         .ns(ns)
                         .url(proxydUrl))
-                        .rawx(new RawxSettings()));
+                        .rawx(rawx));
+    }
+
+    private static AsyncHttpClient http(RawxSettings rawx) {
+        return Dsl.asyncHttpClient(Dsl.config()
+                .setKeepAlive(true)
+                .setMaxConnectionsPerHost(rawx.maxConnectionsPerHost())
+                .setPooledConnectionIdleTimeout(rawx.idleTimeout()));
     }
 
 }
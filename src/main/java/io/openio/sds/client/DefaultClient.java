@@ -1,19 +1,30 @@
 package io.openio.sds.client;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.openio.sds.common.FutureHelper.unwrap;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 
 import org.asynchttpclient.AsyncHttpClient;
 
+import io.openio.sds.client.data.UploadSource;
 import io.openio.sds.client.settings.Settings;
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
 import io.openio.sds.models.ContainerInfo;
 import io.openio.sds.models.ListOptions;
 import io.openio.sds.models.ObjectInfo;
 import io.openio.sds.models.ObjectList;
 import io.openio.sds.models.OioUrl;
+import io.openio.sds.models.Range;
 
 /**
  * Default implementation of OpenIO SDS client using {@link AsyncHttpClient}
@@ -23,18 +34,39 @@ import io.openio.sds.models.OioUrl;
  */
 public class DefaultClient implements Client {
 
+    private static final SDSLogger logger = Loggers
+            .getLogger(DefaultClient.class);
+
     private final ProxyClient proxy;
     private final RawxClient rawx;
+    private final BeanPool beans;
 
     DefaultClient(AsyncHttpClient http, Settings settings) {
         this.proxy = new ProxyClient(http, settings.proxy());
-        this.rawx = new RawxClient(http, settings.rawx());
+        this.beans = new BeanPool((u, s) -> proxy.getBeans(u, s, null)
+                .toCompletableFuture(), settings.proxy());
+        this.rawx = new RawxClient(http, settings.rawx()).spares(
+                (o, c) -> proxy.getSpareChunk(o, c).toCompletableFuture());
     }
 
     public ProxyClient proxy() {
         return proxy;
     }
 
+    public RawxClient rawx() {
+        return rawx;
+    }
+
+    /**
+     * Returns the pool of prepared chunk locations, which exposes its hits,
+     * misses and expired entries.
+     * 
+     * @return the bean pool
+     */
+    public BeanPool beanPool() {
+        return beans;
+    }
+
     @Override
     public Future<ContainerInfo> createContainer(OioUrl url,
             CompletionListener<ContainerInfo> listener) {
@@ -69,7 +101,9 @@ public class DefaultClient implements Client {
             CompletionListener<ObjectInfo> listener) {
         checkArgument(null != url, "url cannot be null");
         checkArgument(null != url.object(), "url object cannot be null");
-        return proxy.getBeans(url, size, null).toCompletableFuture()
+        if (rawx.small(size))
+            return putSmallObject(url, size, rawx.load(data, size), listener);
+        return beans.take(url, size)
                 .thenCompose(o -> rawx.uploadChunks(o, data, null))
                 .thenCompose(o -> proxy.putObject(o, listener)
                         .toCompletableFuture());
@@ -80,18 +114,129 @@ public class DefaultClient implements Client {
             CompletionListener<ObjectInfo> listener) {
         checkArgument(null != url, "url cannot be null");
         checkArgument(null != url.object(), "url object cannot be null");
-        return proxy.getBeans(url, size, null).toCompletableFuture()
+        if (rawx.small(size))
+            return putSmallObject(url, size, rawx.load(data, size), listener);
+        return beans.take(url, size)
+                .thenCompose(o -> rawx.uploadChunks(o, data, null))
+                .thenCompose(o -> proxy.putObject(o, listener)
+                        .toCompletableFuture());
+    }
+
+    @Override
+    public Future<ObjectInfo> putObject(OioUrl url, long size,
+            UploadSource data, CompletionListener<ObjectInfo> listener) {
+        checkArgument(null != url, "url cannot be null");
+        checkArgument(null != url.object(), "url object cannot be null");
+        checkArgument(null != data, "data cannot be null");
+        if (rawx.small(size))
+            return putSmallObject(url, size, rawx.load(data, size), listener);
+        return beans.take(url, size)
+                .thenCompose(o -> rawx.uploadChunks(o, data, null))
+                .thenCompose(o -> proxy.putObject(o, listener)
+                        .toCompletableFuture());
+    }
+
+    @Override
+    public Future<ObjectInfo> putObject(OioUrl url, long size,
+            UploadSource data, Path journal,
+            CompletionListener<ObjectInfo> listener) {
+        checkArgument(null != url, "url cannot be null");
+        checkArgument(null != url.object(), "url object cannot be null");
+        checkArgument(null != data, "data cannot be null");
+        checkArgument(null != journal, "journal cannot be null");
+        UploadJournal j;
+        try {
+            j = UploadJournal.open(journal);
+        } catch (IOException e) {
+            CompletableFuture<ObjectInfo> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            return f;
+        }
+        // a position is recorded once all its copies are written
+        WriteQuorum all = new WriteQuorum(0, 0L, null);
+        CompletableFuture<ObjectInfo> res = proxy.getBeans(url, size, null)
+                .toCompletableFuture()
+                .thenApply(rawx::encoding)
+                .thenApply(j::resume)
+                .thenCompose(o -> rawx.uploadChunks(o, data, null, j.first(),
+                        all, pos -> j.position(pos, o.sortedChunks().get(pos))))
+                .thenCompose(o -> proxy.putObject(o, listener)
+                        .toCompletableFuture());
+        res.whenComplete((o, t) -> {
+            if (null == t)
+                j.delete();
+            else
+                j.close();
+        });
+        return res;
+    }
+
+    @Override
+    public Future<ObjectInfo> putObject(OioUrl url, byte[] data,
+            CompletionListener<ObjectInfo> listener) {
+        checkArgument(null != data, "data cannot be null");
+        return putObject(url, ByteBuffer.wrap(data), listener);
+    }
+
+    @Override
+    public Future<ObjectInfo> putObject(OioUrl url, ByteBuffer data,
+            CompletionListener<ObjectInfo> listener) {
+        checkArgument(null != url, "url cannot be null");
+        checkArgument(null != url.object(), "url object cannot be null");
+        checkArgument(null != data, "data cannot be null");
+        return beans.take(url, data.remaining())
                 .thenCompose(o -> rawx.uploadChunks(o, data, null))
                 .thenCompose(o -> proxy.putObject(o, listener)
                         .toCompletableFuture());
     }
 
+    @Override
+    public ObjectUploadStream putObject(OioUrl url,
+            CompletionListener<ObjectInfo> listener) {
+        checkArgument(null != url, "url cannot be null");
+        checkArgument(null != url.object(), "url object cannot be null");
+        return new ObjectUploadStream(proxy, rawx, url, listener);
+    }
+
     @Override
     public Future<ObjectInfo> getObjectInfo(OioUrl url,
             CompletionListener<ObjectInfo> listener) {
         checkArgument(null != url, "url cannot be null");
         checkArgument(null != url.object(), "url object cannot be null");
-        return proxy.getObjectInfo(url, listener);
+        CompletableFuture<ObjectInfo> res = proxy.getObjectInfo(url, null)
+                .toCompletableFuture()
+                .thenCompose(this::withProperties);
+        if (null != listener)
+            res.whenComplete((o, t) -> {
+                if (null != t) {
+                    listener.onThrowable(unwrap(t));
+                    return;
+                }
+                try {
+                    listener.onResponse(o);
+                } catch (Exception e) {
+                    logger.warn("Listener failure on %s: %s", url, e);
+                }
+            });
+        return res;
+    }
+
+    /**
+     * Adds its properties to the specified {@code ObjectInfo} when they tell
+     * how to read its chunks. The lookup does not fail with them: the chunks
+     * of an object missing them are refused on download.
+     */
+    private CompletableFuture<ObjectInfo> withProperties(ObjectInfo oinf) {
+        if (!rawx.encoded(oinf))
+            return CompletableFuture.completedFuture(oinf);
+        return proxy.getObjectProperties(oinf.url(), null)
+                .toCompletableFuture().handle((p, t) -> {
+                    if (null == t)
+                        return oinf.properties(p);
+                    logger.warn("Unable to get the properties of %s: %s",
+                            oinf.url(), unwrap(t));
+                    return oinf;
+                });
     }
 
     @Override
@@ -101,6 +246,35 @@ public class DefaultClient implements Client {
         return rawx.downloadObject(oinf, listener);
     }
 
+    @Override
+    public Future<Boolean> downloadObject(ObjectInfo oinf, Range range,
+            DownloadListener listener) {
+        checkArgument(null != oinf, "ObjectInfo cannot be null");
+        checkArgument(null != range, "Range cannot be null");
+        return rawx.downloadObject(oinf, range, listener);
+    }
+
+    @Override
+    public ObjectDownloadStream openStream(ObjectInfo oinf) {
+        checkArgument(null != oinf, "ObjectInfo cannot be null");
+        return rawx.openStream(oinf);
+    }
+
+    @Override
+    public Future<Boolean> downloadTo(ObjectInfo oinf, FileChannel file) {
+        checkArgument(null != oinf, "ObjectInfo cannot be null");
+        checkArgument(null != file, "FileChannel cannot be null");
+        return rawx.downloadTo(oinf, file);
+    }
+
+    @Override
+    public Future<Boolean> downloadTo(ObjectInfo oinf,
+            WritableByteChannel channel) {
+        checkArgument(null != oinf, "ObjectInfo cannot be null");
+        checkArgument(null != channel, "channel cannot be null");
+        return rawx.downloadTo(oinf, channel);
+    }
+
     @Override
     public Future<ObjectInfo> deleteObject(OioUrl url,
             CompletionListener<ObjectInfo> listener) {
@@ -108,4 +282,18 @@ public class DefaultClient implements Client {
         checkArgument(null != url.object(), "url object cannot be null");
         return proxy.deleteObject(url, listener);
     }
+
+    /**
+     * Uploads an object small enough to be held in memory. Its data is loaded
+     * while its chunks are prepared, then sent as soon as they are known.
+     */
+    private Future<ObjectInfo> putSmallObject(OioUrl url, long size,
+            CompletableFuture<ByteBuffer> data,
+            CompletionListener<ObjectInfo> listener) {
+        return beans.take(url, size)
+                .thenCombine(data, (o, b) -> rawx.uploadChunks(o, b, null))
+                .thenCompose(f -> f)
+                .thenCompose(o -> proxy.putObject(o, listener)
+                        .toCompletableFuture());
+    }
 }
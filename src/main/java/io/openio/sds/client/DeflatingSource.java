@@ -0,0 +1,140 @@
+package io.openio.sds.client;
+
+import static java.lang.String.format;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
+
+import io.openio.sds.client.data.UploadSource;
+
+/**
+ * Compresses the data of a single position, read from the source of the whole
+ * object, into an independent deflate stream. The source ends once the
+ * compressed position has been read in full.
+ * <p>
+ * The data is hashed as it is read, before being compressed, so that the
+ * content hash covers the original data.
+ *
+ *
+ */
+class DeflatingSource implements UploadSource {
+
+    private static final int INPUT_SIZE = 32768;
+
+    private final UploadSource data;
+    private final long offset;
+    private final long size;
+    private final int level;
+    private final UploadHashes hashes;
+    private Deflater deflater;
+    private final byte[] input = new byte[INPUT_SIZE];
+    private byte[] output;
+    private long remaining;
+    private long produced = 0L;
+    private boolean ended = false;
+
+    /**
+     * @param data
+     *            the source of the object, positioned at the position start
+     * @param offset
+     *            the offset of the position in the object, to read it again
+     * @param size
+     *            the size of the position
+     * @param level
+     *            the compression level
+     * @param hashes
+     *            the hashes of the original data, or {@code null}
+     */
+    DeflatingSource(UploadSource data, long offset, long size, int level,
+            UploadHashes hashes) {
+        this.data = data;
+        this.offset = offset;
+        this.size = size;
+        this.level = level;
+        this.hashes = hashes;
+        this.remaining = size;
+    }
+
+    /**
+     * @return the maximum size of the compressed data of the specified number
+     *         of bytes, which may grow a little when it does not compress
+     */
+    static long bound(long size) {
+        return size + (size >> 12) + (size >> 14) + (size >> 25) + 64L;
+    }
+
+    /**
+     * @return the number of compressed bytes read so far
+     */
+    long produced() {
+        return produced;
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        // sources created only to check they can be read again hold nothing
+        if (ended)
+            return CompletableFuture.completedFuture(-1);
+        if (null == deflater)
+            deflater = new Deflater(level);
+        int n = deflate(dst);
+        if (0 < n)
+            return CompletableFuture.completedFuture(n);
+        if (deflater.finished()) {
+            deflater.end();
+            ended = true;
+            return CompletableFuture.completedFuture(-1);
+        }
+        if (0 == remaining) {
+            deflater.finish();
+            return read(dst);
+        }
+        ByteBuffer in = ByteBuffer.wrap(input, 0,
+                (int) Math.min(remaining, input.length));
+        return data.read(in).thenCompose(r -> {
+            if (0 > r) {
+                CompletableFuture<Integer> f = new CompletableFuture<>();
+                f.completeExceptionally(new EOFException(format(
+                        "Source ended %d bytes before the position end",
+                        remaining)));
+                return f;
+            }
+            if (null != hashes)
+                hashes.update(ByteBuffer.wrap(input, 0, r));
+            remaining -= r;
+            deflater.setInput(input, 0, r);
+            return read(dst);
+        });
+    }
+
+    /**
+     * Reads the position again, from its start.
+     */
+    @Override
+    public UploadSource reread(long offset) {
+        UploadSource again = 0 == offset ? data.reread(this.offset) : null;
+        return null == again ? null
+                : new DeflatingSource(again, 0L, size, level, null);
+    }
+
+    private int deflate(ByteBuffer dst) {
+        if (deflater.needsInput() && !deflater.finished()
+                && 0 < remaining)
+            return 0;
+        int n;
+        if (dst.hasArray()) {
+            n = deflater.deflate(dst.array(),
+                    dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + n);
+        } else {
+            if (null == output || output.length < dst.remaining())
+                output = new byte[dst.remaining()];
+            n = deflater.deflate(output, 0, dst.remaining());
+            dst.put(output, 0, n);
+        }
+        produced += n;
+        return n;
+    }
+}
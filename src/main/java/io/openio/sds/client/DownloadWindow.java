@@ -0,0 +1,207 @@
+package io.openio.sds.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.BiConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Downloads the positions of an object a few at a time, while passing their
+ * data to the listener strictly in order.
+ * <p>
+ * The current position is passed to the listener as it is received. Up to
+ * {@code window - 1} next positions are downloaded at the same time into
+ * their own buffers, and passed to the listener once all the previous ones
+ * are. A next position only starts when its size fits in the bytes left to
+ * buffer, so that a download never holds more than {@code budget} bytes,
+ * apart from a position too big to fit, which waits for its turn.
+ *
+ *
+ */
+class DownloadWindow {
+
+    private final int first;
+    private final int end;
+    private final DownloadListener listener;
+    private final int window;
+    private final long budget;
+    private final IntToLongFunction sizes;
+    private final BiConsumer<Integer, DownloadListener> fetch;
+    private final Runnable completed;
+
+    // guarded by this
+    private final Slot[] slots;
+    private int current;
+    private int started;
+    private long reserved = 0L;
+    private boolean failed = false;
+
+    /**
+     * @param first
+     *            the first position to download
+     * @param end
+     *            the position after the last one to download
+     * @param window
+     *            the maximum number of positions downloaded at once
+     * @param budget
+     *            the maximum number of bytes buffered ahead of the current
+     *            position
+     * @param sizes
+     *            returns the size of the data of a position
+     * @param fetch
+     *            starts the download of a position, notifying the specified
+     *            listener of its data, of its completion or of its failure
+     * @param completed
+     *            run once all the positions have been passed to the listener,
+     *            before it is notified
+     */
+    DownloadWindow(int first, int end, DownloadListener listener, int window,
+            long budget, IntToLongFunction sizes,
+            BiConsumer<Integer, DownloadListener> fetch, Runnable completed) {
+        this.first = first;
+        this.end = end;
+        this.listener = listener;
+        this.window = window;
+        this.budget = budget;
+        this.sizes = sizes;
+        this.fetch = fetch;
+        this.completed = completed;
+        this.slots = new Slot[Math.max(0, end - first)];
+        this.current = first;
+        this.started = first;
+    }
+
+    /**
+     * Starts the first positions
+     */
+    void start() {
+        if (end <= first) {
+            completed.run();
+            listener.onCompleted();
+            return;
+        }
+        fill();
+    }
+
+    /**
+     * @return the number of bytes reserved by the positions buffered ahead
+     */
+    synchronized long reserved() {
+        return reserved;
+    }
+
+    /**
+     * Starts as many positions as the window and the budget allow. The
+     * downloads are started outside of the lock, as they may fail at once.
+     */
+    private void fill() {
+        List<Slot> next = new ArrayList<>();
+        synchronized (this) {
+            while (!failed && started < end
+                    && started - current < window) {
+                Slot s = new Slot(started);
+                if (started != current) {
+                    long size = sizes.applyAsLong(started);
+                    if (reserved + size > budget)
+                        break;
+                    s.reserved = size;
+                    reserved += size;
+                } else {
+                    s.live = true;
+                }
+                slots[started++ - first] = s;
+                next.add(s);
+            }
+        }
+        for (Slot s : next) {
+            try {
+                fetch.accept(s.pos, s);
+            } catch (RuntimeException e) {
+                s.onThrowable(e);
+            }
+        }
+    }
+
+    /**
+     * Passes the completed positions to the listener, then the buffered data
+     * of the next one, which becomes current.
+     */
+    private void advance() {
+        synchronized (this) {
+            while (!failed && current < end
+                    && null != slots[current - first]
+                    && slots[current - first].done) {
+                listener.onPositionCompleted(current);
+                slots[current++ - first] = null;
+                if (current == end) {
+                    completed.run();
+                    listener.onCompleted();
+                    return;
+                }
+                Slot s = slots[current - first];
+                if (null == s)
+                    break;
+                for (ByteBuffer b = s.buffered.poll(); null != b; b = s.buffered
+                        .poll())
+                    listener.onData(b);
+                s.live = true;
+                reserved -= s.reserved;
+            }
+        }
+        fill();
+    }
+
+    private class Slot implements DownloadListener {
+
+        private final int pos;
+        private final Queue<ByteBuffer> buffered = new ArrayDeque<>();
+        private long reserved = 0L;
+        private boolean live = false;
+        private boolean done = false;
+
+        Slot(int pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public void onData(ByteBuffer bodyPart) {
+            synchronized (DownloadWindow.this) {
+                if (failed)
+                    return;
+                if (live)
+                    listener.onData(bodyPart);
+                else
+                    buffered.add(bodyPart);
+            }
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            synchronized (DownloadWindow.this) {
+                if (failed)
+                    return;
+                failed = true;
+                for (Slot s : slots) {
+                    if (null != s)
+                        s.buffered.clear();
+                }
+                listener.onThrowable(t);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onPositionCompleted(int pos) {
+            synchronized (DownloadWindow.this) {
+                done = true;
+            }
+            advance();
+        }
+    }
+}
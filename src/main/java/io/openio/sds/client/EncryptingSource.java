@@ -0,0 +1,226 @@
+package io.openio.sds.client;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import io.openio.sds.client.data.UploadSource;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ObjectInfo;
+
+/**
+ * Encrypts the data of a single position with AES-GCM, in records of
+ * {@link #RECORD_SIZE} bytes each followed by its own authentication tag, so
+ * that downloads release the data of each record as soon as it is
+ * authenticated, see {@link RecordDecipher}. The last record of a position
+ * is always shorter than the others, empty if need be, so that a chunk cut
+ * between two records does not pass for a whole one.
+ * <p>
+ * The nonce of each record is derived from the content id, unique to each
+ * upload, from the position, from the index of the record and from whether
+ * it is the last one, so that no nonce is used twice with different data.
+ * The encryption runs with the specified executor, which lets several
+ * positions be encrypted on several cores.
+ *
+ *
+ */
+class EncryptingSource implements UploadSource {
+
+    static final String NAME = "aes-gcm-records";
+    static final int TAG_SIZE = 16;
+    static final int RECORD_SIZE = 65536;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_SIZE = 12;
+
+    private final UploadSource data;
+    private final long offset;
+    private final long size;
+    private final SecretKey key;
+    private final byte[] seed;
+    private final Executor executor;
+    private final byte[] input = new byte[RECORD_SIZE];
+    private Cipher cipher;
+    private ByteBuffer pending;
+    private int filled = 0;
+    private long record = 0L;
+    private long remaining;
+    private long produced = 0L;
+    private boolean drained = false;
+    private boolean ended = false;
+
+    /**
+     * @param data
+     *            the source of the object, positioned at the position start
+     * @param offset
+     *            the offset of the position in the source, to read it again
+     * @param size
+     *            the size of the position, or {@code -1} to read the source
+     *            until its end
+     * @param key
+     *            the encryption key
+     * @param seed
+     *            the seed of the nonces of the position
+     * @param executor
+     *            the executor running the encryption
+     */
+    EncryptingSource(UploadSource data, long offset, long size,
+            SecretKey key, byte[] seed, Executor executor) {
+        this.data = data;
+        this.offset = offset;
+        this.size = size;
+        this.key = key;
+        this.seed = seed;
+        this.executor = executor;
+        this.remaining = size;
+    }
+
+    /**
+     * @return a cipher to be initialized for each record, see
+     *         {@link #init(Cipher, int, SecretKey, byte[], long, boolean)}
+     */
+    static Cipher cipher() throws GeneralSecurityException {
+        return Cipher.getInstance(TRANSFORMATION);
+    }
+
+    /**
+     * Initializes the cipher to encrypt or decrypt the specified record.
+     *
+     * @param mode
+     *            {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+     */
+    static void init(Cipher cipher, int mode, SecretKey key, byte[] seed,
+            long record, boolean last) throws GeneralSecurityException {
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8,
+                nonce(seed, record, last)));
+    }
+
+    /**
+     * Derives the seed of the nonces of the specified position from the
+     * content id.
+     */
+    static byte[] seed(ObjectInfo oinf, int pos) {
+        if (null == oinf.oid())
+            throw new SdsException(format(
+                    "No content id to derive the nonces of %s", oinf.url()));
+        MessageDigest sha = sha256();
+        sha.update(oinf.oid().getBytes(UTF_8));
+        sha.update(ByteBuffer.allocate(4).putInt(pos).array());
+        return sha.digest();
+    }
+
+    /**
+     * Derives the nonce of a record of a position from the seed of the
+     * position.
+     */
+    static byte[] nonce(byte[] seed, long record, boolean last) {
+        MessageDigest sha = sha256();
+        sha.update(seed);
+        sha.update(ByteBuffer.allocate(9).putLong(record)
+                .put((byte) (last ? 1 : 0)).array());
+        return Arrays.copyOf(sha.digest(), NONCE_SIZE);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new SdsException("Unable to derive nonce", e);
+        }
+    }
+
+    /**
+     * @return the size of the encrypted chunk of {@code size} bytes of data
+     */
+    static long sealedSize(long size) {
+        return size + (size / RECORD_SIZE + 1) * TAG_SIZE;
+    }
+
+    /**
+     * @return the number of encrypted bytes read so far
+     */
+    long produced() {
+        return produced;
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        if (null != pending && pending.hasRemaining()) {
+            int n = Math.min(pending.remaining(), dst.remaining());
+            ByteBuffer part = pending.duplicate();
+            part.limit(part.position() + n);
+            dst.put(part);
+            pending.position(pending.position() + n);
+            produced += n;
+            return CompletableFuture.completedFuture(n);
+        }
+        if (ended)
+            return CompletableFuture.completedFuture(-1);
+        return fill().thenApplyAsync(v -> {
+            // only the last record is not full
+            boolean last = filled < RECORD_SIZE;
+            try {
+                if (null == cipher)
+                    cipher = cipher();
+                init(cipher, Cipher.ENCRYPT_MODE, key, seed, record++, last);
+                pending = ByteBuffer.wrap(cipher.doFinal(input, 0, filled));
+            } catch (GeneralSecurityException e) {
+                throw new CompletionException(e);
+            }
+            filled = 0;
+            ended = last;
+            return v;
+        }, executor).thenCompose(v -> read(dst));
+    }
+
+    /**
+     * Reads the data of the next record, until the record is full or the
+     * position ends.
+     */
+    private CompletableFuture<Void> fill() {
+        int room = RECORD_SIZE - filled;
+        if (0 <= size)
+            room = (int) Math.min(room, remaining);
+        if (0 == room || drained)
+            return CompletableFuture.completedFuture(null);
+        return data.read(ByteBuffer.wrap(input, filled, room))
+                .thenCompose(n -> {
+                    if (0 > n) {
+                        if (0 < remaining)
+                            throw new CompletionException(
+                                    new EOFException(format(
+                                            "Source ended %d bytes before "
+                                                    + "the position end",
+                                            remaining)));
+                        drained = true;
+                    } else {
+                        filled += n;
+                        remaining -= n;
+                    }
+                    return fill();
+                });
+    }
+
+    /**
+     * Reads the position again, from its start.
+     */
+    @Override
+    public UploadSource reread(long offset) {
+        UploadSource again = 0 == offset ? data.reread(this.offset) : null;
+        return null == again ? null
+                : new EncryptingSource(again, 0L, size, key, seed,
+                        executor);
+    }
+}
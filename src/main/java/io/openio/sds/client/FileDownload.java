@@ -0,0 +1,127 @@
+package io.openio.sds.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Downloads the positions of an object into a file, several at a time and in
+ * any order, each part being written at its own offset as soon as it is
+ * received. Nothing is buffered, so the number of positions downloaded at once
+ * is only bounded by {@code parallel}.
+ *
+ *
+ */
+class FileDownload {
+
+    private final FileChannel file;
+    private final long[] offsets;
+    private final int parallel;
+    private final BiConsumer<Integer, DownloadListener> fetch;
+    private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+    // guarded by this
+    private int started = 0;
+    private int completed = 0;
+
+    /**
+     * @param file
+     *            the file to write, from its first byte
+     * @param offsets
+     *            the offset of each position in the data of the object, then
+     *            the size of the data
+     * @param parallel
+     *            the maximum number of positions downloaded at once
+     * @param fetch
+     *            starts the download of a position, notifying the specified
+     *            listener of its data, of its completion or of its failure
+     */
+    FileDownload(FileChannel file, long[] offsets, int parallel,
+            BiConsumer<Integer, DownloadListener> fetch) {
+        this.file = file;
+        this.offsets = offsets;
+        this.parallel = parallel;
+        this.fetch = fetch;
+    }
+
+    /**
+     * Starts the first positions
+     *
+     * @return a future completed once all the positions are written, or
+     *         failed with the first error
+     */
+    CompletableFuture<Boolean> start() {
+        if (1 == offsets.length)
+            result.complete(true);
+        else
+            fill();
+        return result;
+    }
+
+    /**
+     * Starts as many positions as allowed. The downloads are started outside
+     * of the lock, as they may fail at once.
+     */
+    private void fill() {
+        int from, to;
+        synchronized (this) {
+            from = started;
+            while (!result.isDone() && started < offsets.length - 1
+                    && started - completed < parallel)
+                started++;
+            to = started;
+        }
+        for (int pos = from; pos < to; pos++) {
+            Part p = new Part(pos);
+            try {
+                fetch.accept(pos, p);
+            } catch (RuntimeException e) {
+                p.onThrowable(e);
+            }
+        }
+    }
+
+    private class Part implements DownloadListener {
+
+        private long offset;
+
+        Part(int pos) {
+            this.offset = offsets[pos];
+        }
+
+        @Override
+        public void onData(ByteBuffer bodyPart) {
+            if (result.isDone())
+                return;
+            try {
+                while (bodyPart.hasRemaining())
+                    offset += file.write(bodyPart, offset);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            result.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onPositionCompleted(int pos) {
+            boolean all;
+            synchronized (FileDownload.this) {
+                all = ++completed == offsets.length - 1;
+            }
+            if (all)
+                result.complete(true);
+            else
+                fill();
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package io.openio.sds.client;
+
+import static java.lang.String.format;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseHeaders;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.reactivestreams.Subscription;
+
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
+import io.openio.sds.common.rain.ReedSolomon;
+import io.openio.sds.common.rain.StripeLayout;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+
+/**
+ * Downloads an erasure coded position from the fragments of its chunks,
+ * stripe by stripe.
+ * <p>
+ * All the fragments are requested at once, and each stripe is decoded from
+ * the first {@code k} of its cells received: the missing data cells, if any,
+ * are rebuilt from the parity ones, then the data cells are passed to the
+ * listener and the stripe is dropped. A slow or failed rawx thus neither
+ * delays nor breaks the read, as long as {@code k} fragments can be read.
+ * <p>
+ * A fragment is not read more than {@link #STRIPES_AHEAD} stripes ahead of
+ * the stripe being delivered, so a position holds at most that many stripes
+ * of each fragment, whatever its size. With a {@code demand}, each next
+ * stripe is also only read once the reader has room for it.
+ *
+ *
+ */
+class FragmentsReader {
+
+    /**
+     * The number of stripes of a fragment which could be received ahead of
+     * the stripe being delivered
+     */
+    static final int STRIPES_AHEAD = 4;
+
+    private static final SDSLogger logger = Loggers
+            .getLogger(FragmentsReader.class);
+
+    private final AsyncHttpClient http;
+    private final int pos;
+    private final List<ChunkInfo> chunks;
+    private final ReedSolomon codec;
+    private final StripeLayout layout;
+    private final Consumer<Subscription> demand;
+    private final Subscription pacing = new Pacing();
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final List<ListenableFuture<Boolean>> requests =
+            new CopyOnWriteArrayList<>();
+    private DownloadListener listener;
+
+    // guarded by this, the cells of the stripes not delivered yet, by stripe
+    private final Map<Long, ByteBuffer[]> stripes = new HashMap<>();
+    private final List<Subscription> parked = new ArrayList<>();
+    private long delivered = 0L;
+    private long allowed = STRIPES_AHEAD;
+    private boolean delivering = false;
+    private int failed = 0;
+
+    /**
+     * @param chunks
+     *            the {@code k + m} chunks of the position
+     * @param size
+     *            the size of the data of the position
+     * @param demand
+     *            requests the next stripe once the reader has room for it,
+     *            or {@code null}
+     */
+    FragmentsReader(AsyncHttpClient http, int pos, List<ChunkInfo> chunks,
+            long size, ReedSolomon codec, Consumer<Subscription> demand) {
+        this.http = http;
+        this.pos = pos;
+        this.chunks = chunks;
+        this.codec = codec;
+        this.layout = new StripeLayout(codec.k(), size);
+        this.demand = demand;
+    }
+
+    /**
+     * @return the requests of the fragments, once started
+     */
+    List<ListenableFuture<Boolean>> requests() {
+        return requests;
+    }
+
+    /**
+     * Fetches the fragments, sending the data of the position to the
+     * listener as the stripes are decoded.
+     *
+     * @return a future completed once the whole position has been sent to
+     *         the listener
+     */
+    CompletableFuture<Void> read(DownloadListener listener) {
+        this.listener = listener;
+        if (chunks.size() != codec.k() + codec.m()) {
+            result.completeExceptionally(new SdsException(format(
+                    "Position %d has %d chunks, %d expected", pos,
+                    chunks.size(), codec.k() + codec.m())));
+        } else if (0 == layout.stripes()) {
+            result.complete(null);
+        } else {
+            for (ChunkInfo ci : chunks) {
+                Fragment f = new Fragment(ci);
+                requests.add(http.prepareGet(ci.url()).execute(
+                        new PacedHandler<>(f, sub -> pace(f, sub))));
+            }
+        }
+        // the fragments still running are not needed anymore
+        result.whenComplete((v, t) -> stop());
+        return result;
+    }
+
+    private void stop() {
+        List<Subscription> waiting;
+        synchronized (this) {
+            stripes.clear();
+            waiting = new ArrayList<>(parked);
+            parked.clear();
+        }
+        waiting.forEach(Subscription::cancel);
+        for (ListenableFuture<Boolean> f : requests) {
+            if (!f.isDone())
+                f.cancel(true);
+        }
+    }
+
+    /**
+     * Requests the next part of a fragment, unless it is too far ahead of
+     * the stripe being delivered.
+     */
+    private void pace(Fragment f, Subscription s) {
+        synchronized (this) {
+            if (!result.isDone() && f.stripe >= allowed) {
+                parked.add(s);
+                return;
+            }
+        }
+        if (result.isDone())
+            s.cancel();
+        else
+            s.request(1L);
+    }
+
+    /**
+     * Allows the fragments to receive {@code n} more stripes, resuming the
+     * ones waiting for it.
+     */
+    private void allow(long n) {
+        List<Subscription> resumed;
+        synchronized (this) {
+            allowed += n;
+            resumed = new ArrayList<>(parked);
+            parked.clear();
+        }
+        resumed.forEach(s -> s.request(1L));
+    }
+
+    private void received(int idx, long stripe, ByteBuffer cell) {
+        synchronized (this) {
+            // late cells of delivered stripes are useless
+            if (result.isDone() || stripe < delivered)
+                return;
+            stripes.computeIfAbsent(stripe,
+                    s -> new ByteBuffer[codec.k() + codec.m()])[idx] = cell;
+        }
+        deliver();
+    }
+
+    /**
+     * Delivers the next stripes as long as they have enough cells, one
+     * thread at a time, so that the data reaches the listener in order.
+     */
+    private void deliver() {
+        while (true) {
+            ByteBuffer[] cells;
+            long stripe;
+            synchronized (this) {
+                if (delivering || result.isDone())
+                    return;
+                cells = stripes.get(delivered);
+                if (null == cells || codec.k() > count(cells))
+                    return;
+                stripes.remove(delivered);
+                stripe = delivered;
+                delivering = true;
+            }
+            try {
+                send(stripe, cells);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            boolean last;
+            synchronized (this) {
+                delivering = false;
+                last = ++delivered == layout.stripes();
+            }
+            if (last) {
+                result.complete(null);
+                return;
+            }
+            if (null == demand)
+                allow(1L);
+            else
+                demand.accept(pacing);
+        }
+    }
+
+    private static int count(ByteBuffer[] cells) {
+        int n = 0;
+        for (ByteBuffer c : cells) {
+            if (null != c)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Rebuilds the missing data cells of a stripe, then passes its data
+     * cells to the listener, which owns them from then on.
+     */
+    private void send(long stripe, ByteBuffer[] cells) {
+        int len = layout.cellSize(stripe);
+        boolean[] present = new boolean[cells.length];
+        boolean complete = true;
+        for (int i = 0; i < cells.length; i++) {
+            present[i] = null != cells[i];
+            if (i < codec.k() && !present[i]) {
+                cells[i] = ByteBuffer.allocate(len);
+                complete = false;
+            }
+        }
+        if (!complete)
+            codec.decode(cells, present, len);
+        for (int i = 0; i < codec.k(); i++) {
+            int data = layout.cellData(stripe, i);
+            if (0 < data) {
+                cells[i].limit(cells[i].position() + data);
+                listener.onData(cells[i]);
+            }
+        }
+    }
+
+    private void failed(int idx, String reason) {
+        synchronized (this) {
+            if (result.isDone())
+                return;
+            if (++failed <= codec.m())
+                return;
+        }
+        logger.warn("Unable to download fragment %d of position %d: %s", idx,
+                pos, reason);
+        result.completeExceptionally(new SdsException(
+                format("Could not download chunk at pos %d", pos)));
+    }
+
+    /**
+     * The stripes requested by the reader of the position
+     */
+    private class Pacing implements Subscription {
+
+        @Override
+        public void request(long n) {
+            allow(n);
+        }
+
+        @Override
+        public void cancel() {
+            result.completeExceptionally(new CancellationException());
+        }
+    }
+
+    private class Fragment implements AsyncHandler<Boolean> {
+
+        private final ChunkInfo ci;
+        private final int idx;
+        // written by the thread receiving the response
+        private volatile long stripe = 0L;
+        private ByteBuffer cell;
+        private boolean over = false;
+
+        Fragment(ChunkInfo ci) {
+            this.ci = ci;
+            this.idx = ci.pos().parity() ? codec.k() + ci.pos().sub()
+                    : ci.pos().sub();
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            fail(t.toString());
+        }
+
+        @Override
+        public State onStatusReceived(HttpResponseStatus status)
+                throws Exception {
+            if (200 != status.getStatusCode()) {
+                logger.warn("Unable to download chunk (%d %s) %s",
+                        status.getStatusCode(), status.getStatusText(),
+                        ci.url());
+                fail("status " + status.getStatusCode());
+                return State.ABORT;
+            }
+            return result.isDone() ? State.ABORT : State.CONTINUE;
+        }
+
+        @Override
+        public State onHeadersReceived(HttpResponseHeaders headers)
+                throws Exception {
+            return result.isDone() ? State.ABORT : State.CONTINUE;
+        }
+
+        /**
+         * Cuts the part into the cells of the fragment, each cell being
+         * handed to the reader once full.
+         */
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart bodyPart)
+                throws Exception {
+            if (result.isDone())
+                return State.ABORT;
+            ByteBuffer part = bodyPart.getBodyByteBuffer();
+            while (part.hasRemaining()) {
+                if (stripe >= layout.stripes()) {
+                    fail("fragment too large");
+                    return State.ABORT;
+                }
+                if (null == cell)
+                    cell = ByteBuffer.allocate(layout.cellSize(stripe));
+                int n = Math.min(part.remaining(), cell.remaining());
+                ByteBuffer slice = part.duplicate();
+                slice.limit(slice.position() + n);
+                cell.put(slice);
+                part.position(part.position() + n);
+                if (!cell.hasRemaining()) {
+                    cell.flip();
+                    received(idx, stripe++, cell);
+                    cell = null;
+                }
+            }
+            return State.CONTINUE;
+        }
+
+        @Override
+        public Boolean onCompleted() throws Exception {
+            if (over)
+                return false;
+            if (stripe < layout.stripes()) {
+                fail("truncated fragment");
+                return false;
+            }
+            over = true;
+            return true;
+        }
+
+        private void fail(String reason) {
+            if (over)
+                return;
+            over = true;
+            failed(idx, reason);
+        }
+    }
+}
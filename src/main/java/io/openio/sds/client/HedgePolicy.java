@@ -0,0 +1,97 @@
+package io.openio.sds.client;
+
+import java.util.Arrays;
+
+/**
+ * Decides when a chunk download is hedged, and how often.
+ * <p>
+ * The delay before a hedge is either fixed, or the 95th percentile of the
+ * last measured delays to the first byte of a chunk, no chunk being hedged
+ * until {@link #MIN_SAMPLES} of them are known. Each primary read earns
+ * {@code budget} hundredths of a hedge, up to {@link #MAX_HEDGES} hedges in
+ * advance, so that hedges never go over {@code budget} percent of the
+ * primary reads. Hedges and retries earn nothing.
+ *
+ *
+ */
+class HedgePolicy {
+
+    static final int SAMPLES = 256;
+    static final int MIN_SAMPLES = 20;
+    static final int MAX_HEDGES = 10;
+
+    private final long delay;
+    private final int budget;
+
+    // guarded by this
+    private final long[] samples = new long[SAMPLES];
+    private long recorded = 0L;
+    private int credit = 0;
+    private long requests = 0L;
+    private long hedges = 0L;
+
+    /**
+     * @param delay
+     *            the delay before a hedge in milliseconds, or {@code 0} to
+     *            learn it
+     * @param budget
+     *            the maximum percentage of hedged primary reads
+     */
+    HedgePolicy(long delay, int budget) {
+        this.delay = delay;
+        this.budget = budget;
+    }
+
+    /**
+     * Records the delay to the first byte of a chunk
+     */
+    synchronized void record(long nanos) {
+        samples[(int) (recorded++ % SAMPLES)] = nanos;
+    }
+
+    /**
+     * @return the delay before a hedge in milliseconds, or {@code -1} if it
+     *         is not known yet
+     */
+    long delay() {
+        if (0 < delay)
+            return delay;
+        long[] known;
+        synchronized (this) {
+            if (recorded < MIN_SAMPLES)
+                return -1L;
+            known = Arrays.copyOf(samples, (int) Math.min(SAMPLES, recorded));
+        }
+        Arrays.sort(known);
+        long p95 = known[(known.length * 95 + 99) / 100 - 1];
+        return Math.max(1L, p95 / 1000000L);
+    }
+
+    /**
+     * Counts the primary read of a chunk, which earns a part of a hedge
+     */
+    synchronized void request() {
+        requests++;
+        credit = Math.min(MAX_HEDGES * 100, credit + budget);
+    }
+
+    /**
+     * @return {@code true} if a hedge fits in the budget, which is then
+     *         spent
+     */
+    synchronized boolean tryHedge() {
+        if (100 > credit)
+            return false;
+        credit -= 100;
+        hedges++;
+        return true;
+    }
+
+    synchronized long requests() {
+        return requests;
+    }
+
+    synchronized long hedges() {
+        return hedges;
+    }
+}
@@ -0,0 +1,104 @@
+package io.openio.sds.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * The requests racing for the chunk of a single position, one per copy. The
+ * first request receiving data wins, and the others are cancelled. A request
+ * failing before any win only fails the position if it is the last one
+ * running.
+ *
+ *
+ */
+class HedgedRead {
+
+    // guarded by this
+    private final Map<Object, Future<?>> contenders = new HashMap<>();
+    private Object winner;
+    private int next;
+
+    /**
+     * @param next
+     *            the next copy to request
+     */
+    HedgedRead(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the next copy to request, reserved by the caller
+     */
+    synchronized int take() {
+        return next++;
+    }
+
+    /**
+     * @return {@code true} if no request won yet, and some are still running
+     */
+    synchronized boolean waiting() {
+        return null == winner && !contenders.isEmpty();
+    }
+
+    /**
+     * Adds a request to the race, before it is sent
+     */
+    synchronized void join(Object contender) {
+        contenders.put(contender, null);
+    }
+
+    /**
+     * Registers the future of a request once sent, the request being
+     * cancelled at once if it has already lost.
+     */
+    void started(Object contender, Future<?> request) {
+        synchronized (this) {
+            if (null == winner || winner == contender) {
+                if (contenders.containsKey(contender))
+                    contenders.put(contender, request);
+                return;
+            }
+        }
+        request.cancel(true);
+    }
+
+    /**
+     * Claims the position for the specified request, cancelling the other
+     * ones if it wins.
+     *
+     * @return {@code true} if the request won, now or before
+     */
+    boolean claim(Object contender) {
+        List<Future<?>> losers = new ArrayList<>();
+        synchronized (this) {
+            if (null != winner)
+                return winner == contender;
+            winner = contender;
+            Future<?> own = contenders.remove(contender);
+            for (Future<?> f : contenders.values()) {
+                if (null != f)
+                    losers.add(f);
+            }
+            contenders.clear();
+            contenders.put(contender, own);
+        }
+        for (Future<?> f : losers)
+            f.cancel(true);
+        return true;
+    }
+
+    /**
+     * Removes a request which failed from the race.
+     *
+     * @return {@code true} if its failure is the failure of the position:
+     *         it won, or no other request is left
+     */
+    synchronized boolean leave(Object contender) {
+        contenders.remove(contender);
+        return winner == contender
+                || (null == winner && contenders.isEmpty());
+    }
+}
@@ -0,0 +1,213 @@
+package io.openio.sds.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.reactivestreams.Subscription;
+
+/**
+ * Reads the data of an object, its positions being downloaded one after the
+ * other as the stream is read.
+ * <p>
+ * The data received and not yet read is bounded: once the buffer holds
+ * {@code capacity} bytes, the connection to the rawx service is not read
+ * anymore until the reader catches up, so a slow reader only holds a fixed
+ * amount of memory, plus the part being received. Erasure coded positions are
+ * read a few stripes at a time, see {@link FragmentsReader}, and encrypted
+ * ones a record at a time, see {@link RecordDecipher}. A stream is meant to
+ * be read by one thread at a time, and closing it before its end cancels the
+ * download.
+ *
+ *
+ */
+public class ObjectDownloadStream extends InputStream
+        implements ReadableByteChannel {
+
+    private final long capacity;
+    private final Runnable cancel;
+    private final DownloadListener feed = new Feed();
+
+    // guarded by this
+    private final Queue<ByteBuffer> parts = new ArrayDeque<>();
+    private long queued = 0L;
+    private Subscription paused;
+    private boolean ended = false;
+    private Throwable failure;
+    private boolean closed = false;
+
+    /**
+     * @param capacity
+     *            the number of bytes received ahead of the reader
+     * @param cancel
+     *            cancels the download
+     */
+    ObjectDownloadStream(long capacity, Runnable cancel) {
+        this.capacity = capacity;
+        this.cancel = cancel;
+    }
+
+    /**
+     * @return the listener of the downloaded data
+     */
+    DownloadListener feed() {
+        return feed;
+    }
+
+    /**
+     * Requests the next part of the current chunk from the specified
+     * subscription, once the buffer has room for it.
+     */
+    void request(Subscription s) {
+        boolean stop;
+        synchronized (this) {
+            stop = closed;
+            if (!stop && queued >= capacity) {
+                paused = s;
+                return;
+            }
+        }
+        if (stop)
+            s.cancel();
+        else
+            s.request(1L);
+    }
+
+    /**
+     * Returns the number of bytes received and not yet read
+     */
+    public synchronized long queued() {
+        return queued;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return 0 > read(b, 0, 1) ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (0 == len)
+            return 0;
+        return read(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Waits for some data, then reads as much as is available.
+     *
+     * @throws IOException
+     *             if the download failed
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining())
+            return 0;
+        Subscription resume = null;
+        int n = 0;
+        synchronized (this) {
+            if (closed)
+                throw new ClosedChannelException();
+            try {
+                while (parts.isEmpty() && !ended && null == failure)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (parts.isEmpty()) {
+                if (null != failure)
+                    throw new IOException("Download failed", failure);
+                return -1;
+            }
+            while (dst.hasRemaining() && !parts.isEmpty()) {
+                ByteBuffer part = parts.peek();
+                int len = Math.min(part.remaining(), dst.remaining());
+                ByteBuffer slice = part.duplicate();
+                slice.limit(slice.position() + len);
+                dst.put(slice);
+                part.position(part.position() + len);
+                if (!part.hasRemaining())
+                    parts.poll();
+                n += len;
+            }
+            queued -= n;
+            if (null != paused && queued < capacity) {
+                resume = paused;
+                paused = null;
+            }
+        }
+        if (null != resume)
+            resume.request(1L);
+        return n;
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(Integer.MAX_VALUE, queued);
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        Subscription s;
+        boolean running;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            running = !ended && null == failure;
+            s = paused;
+            paused = null;
+            parts.clear();
+            queued = 0L;
+        }
+        if (null != s)
+            s.cancel();
+        if (running)
+            cancel.run();
+    }
+
+    private class Feed implements DownloadListener {
+
+        @Override
+        public void onData(ByteBuffer bodyPart) {
+            synchronized (ObjectDownloadStream.this) {
+                if (closed)
+                    return;
+                parts.add(bodyPart);
+                queued += bodyPart.remaining();
+                ObjectDownloadStream.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            synchronized (ObjectDownloadStream.this) {
+                failure = t;
+                ObjectDownloadStream.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (ObjectDownloadStream.this) {
+                ended = true;
+                ObjectDownloadStream.this.notifyAll();
+            }
+        }
+
+        @Override
+        public void onPositionCompleted(int pos) {
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.common.FutureHelper.unwrap;
+import static java.lang.String.format;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import io.openio.sds.client.data.UploadSource;
+import io.openio.sds.common.AsyncPermits;
+import io.openio.sds.common.rain.ReedSolomon;
+import io.openio.sds.common.rain.StripeLayout;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ChunkMethod;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+import io.openio.sds.models.Position;
+
+/**
+ * Uploads an object whose size is not known in advance, from the data
+ * written to this stream.
+ * <p>
+ * The chunks are prepared one position at a time, the next position being
+ * prepared while the current one fills. Each position is sent as soon as its
+ * data is written, without spooling it: writes block until the data has been
+ * queued for the rawx services. The object is committed when the stream is
+ * closed, with the chunks actually written.
+ * <p>
+ * Every write hands its data over to the upload, so small writes should be
+ * buffered by the caller. A stream is meant to be written by one thread at a
+ * time.
+ *
+ *
+ */
+public class ObjectUploadStream extends OutputStream
+        implements WritableByteChannel {
+
+    private final ProxyClient proxy;
+    private final RawxClient rawx;
+    private final OioUrl url;
+    private final CompletionListener<ObjectInfo> listener;
+    private final CompletableFuture<ObjectInfo> beans;
+    private final CompletableFuture<ObjectInfo> result = new CompletableFuture<>();
+    private final Handoff source = new Handoff();
+
+    private ObjectInfo oinf;
+    private long max;
+    private ReedSolomon codec;
+    private UploadHashes hashes;
+    private WriteQuorum quorum;
+    private AsyncPermits window;
+    private final List<ChunkInfo> chunks = new ArrayList<>();
+    private final List<Long> sizes = new ArrayList<>();
+    private final List<CompletableFuture<ObjectInfo>> positions = new ArrayList<>();
+    private CompletableFuture<Void> previousRead = CompletableFuture
+            .completedFuture(null);
+    private CompletableFuture<ObjectInfo> next;
+    private int pos = -1;
+    private long written = 0L;
+    private boolean closed = false;
+
+    ObjectUploadStream(ProxyClient proxy, RawxClient rawx, OioUrl url,
+            CompletionListener<ObjectInfo> listener) {
+        this.proxy = proxy;
+        this.rawx = rawx;
+        this.url = url;
+        this.listener = listener;
+        this.beans = prepare();
+    }
+
+    /**
+     * Returns the result of the upload.
+     *
+     * @return a Future completed once the stream has been closed and the
+     *         object committed, which contains informations about the object
+     */
+    public Future<ObjectInfo> result() {
+        return result;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (closed)
+            throw new ClosedChannelException();
+        int res = src.remaining();
+        while (src.hasRemaining()) {
+            if (0 > pos || written == max)
+                startPosition();
+            int len = (int) Math.min(src.remaining(), max - written);
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + len);
+            source.hand(part);
+            src.position(src.position() + len);
+            written += len;
+            // the next position is prepared while this one fills
+            if (null == next && written >= max / 2)
+                next = prepare();
+        }
+        return res;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Ends the object, then waits for its chunks to be uploaded and for the
+     * object to be committed.
+     *
+     * @throws IOException
+     *             if the upload failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                // an empty object still has a position
+                if (0 > pos)
+                    startPosition();
+                sizes.add(written);
+                source.end();
+                complete();
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+        await(result);
+    }
+
+    /* --- INTERNALS --- */
+
+    private CompletableFuture<ObjectInfo> prepare() {
+        return proxy.getBeans(url, 0L, null).toCompletableFuture();
+    }
+
+    private void startPosition() throws IOException {
+        ObjectInfo prepared = await(0 > pos ? beans : null == next
+                ? prepare() : next);
+        next = null;
+        if (0 > pos)
+            init(prepared);
+        else
+            sizes.add(written);
+        int p = ++pos;
+        written = 0L;
+        for (ChunkInfo ci : prepared.sortedChunks().get(0)) {
+            ci.pos(null == codec ? Position.simple(p)
+                    : Position.composed(p, ci.pos().sub(), ci.pos().parity()));
+            chunks.add(ci);
+        }
+        oinf.chunks(new ArrayList<>(chunks));
+        CompletableFuture<Void> read = new CompletableFuture<>();
+        CompletableFuture<ObjectInfo> f = rawx.inflightOpen(previousRead,
+                window, () -> rawx.uploadOpenPosition(oinf, p, max, source,
+                        read, hashes, quorum, codec));
+        f.whenComplete((o, t) -> {
+            if (null != t) {
+                read.completeExceptionally(t);
+                source.fail(unwrap(t));
+            }
+        });
+        positions.add(f);
+        previousRead = read;
+    }
+
+    private void init(ObjectInfo prepared) throws IOException {
+        oinf = prepared;
+        if (null == oinf.chunks() || oinf.chunks().isEmpty())
+            throw new IOException(new SdsException(
+                    format("No chunk prepared for %s", url)));
+        max = oinf.chunksize(0);
+        if (0 >= max)
+            throw new IOException(new SdsException(
+                    format("Invalid chunk size %d", max)));
+        // the size is unknown until the stream is closed
+        oinf.size(-1L);
+        try {
+            rawx.encoding(oinf);
+        } catch (SdsException e) {
+            throw new IOException(e);
+        }
+        ChunkMethod method = ChunkMethod.parse(oinf.chunkMethod());
+        codec = method.ec() ? new ReedSolomon(method.k(), method.m()) : null;
+        hashes = rawx.hashes(oinf);
+        quorum = rawx.quorum();
+        window = rawx.uploadWindow();
+    }
+
+    /**
+     * Commits the object once all its positions are uploaded, with the size
+     * of each one.
+     */
+    private void complete() {
+        CompletableFuture
+                .allOf(positions.toArray(new CompletableFuture[positions.size()]))
+                .thenCompose(v -> quorum.complete(oinf))
+                .thenCompose(o -> {
+                    long total = 0L;
+                    for (int i = 0; i < sizes.size(); i++) {
+                        // fragments hold their own part of the position
+                        long size = null == codec ? sizes.get(i)
+                                : new StripeLayout(codec.k(), sizes.get(i))
+                                        .fragmentSize();
+                        for (ChunkInfo ci : oinf.sortedChunks().get(i))
+                            ci.size(size);
+                        total += sizes.get(i);
+                    }
+                    oinf.size(total);
+                    hashes.complete(oinf);
+                    return proxy.putObject(oinf, listener).toCompletableFuture();
+                })
+                .whenComplete((o, t) -> {
+                    if (null == t)
+                        result.complete(o);
+                    else
+                        result.completeExceptionally(unwrap(t));
+                });
+    }
+
+    private static <T> T await(CompletableFuture<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable t = unwrap(e);
+            if (t instanceof IOException)
+                throw (IOException) t;
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Hands the written data over to the upload. The data is copied straight
+     * into the buffers of the reads, the writer waiting until all of it has
+     * been read.
+     */
+    private static class Handoff implements UploadSource {
+
+        // guarded by this
+        private ByteBuffer pending;
+        private CompletableFuture<Void> consumed;
+        private ByteBuffer dst;
+        private CompletableFuture<Integer> read;
+        private boolean ended = false;
+        private Throwable failure;
+
+        @Override
+        public CompletableFuture<Integer> read(ByteBuffer dst) {
+            CompletableFuture<Void> done = null;
+            int n;
+            synchronized (this) {
+                if (null == pending) {
+                    if (ended)
+                        return CompletableFuture.completedFuture(-1);
+                    this.dst = dst;
+                    this.read = new CompletableFuture<>();
+                    return read;
+                }
+                n = transfer(pending, dst);
+                if (!pending.hasRemaining()) {
+                    done = consumed;
+                    pending = null;
+                    consumed = null;
+                }
+            }
+            if (null != done)
+                done.complete(null);
+            return CompletableFuture.completedFuture(n);
+        }
+
+        /**
+         * Waits for the specified data to be read.
+         */
+        void hand(ByteBuffer data) throws IOException {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            CompletableFuture<Integer> r;
+            int n = 0;
+            synchronized (this) {
+                if (null != failure)
+                    throw new IOException("Upload failed", failure);
+                r = read;
+                if (null != r) {
+                    n = transfer(data, dst);
+                    read = null;
+                    dst = null;
+                }
+                if (data.hasRemaining()) {
+                    pending = data;
+                    consumed = done;
+                } else {
+                    done.complete(null);
+                }
+            }
+            // the reader may go on from this thread
+            if (null != r)
+                r.complete(n);
+            await(done);
+        }
+
+        /**
+         * Ends the data, the next reads returning {@code -1}.
+         */
+        void end() {
+            CompletableFuture<Integer> r;
+            synchronized (this) {
+                ended = true;
+                r = read;
+                read = null;
+                dst = null;
+            }
+            if (null != r)
+                r.complete(-1);
+        }
+
+        /**
+         * Stops waiting for the data to be read.
+         */
+        void fail(Throwable t) {
+            CompletableFuture<Void> done;
+            synchronized (this) {
+                if (null == failure)
+                    failure = t;
+                done = consumed;
+                pending = null;
+                consumed = null;
+            }
+            if (null != done)
+                done.completeExceptionally(
+                        new IOException("Upload failed", t));
+        }
+
+        private static int transfer(ByteBuffer src, ByteBuffer dst) {
+            int n = Math.min(src.remaining(), dst.remaining());
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + n);
+            dst.put(part);
+            src.position(src.position() + n);
+            return n;
+        }
+    }
+}
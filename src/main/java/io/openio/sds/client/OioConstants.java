@@ -37,6 +37,10 @@ public class OioConstants {
 	public static final String CONTENT_META_POLICY_HEADER = "X-oio-content-meta-policy";
 	public static final String CONTENT_META_VERSION_HEADER = "X-oio-content-meta-version";
 
+	public static final String COMPRESSION_PROPERTY = "x-oio-compression";
+	public static final String ENCRYPTION_PROPERTY = "x-oio-encryption";
+	public static final String ORIGINAL_CHUNK_SIZE_PROPERTY = "x-oio-original-chunk-size";
+
 	public static final String NS_CHUNK_SIZE_HEADER = "X-oio-ns-chunk-size";
 	public static final String LIST_TRUNCATED_HEADER = "X-oio-list-truncated";
 	
@@ -0,0 +1,114 @@
+package io.openio.sds.client;
+
+import java.util.function.Consumer;
+
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseHeaders;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.handler.StreamedAsyncHandler;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Passes the body of a response to a handler one part at a time, each part
+ * being requested once the previous one has been handled and the reader has
+ * room for it. The connection is not read while no part is requested, so a
+ * slow reader slows the rawx service down instead of piling the data up.
+ *
+ *
+ */
+class PacedHandler<T> implements StreamedAsyncHandler<T>,
+        Subscriber<HttpResponseBodyPart> {
+
+    private final AsyncHandler<T> handler;
+    private final Consumer<Subscription> demand;
+    private volatile Subscription subscription;
+
+    /**
+     * @param handler
+     *            the handler of the response, completed once the whole body
+     *            has been handled
+     * @param demand
+     *            requests the next part from the subscription once there is
+     *            room for it
+     */
+    PacedHandler(AsyncHandler<T> handler, Consumer<Subscription> demand) {
+        this.handler = handler;
+        this.demand = demand;
+    }
+
+    @Override
+    public State onStream(Publisher<HttpResponseBodyPart> publisher) {
+        publisher.subscribe(this);
+        return State.CONTINUE;
+    }
+
+    @Override
+    public void onThrowable(Throwable t) {
+        handler.onThrowable(t);
+    }
+
+    @Override
+    public State onBodyPartReceived(HttpResponseBodyPart bodyPart)
+            throws Exception {
+        return handler.onBodyPartReceived(bodyPart);
+    }
+
+    @Override
+    public State onStatusReceived(HttpResponseStatus responseStatus)
+            throws Exception {
+        return handler.onStatusReceived(responseStatus);
+    }
+
+    @Override
+    public State onHeadersReceived(HttpResponseHeaders headers)
+            throws Exception {
+        return handler.onHeadersReceived(headers);
+    }
+
+    /**
+     * The body may still be read once the response has been received, the
+     * handler is completed with it.
+     */
+    @Override
+    public T onCompleted() throws Exception {
+        return null;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = s;
+        demand.accept(s);
+    }
+
+    @Override
+    public void onNext(HttpResponseBodyPart part) {
+        try {
+            if (State.CONTINUE != handler.onBodyPartReceived(part)) {
+                subscription.cancel();
+                return;
+            }
+        } catch (Exception e) {
+            subscription.cancel();
+            handler.onThrowable(e);
+            return;
+        }
+        demand.accept(subscription);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        handler.onThrowable(t);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            handler.onCompleted();
+        } catch (Exception e) {
+            handler.onThrowable(e);
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.common.FutureHelper.unwrap;
+import static io.openio.sds.common.FutureHelper.within;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.openio.sds.client.data.BufferPool;
+import io.openio.sds.client.data.OioQueueBasedFeedableBodyGenerator;
+import io.openio.sds.client.data.PooledBuffer;
+import io.openio.sds.client.data.UploadSource;
+import io.openio.sds.common.rain.ReedSolomon;
+import io.openio.sds.common.rain.StripeLayout;
+
+/**
+ * Reads the data of a position from an {@link UploadSource} and feeds the
+ * generators of all the copies of the chunk.
+ * <p>
+ * Nothing blocks: the feeder waits for room in every generator before reading
+ * the next buffer, and resumes from the thread completing the read or making
+ * room, so no thread is held while waiting for data or for a slow rawx. The
+ * data is hashed on the way when {@link UploadHashes} are given.
+ * <p>
+ * With a write quorum, a copy which fails, or which makes no room in time
+ * while the quorum of copies are ready, is left out instead of failing the
+ * whole position. So is any failed copy when copies can be uploaded again.
+ * <p>
+ * Erasure coded positions are read by stripes, as described by
+ * {@link StripeLayout}: the data is read straight into the cells of the
+ * stripe, then the parity cells are computed, and each generator is fed with
+ * the cell of its own fragment.
+ *
+ *
+ */
+class PositionFeeder {
+
+    private final UploadSource source;
+    private final long size;
+    private final List<OioQueueBasedFeedableBodyGenerator> gens;
+    private final BufferPool buffers;
+    private final long timeout;
+    private final ScheduledExecutorService timer;
+    private final UploadHashes hashes;
+    private final ReedSolomon codec;
+    private StripeLayout layout;
+    private final int quorum;
+    private final int required;
+    private final long grace;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private long done = 0L;
+    private long stripe = 0L;
+    // the size is only a maximum, the end of the source ends the position
+    private boolean open = false;
+    private boolean ended = false;
+    // data cells of the current stripe, a single buffer for copies
+    private PooledBuffer[] cells;
+    private int filling;
+
+    // guarded by this, only one thread runs the feeding loop at a time
+    private boolean pumping = false;
+    private boolean again = false;
+    private boolean reading = false;
+    private Throwable failure;
+    // copies left out, once they failed or were too slow
+    private final boolean[] dropped;
+    private int live;
+
+    /**
+     * Creates a feeder of copies, all generators receiving the same data.
+     * Copies may fail or be left out for being too slow, as long as
+     * {@code required} of them are still fed.
+     *
+     * @param quorum
+     *            the number of copies which may go on without the slower ones
+     * @param required
+     *            the number of copies which must receive the whole data,
+     *            {@code 0} if failed copies can be uploaded again
+     * @param grace
+     *            how long the slowest copies may delay the others once the
+     *            quorum of copies have room, in milliseconds
+     */
+    PositionFeeder(UploadSource source, long size,
+            List<OioQueueBasedFeedableBodyGenerator> gens, BufferPool buffers,
+            long timeout, ScheduledExecutorService timer,
+            UploadHashes hashes, int quorum, int required, long grace) {
+        this(source, size, gens, buffers, timeout, timer, hashes, null,
+                quorum, required, grace);
+    }
+
+    /**
+     * Creates a feeder of erasure coded fragments. The generators are sorted
+     * by fragment, data ones first, and the buffers must be heap buffers of
+     * {@link StripeLayout#CELL_SIZE} bytes. Fragments without generator are
+     * computed but not sent.
+     *
+     * @param required
+     *            the number of fragments which must receive the whole data,
+     *            {@code 0} if failed fragments can be uploaded again
+     */
+    PositionFeeder(UploadSource source, long size,
+            List<OioQueueBasedFeedableBodyGenerator> gens, BufferPool buffers,
+            long timeout, ScheduledExecutorService timer,
+            UploadHashes hashes, ReedSolomon codec, int required) {
+        this(source, size, gens, buffers, timeout, timer, hashes, codec,
+                gens.size(), required, 0L);
+    }
+
+    private PositionFeeder(UploadSource source, long size,
+            List<OioQueueBasedFeedableBodyGenerator> gens, BufferPool buffers,
+            long timeout, ScheduledExecutorService timer,
+            UploadHashes hashes, ReedSolomon codec, int quorum, int required,
+            long grace) {
+        this.source = source;
+        this.size = size;
+        this.gens = gens;
+        this.buffers = buffers;
+        this.timeout = timeout;
+        this.timer = timer;
+        this.hashes = hashes;
+        this.codec = codec;
+        this.layout = null == codec ? null : new StripeLayout(codec.k(), size);
+        this.quorum = quorum;
+        this.required = required;
+        this.grace = grace;
+        this.dropped = new boolean[gens.size()];
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = null == gens.get(i);
+            if (!dropped[i])
+                live++;
+        }
+    }
+
+    /**
+     * Returns the result of the feeding. Callbacks should be registered
+     * before {@link #start()}, which may complete it synchronously.
+     *
+     * @return a future completed when the whole position has been read and
+     *         queued
+     */
+    CompletableFuture<Void> result() {
+        return result;
+    }
+
+    /**
+     * Lets the source end before the size of the position, which is then
+     * only a maximum. The generators are fed until the end of the source.
+     *
+     * @return this
+     */
+    PositionFeeder open() {
+        this.open = true;
+        return this;
+    }
+
+    /**
+     * Starts to feed the generators
+     */
+    void start() {
+        pump();
+    }
+
+    /**
+     * Runs the feeding loop, unless it is already running. In that case, the
+     * running loop is asked to go on, which also prevents recursion when a
+     * generator makes room from the thread which feeds it.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                again = true;
+                return;
+            }
+            pumping = true;
+        }
+        for (;;) {
+            step();
+            synchronized (this) {
+                if (!again) {
+                    pumping = false;
+                    return;
+                }
+                again = false;
+            }
+        }
+    }
+
+    private void step() {
+        try {
+            for (;;) {
+                Throwable err;
+                boolean busy;
+                synchronized (this) {
+                    err = failure;
+                    busy = reading;
+                }
+                if (null != err)
+                    fail(err);
+                // a pending read may still write into the current cells
+                if (busy)
+                    return;
+                if (result.isDone()) {
+                    releaseCells();
+                    return;
+                }
+                if (null == cells) {
+                    if (ended || done >= size) {
+                        result.complete(null);
+                        return;
+                    }
+                    CompletableFuture<Void> room = room();
+                    if (!room.isDone()) {
+                        room.whenComplete((v, t) -> resume(t));
+                        return;
+                    }
+                    room.join();
+                    startStripe();
+                }
+                if (filling < cells.length && !ended) {
+                    ByteBuffer b = cells[filling].buffer();
+                    if (!b.hasRemaining()) {
+                        filling++;
+                        continue;
+                    }
+                    CompletableFuture<Integer> read = source.read(b);
+                    if (!read.isDone()) {
+                        synchronized (this) {
+                            reading = true;
+                        }
+                        read.whenComplete((n, t) -> {
+                            synchronized (this) {
+                                reading = false;
+                            }
+                            resume((null == t && 0 > n) ? end() : t);
+                        });
+                        return;
+                    }
+                    if (0 > read.join()) {
+                        Throwable e = end();
+                        if (null != e)
+                            throw e;
+                    }
+                    continue;
+                }
+                endStripe();
+            }
+        } catch (Throwable t) {
+            synchronized (this) {
+                if (null == failure)
+                    failure = unwrap(t);
+            }
+            fail(failure);
+            releaseCells();
+        }
+    }
+
+    /**
+     * Acquires the cells of the next stripe, each one limited to the number
+     * of bytes to read in it.
+     */
+    private void startStripe() {
+        if (null == codec) {
+            cells = new PooledBuffer[] { buffers.acquire() };
+            cells[0].buffer().limit((int) Math.min(size - done,
+                    cells[0].buffer().capacity()));
+        } else {
+            cells = new PooledBuffer[codec.k()];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = buffers.acquire();
+                cells[i].buffer().limit(layout.cellData(stripe, i));
+            }
+        }
+        filling = 0;
+    }
+
+    /**
+     * Hashes the data of the filled stripe, computes its parity if needed,
+     * and feeds it to the generators.
+     */
+    private void endStripe() throws Exception {
+        if (ended && null != codec)
+            spread();
+        for (PooledBuffer c : cells) {
+            ByteBuffer b = c.buffer();
+            b.flip();
+            if (null != hashes)
+                hashes.update(b);
+            done += b.remaining();
+        }
+        boolean last = ended || done >= size;
+        if (null == codec) {
+            for (int i = 0; i < gens.size(); i++)
+                feed(i, cells[0], last);
+        } else {
+            int len = layout.cellSize(stripe);
+            ByteBuffer[] data = new ByteBuffer[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                data[i] = cells[i].buffer();
+                pad(data[i], len);
+            }
+            PooledBuffer[] parity = new PooledBuffer[codec.m()];
+            ByteBuffer[] pb = new ByteBuffer[parity.length];
+            try {
+                for (int i = 0; i < parity.length; i++) {
+                    parity[i] = buffers.acquire();
+                    pb[i] = parity[i].buffer();
+                    pb[i].limit(len);
+                }
+                codec.encode(data, pb, len);
+                for (int i = 0; i < cells.length; i++)
+                    feed(i, cells[i], last);
+                for (int i = 0; i < parity.length; i++)
+                    feed(cells.length + i, parity[i], last);
+            } finally {
+                for (PooledBuffer p : parity) {
+                    if (null != p)
+                        p.release();
+                }
+            }
+            stripe++;
+        }
+        releaseCells();
+    }
+
+    /**
+     * Spreads the data of the last stripe of an open position, read in full
+     * cells, over all its cells, as described by the layout of the actual
+     * size of the position.
+     */
+    private void spread() {
+        int total = 0;
+        for (PooledBuffer c : cells)
+            total += c.buffer().position();
+        byte[] data = new byte[total];
+        int off = 0;
+        for (PooledBuffer c : cells) {
+            ByteBuffer b = c.buffer();
+            System.arraycopy(b.array(), b.arrayOffset(), data, off,
+                    b.position());
+            off += b.position();
+        }
+        layout = new StripeLayout(codec.k(), layout.offset(stripe) + total);
+        off = 0;
+        for (int i = 0; i < cells.length; i++) {
+            ByteBuffer b = cells[i].buffer();
+            b.clear();
+            b.put(data, off, layout.cellData(stripe, i));
+            off += layout.cellData(stripe, i);
+        }
+    }
+
+    /**
+     * Handles the end of the source.
+     *
+     * @return the failure to report, if the position is not open
+     */
+    private EOFException end() {
+        if (!open)
+            return eof();
+        synchronized (this) {
+            ended = true;
+        }
+        return null;
+    }
+
+    /**
+     * Extends the cell to the specified length with zeros.
+     */
+    private static void pad(ByteBuffer b, int len) {
+        int from = b.limit();
+        b.limit(len);
+        Arrays.fill(b.array(), b.arrayOffset() + from, b.arrayOffset() + len,
+                (byte) 0);
+    }
+
+    private void releaseCells() {
+        if (null == cells)
+            return;
+        for (PooledBuffer c : cells)
+            c.release();
+        cells = null;
+    }
+
+    private void resume(Throwable t) {
+        if (null != t) {
+            synchronized (this) {
+                if (null == failure)
+                    failure = unwrap(t);
+            }
+        }
+        pump();
+    }
+
+    private void fail(Throwable t) {
+        if (result.completeExceptionally(t)) {
+            for (OioQueueBasedFeedableBodyGenerator g : gens) {
+                if (null != g)
+                    g.abort(t);
+            }
+        }
+    }
+
+    private void feed(int i, PooledBuffer buffer, boolean last)
+            throws Exception {
+        synchronized (this) {
+            if (dropped[i])
+                return;
+        }
+        try {
+            gens.get(i).feed(buffer, last);
+        } catch (Exception e) {
+            if (!drop(i))
+                throw e;
+        }
+    }
+
+    /**
+     * Leaves the specified copy out.
+     *
+     * @return {@code false} if too few copies are left
+     */
+    private synchronized boolean drop(int i) {
+        if (!dropped[i]) {
+            dropped[i] = true;
+            live--;
+        }
+        return live >= required;
+    }
+
+    /**
+     * Waits for room in the generators of the copies still fed. Once
+     * {@code quorum} of them have room, the others get the grace period to
+     * make some, then they are aborted and left out.
+     */
+    private CompletableFuture<Void> room() {
+        long next = null == codec ? Math.min(size - done, buffers.bufsize())
+                : layout.cellSize(stripe);
+        List<Integer> waited = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < gens.size(); i++) {
+                if (!dropped[i])
+                    waited.add(i);
+            }
+        }
+        if (waited.isEmpty())
+            return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> res = new CompletableFuture<>();
+        boolean[] ready = new boolean[gens.size()];
+        int[] completed = new int[2];
+        for (int i : waited) {
+            gens.get(i).room(next).whenComplete((v, t) -> {
+                boolean reached;
+                boolean over;
+                synchronized (ready) {
+                    ready[i] = null == t;
+                    if (null == t)
+                        completed[0]++;
+                    else
+                        completed[1]++;
+                    reached = null == t && quorum == completed[0];
+                    over = waited.size() == completed[0] + completed[1];
+                }
+                if (null != t && !drop(i))
+                    res.completeExceptionally(t);
+                if (over)
+                    res.complete(null);
+                else if (reached)
+                    abortLater(waited, ready, res);
+            });
+        }
+        return within(res, timeout, timer);
+    }
+
+    private void abortLater(List<Integer> waited, boolean[] ready,
+            CompletableFuture<Void> room) {
+        Runnable abort = () -> {
+            if (room.isDone())
+                return;
+            TimeoutException e = new TimeoutException(String.format(
+                    "No room for a copy %d ms after the quorum", grace));
+            for (int i : waited) {
+                synchronized (ready) {
+                    if (ready[i])
+                        continue;
+                }
+                gens.get(i).abort(e);
+            }
+        };
+        if (0 == grace)
+            abort.run();
+        else
+            timer.schedule(abort, grace, TimeUnit.MILLISECONDS);
+    }
+
+    private EOFException eof() {
+        return new EOFException("Unexpected end of stream");
+    }
+}
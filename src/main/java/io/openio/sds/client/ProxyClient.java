@@ -9,7 +9,9 @@ import static java.lang.String.format;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.asynchttpclient.AsyncCompletionHandler;
 import org.asynchttpclient.AsyncHttpClient;
@@ -21,8 +23,10 @@ import com.google.common.reflect.TypeToken;
 import com.google.gson.JsonSyntaxException;
 
 import io.openio.sds.client.request.BeansRequest;
+import io.openio.sds.client.request.ContentRequest;
 import io.openio.sds.client.settings.ProxySettings;
 import io.openio.sds.exceptions.ContainerExistException;
+import io.openio.sds.exceptions.SdsException;
 import io.openio.sds.models.ChunkInfo;
 import io.openio.sds.models.ContainerInfo;
 import io.openio.sds.models.ListOptions;
@@ -278,6 +282,52 @@ public class ProxyClient {
                 .execute(handler);
     }
 
+    /**
+     * Finds a new location for a chunk whose upload failed. A location is
+     * prepared for a single chunk of the same size, preferably on a service
+     * not already holding the position of the failed chunk.
+     * 
+     * @param objectInfo
+     *            the object being uploaded
+     * @param failed
+     *            the chunk to replace
+     * @return a ListenableFuture which handles the spare chunk, at the
+     *         position of the failed one
+     */
+    public ListenableFuture<ChunkInfo> getSpareChunk(ObjectInfo objectInfo,
+            ChunkInfo failed) {
+        AsyncCompletionHandler<ChunkInfo> handler = new AsyncCompletionHandler<ChunkInfo>() {
+            @Override
+            public ChunkInfo onCompleted(Response response) throws Exception {
+                ensureSuccess(response);
+                List<ChunkInfo> candidates = bodyChunk(response);
+                if (candidates.isEmpty())
+                    throw new SdsException(format("No spare chunk for %s",
+                            failed.url()));
+                ChunkInfo spare = candidates.get(0);
+                for (ChunkInfo c : candidates) {
+                    if (!usedService(objectInfo, failed, c)) {
+                        spare = c;
+                        break;
+                    }
+                }
+                return new ChunkInfo()
+                        .url(spare.url())
+                        .size(failed.size())
+                        .pos(failed.pos());
+            }
+        };
+        return http
+                .preparePost(String.format(
+                        "%s/v3.0/%s/content/prepare?acct=%s&ref=%s&path=%s",
+                        settings.url(), settings.ns(),
+                        objectInfo.url().account(),
+                        objectInfo.url().container(),
+                        objectInfo.url().object()))
+                .setBody(gson().toJson(new BeansRequest().size(failed.size())))
+                .execute(handler);
+    }
+
     /**
      * Commit an object into the oio namespace
      * 
@@ -304,7 +354,7 @@ public class ProxyClient {
                     listener.onThrowable(t);
             }
         };
-        return http
+        BoundRequestBuilder builder = http
                 .preparePost(String.format(
                         "%s/v3.0/%s/content/create?acct=%s&ref=%s&path=%s",
                         settings.url(), settings.ns(),
@@ -312,10 +362,25 @@ public class ProxyClient {
                         objectInfo.url().container(),
                         objectInfo.url().object()))
                 .setHeader(CONTENT_META_LENGTH_HEADER,
-                        String.valueOf(objectInfo.size()))
-                .setHeader(CONTENT_META_HASH_HEADER, objectInfo.hash())
-                .setBody(gson().toJson(objectInfo.chunks()))
-                .execute(handler);
+                        String.valueOf(objectInfo.size()));
+        // the content keeps the id its chunks were written with
+        if (null != objectInfo.oid())
+            builder = builder.setHeader(CONTENT_META_ID_HEADER,
+                    objectInfo.oid());
+        if (null != objectInfo.hash())
+            builder = builder.setHeader(CONTENT_META_HASH_HEADER,
+                    objectInfo.hash());
+        // the chunk method may differ from the one of the storage policy
+        if (null != objectInfo.chunkMethod())
+            builder = builder.setHeader(CONTENT_META_CHUNK_METHOD_HEADER,
+                    objectInfo.chunkMethod());
+        // the properties are set with the content, when there are some
+        String body = objectInfo.properties().isEmpty()
+                ? gson().toJson(objectInfo.chunks())
+                : gson().toJson(new ContentRequest()
+                        .chunks(objectInfo.chunks())
+                        .properties(objectInfo.properties()));
+        return builder.setBody(body).execute(handler);
     }
 
     /**
@@ -335,13 +400,15 @@ public class ProxyClient {
                 ensureSuccess(response);
                 ObjectInfo objectInfo = fillObjectInfo(url, response)
                         .chunks(bodyChunk(response));
-                listener.onResponse(objectInfo);
+                if (null != listener)
+                    listener.onResponse(objectInfo);
                 return objectInfo;
             }
 
             @Override
             public void onThrowable(Throwable t) {
-                listener.onThrowable(t);
+                if (null != listener)
+                    listener.onThrowable(t);
             }
         };
         return http.prepareGet(
@@ -352,6 +419,47 @@ public class ProxyClient {
     }
     
 
+    /**
+     * Returns the properties of the specified object
+     * 
+     * @param url
+     *            the url of the object
+     * @param listener
+     *            the listener to use on completion or exception. Could be
+     *            {@code null}.
+     * @return a ListenableFuture which handles the properties
+     */
+    public ListenableFuture<Map<String, String>> getObjectProperties(
+            OioUrl url, final CompletionListener<Map<String, String>> listener) {
+        AsyncCompletionHandler<Map<String, String>> handler = new AsyncCompletionHandler<Map<String, String>>() {
+            @Override
+            public Map<String, String> onCompleted(Response response)
+                    throws Exception {
+                ensureSuccess(response);
+                ContentRequest content = gson().fromJson(
+                        response.getResponseBody(), ContentRequest.class);
+                Map<String, String> properties = null == content
+                        || null == content.properties()
+                                ? Collections.emptyMap()
+                                : content.properties();
+                if (null != listener)
+                    listener.onResponse(properties);
+                return properties;
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+                if (null != listener)
+                    listener.onThrowable(t);
+            }
+        };
+        return http.preparePost(String.format(
+                "%s/v3.0/%s/content/get_properties?acct=%s&ref=%s&path=%s",
+                settings.url(), settings.ns(), url.account(),
+                url.container(), url.object()))
+                .execute(handler);
+    }
+
     public ListenableFuture<ObjectInfo> deleteObject(OioUrl url,
             final CompletionListener<ObjectInfo> listener) {
         AsyncCompletionHandler<ObjectInfo> handler = new AsyncCompletionHandler<ObjectInfo>() {
@@ -378,6 +486,22 @@ public class ProxyClient {
                 .execute(handler);
     }
 
+    private static boolean usedService(ObjectInfo oinf, ChunkInfo failed,
+            ChunkInfo candidate) {
+        String service = service(candidate);
+        if (service.equals(service(failed)))
+            return true;
+        for (ChunkInfo ci : oinf.sortedChunks().get(failed.pos().meta())) {
+            if (service.equals(service(ci)))
+                return true;
+        }
+        return false;
+    }
+
+    private static String service(ChunkInfo ci) {
+        return ci.url().substring(0, ci.url().lastIndexOf('/'));
+    }
+
     private ObjectInfo fillObjectInfo(OioUrl url, Response r) {
         return new ObjectInfo()
                 .url(url)
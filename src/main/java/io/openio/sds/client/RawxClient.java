@@ -2,26 +2,42 @@ package io.openio.sds.client;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.RANGE;
 import static io.openio.sds.client.OioConstants.*;
+import static io.openio.sds.common.FutureHelper.unwrap;
 import static java.lang.String.format;
-import static java.nio.ByteBuffer.wrap;
-import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.crypto.AEADBadTagException;
 
 import org.asynchttpclient.AsyncCompletionHandler;
 import org.asynchttpclient.AsyncHandler;
@@ -32,15 +48,27 @@ import org.asynchttpclient.HttpResponseHeaders;
 import org.asynchttpclient.HttpResponseStatus;
 import org.asynchttpclient.ListenableFuture;
 import org.asynchttpclient.Response;
+import org.asynchttpclient.request.body.generator.BodyGenerator;
 import org.asynchttpclient.request.body.generator.FileBodyGenerator;
+import org.reactivestreams.Subscription;
 
+import io.openio.sds.client.data.BufferPool;
 import io.openio.sds.client.data.OioQueueBasedFeedableBodyGenerator;
+import io.openio.sds.client.data.PooledBuffer;
+import io.openio.sds.client.data.UploadSource;
 import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.common.AsyncPermits;
+import io.openio.sds.common.Compression;
+import io.openio.sds.common.HashMethod;
 import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.rain.ReedSolomon;
+import io.openio.sds.common.rain.StripeLayout;
 import io.openio.sds.common.logging.SDSLogger;
 import io.openio.sds.exceptions.SdsException;
 import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ChunkMethod;
 import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.Range;
 
 /**
  * 
@@ -52,33 +80,59 @@ public class RawxClient {
     private static final SDSLogger logger = Loggers
             .getLogger(DefaultClient.class);
 
-    private static final int MIN_WORKERS = 1;
-    private static final int MAX_WORKERS = 20;
-    private static final int IDLE_THREAD_KEEP_ALIVE = 30; // in seconds
-    private static final int BACKLOG_MAX_SIZE = 10 * MAX_WORKERS;
+    private static final int INFLATE_SIZE = 16384;
 
     private final AsyncHttpClient http;
-    private final ExecutorService executors;
+    private final Executor executors;
+    private final ScheduledExecutorService timer;
     private final RawxSettings settings;
+    private final BufferPool cells;
+    private final AsyncPermits positionPermits;
+    private final RawxTuner tuner;
+    private final HedgePolicy hedges;
+    private volatile BufferPool buffers;
+    private volatile BiFunction<ObjectInfo, ChunkInfo, CompletableFuture<ChunkInfo>> spares;
 
     RawxClient(AsyncHttpClient http, RawxSettings settings) {
         this.http = http;
         this.settings = settings;
-        this.executors = new ThreadPoolExecutor(
-                MIN_WORKERS,
-                MAX_WORKERS,
-                IDLE_THREAD_KEEP_ALIVE,
-                SECONDS,
-                new LinkedBlockingQueue<>(BACKLOG_MAX_SIZE),
-                new ThreadFactory() {
-
-                    @Override
-                    public Thread newThread(Runnable r) {
-                        Thread t = new Thread(r);
-                        t.setName("RawxClient-Worker");
-                        return t;
-                    }
-                });
+        this.buffers = new BufferPool(settings.bufsize(),
+                settings.maxPooledBuffers(), settings.directBuffers());
+        // erasure coding works on heap cells of a fixed size
+        this.cells = new BufferPool(StripeLayout.CELL_SIZE,
+                settings.maxPooledBuffers(), false);
+        this.positionPermits = new AsyncPermits(settings.maxInflightPositions());
+        WorkerPool workers = new WorkerPool(settings.workers(),
+                settings.maxQueuedTasks());
+        this.executors = workers;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setName("RawxClient-Timer");
+            t.setDaemon(true);
+            return t;
+        });
+        if (settings.tuning()) {
+            this.tuner = new RawxTuner(settings,
+                    n -> buffers = new BufferPool(n,
+                            settings.maxPooledBuffers(),
+                            settings.directBuffers()),
+                    0 < settings.maxInflightPositions()
+                            ? positionPermits::resize : null,
+                    workers::resize);
+            timer.scheduleWithFixedDelay(() -> {
+                try {
+                    tuner.tune();
+                } catch (RuntimeException e) {
+                    logger.warn("Tuning failed: %s", e);
+                }
+            }, settings.tuningInterval(), settings.tuningInterval(),
+                    MILLISECONDS);
+        } else {
+            this.tuner = null;
+        }
+        this.hedges = settings.hedging()
+                ? new HedgePolicy(settings.hedgeDelay(), settings.hedgeBudget())
+                : null;
     }
 
     public static RawxClient client(AsyncHttpClient http,
@@ -89,7 +143,58 @@ public class RawxClient {
     }
 
     /**
-     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously
+     * Returns the pool of buffers used to read uploaded data, which exposes
+     * the pool hits, misses and outstanding bytes. When the buffer size is
+     * tuned, a new pool replaces the previous one at each change.
+     * 
+     * @return the buffer pool
+     */
+    public BufferPool bufferPool() {
+        return buffers;
+    }
+
+    /**
+     * Returns the permits bounding the number of positions uploaded at the
+     * same time by this client, see {@link RawxSettings#maxInflightPositions()}
+     * 
+     * @return the permits
+     */
+    public AsyncPermits positionPermits() {
+        return positionPermits;
+    }
+
+    /**
+     * Returns the tuner adjusting the buffer size, the positions in flight
+     * and the workers, which exposes its measures and its decisions, see
+     * {@link RawxSettings#tuning()}
+     * 
+     * @return the tuner, or {@code null} if the tuning is disabled
+     */
+    public RawxTuner tuner() {
+        return tuner;
+    }
+
+    /**
+     * Defines how to get a new location for a chunk whose upload failed, so
+     * that only this chunk is uploaded again. Without it, a failed chunk
+     * fails the upload.
+     * 
+     * @param spares
+     *            returns a spare chunk for the specified object and failed
+     *            chunk, at the same position
+     * @return this
+     */
+    public RawxClient spares(
+            BiFunction<ObjectInfo, ChunkInfo, CompletableFuture<ChunkInfo>> spares) {
+        this.spares = spares;
+        return this;
+    }
+
+    /**
+     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously.
+     * <p>
+     * The stream reads are blocking, they are run one at a time by the client
+     * workers.
      * 
      * @param oinf
      *            the ObjectInfo to deal with
@@ -101,27 +206,127 @@ public class RawxClient {
      */
     public CompletableFuture<ObjectInfo> uploadChunks(ObjectInfo oinf,
             InputStream data, UploadListener listener) {
-        long remaining = oinf.size();
-        long size = Math.min(remaining, oinf.chunksize(0));
-        CompletableFuture<ObjectInfo> f = uploadPosition(oinf, 0, size, data,
+        return uploadChunks(oinf, UploadSource.fromStream(data, executors),
                 listener);
-        remaining -= size;
-        for (int i = 1; i < oinf.nbchunks(); i++) {
+    }
+
+    /**
+     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously.
+     * <p>
+     * The source is consumed in order. Up to
+     * {@link RawxSettings#uploadWindow()} positions are in flight at the same
+     * time: the next position starts to be read as soon as the previous one
+     * has been fully read, while the oldest ones are still waiting for their
+     * chunks to be acknowledged. No thread is held while waiting for the
+     * source or for a slow rawx service.
+     * 
+     * @param oinf
+     *            the ObjectInfo to deal with
+     * @param data
+     *            the source of the data to upload
+     * @param listener
+     *            the {@link UploadListener} to check progression
+     * @return a ListenableFuture which handles the updated {@code ObjectInfo}
+     */
+    public CompletableFuture<ObjectInfo> uploadChunks(ObjectInfo oinf,
+            UploadSource data, UploadListener listener) {
+        return uploadChunks(oinf, data, listener, 0, quorum(), null);
+    }
+
+    /**
+     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously.
+     * <p>
+     * Up to {@link RawxSettings#uploadWindow()} positions are in flight at the
+     * same time, the next one starting as soon as any of them completes.
+     * <p>
+     * The positions are hashed from mappings of the file. With
+     * {@link RawxSettings#mappedFileUploads()}, these are the regions sent to
+     * the rawx services, so the file is read once. Otherwise the transport
+     * sends the file without it ever reaching the client, and hashing reads
+     * it a second time, usually from the page cache.
+     * 
+     * @param oinf
+     *            the ObjectInfo to deal with
+     * @param data
+     *            the data to upload
+     * @param listener
+     *            the {@link UploadListener} to check progression
+     * @return a ListenableFuture which handles the updated {@code ObjectInfo}
+     */
+    public CompletableFuture<ObjectInfo> uploadChunks(
+            ObjectInfo oinf, File data, UploadListener listener) {
+        if (ChunkMethod.parse(oinf.chunkMethod()).ec() || compression(oinf)
+                || encryption(oinf))
+            return uploadEncoded(oinf, data, listener);
+        UploadHashes hashes = hashes(oinf);
+        FileChannel channel;
+        try {
+            channel = settings.mappedFileUploads() || hashes.enabled()
+                    ? FileChannel.open(data.toPath(), StandardOpenOption.READ)
+                    : null;
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+        WriteQuorum quorum = quorum();
+        AsyncPermits window = new AsyncPermits(settings.uploadWindow());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<ObjectInfo>> positions = new ArrayList<>();
+        CompletableFuture<Void> start = CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> hashed = CompletableFuture.completedFuture(null);
+        long remaining = oinf.size();
+        for (int i = 0; i < oinf.sortedChunks().size(); i++) {
             final int pos = i;
-            final long csize = Math.min(remaining, oinf.chunksize(pos));
-            f = f.thenCompose(
-                    o -> uploadPosition(oinf, pos, csize, data, listener));
-            remaining -= csize;
+            final long offset = oinf.size() - remaining;
+            final long size = Math.min(remaining,
+                    oinf.sortedChunks().get(i).get(0).size());
+            // mapping the range does not read it yet
+            final List<ByteBuffer> regions;
+            try {
+                regions = null != channel ? map(channel, offset, size) : null;
+            } catch (IOException e) {
+                closeQuietly(channel);
+                return failedFuture(e);
+            }
+            CompletableFuture<ObjectInfo> f = inflight(start, window, () -> {
+                // positions waiting for their turn are not started anymore
+                if (null != failure.get())
+                    return failedFuture(failure.get());
+                return uploadPosition(oinf, pos, offset, size, data,
+                        settings.mappedFileUploads() ? regions : null,
+                        listener, quorum).whenComplete((o, t) -> {
+                            if (null != t)
+                                failure.compareAndSet(null, t);
+                        });
+            });
+            positions.add(f);
+            if (hashes.enabled()) {
+                // the file is hashed in order, next to the uploads
+                hashed = hashed.thenRunAsync(() -> {
+                    if (null != failure.get())
+                        return;
+                    for (ByteBuffer region : regions)
+                        hashes.update(region);
+                    hashes.endPosition(pos);
+                }, executors);
+            }
+            remaining -= size;
         }
-        return f.thenApply(o -> {
+        positions.add(hashed.thenApply(v -> oinf));
+        CompletableFuture<Void> all = CompletableFuture
+                .allOf(positions.toArray(new CompletableFuture[positions.size()]));
+        // mapped regions remain valid once the channel is closed
+        all.whenComplete((v, t) -> closeQuietly(channel));
+        return all.thenCompose(v -> quorum.complete(oinf)).thenApply(o -> {
+            hashes.complete(oinf);
             if (null != listener)
                 listener.onCompleted();
-            return o;
+            return oinf;
         });
     }
 
     /**
-     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously
+     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously,
+     * from data held in memory.
      * 
      * @param oinf
      *            the ObjectInfo to deal with
@@ -130,208 +335,1347 @@ public class RawxClient {
      * @param listener
      *            the {@link UploadListener} to check progression
      * @return a ListenableFuture which handles the updated {@code ObjectInfo}
+     * @see #uploadChunks(ObjectInfo, ByteBuffer, UploadListener)
      */
-    public CompletableFuture<ObjectInfo> uploadChunks(
-            ObjectInfo oinf, File data, UploadListener listener) {
-        List<CompletableFuture<ObjectInfo>> futures = new ArrayList<>();
+    public CompletableFuture<ObjectInfo> uploadChunks(ObjectInfo oinf,
+            byte[] data, UploadListener listener) {
+        return uploadChunks(oinf, ByteBuffer.wrap(data), listener);
+    }
+
+    /**
+     * Uploads the chunks of the specified {@code ObjectInfo} asynchronously,
+     * from data held in memory, from the position to the limit of the
+     * specified buffer.
+     * <p>
+     * The copies of each position are sent straight from a slice of the
+     * buffer: the data is neither copied nor read by the client workers. The
+     * buffer must thus not be modified until the returned future completes.
+     * Erasure coded contents are encoded from the buffer. Up to
+     * {@link RawxSettings#uploadWindow()} positions are in flight at the same
+     * time.
+     * 
+     * @param oinf
+     *            the ObjectInfo to deal with
+     * @param data
+     *            the data to upload, heap or direct buffer
+     * @param listener
+     *            the {@link UploadListener} to check progression
+     * @return a ListenableFuture which handles the updated {@code ObjectInfo}
+     */
+    public CompletableFuture<ObjectInfo> uploadChunks(ObjectInfo oinf,
+            ByteBuffer data, UploadListener listener) {
+        checkArgument(data.remaining() >= oinf.size(),
+                "Not enough data for the object size");
+        if (ChunkMethod.parse(oinf.chunkMethod()).ec() || compression(oinf)
+                || encryption(oinf))
+            return uploadChunks(oinf, UploadSource.fromBuffer(data),
+                    listener);
+        UploadHashes hashes = hashes(oinf);
+        WriteQuorum quorum = quorum();
+        AsyncPermits window = new AsyncPermits(settings.uploadWindow());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<ObjectInfo>> positions = new ArrayList<>();
+        CompletableFuture<Void> start = CompletableFuture.completedFuture(null);
         long remaining = oinf.size();
-        for (int i = 0; i < oinf.sortedChunks().size(); i++) {
-            long size = Math.min(remaining,
-                    oinf.sortedChunks().get(i).get(0).size());
-            uploadPosition(oinf, i, remaining, size, data, listener, futures);
+        for (int i = 0; i < oinf.nbchunks(); i++) {
+            final int pos = i;
+            final long size = Math.min(remaining, oinf.chunksize(pos));
+            ByteBuffer slice = slice(data, oinf.size() - remaining, size);
+            positions.add(inflight(start, window, () -> {
+                // positions waiting for their turn are not started anymore
+                if (null != failure.get())
+                    return failedFuture(failure.get());
+                return uploadPosition(oinf, pos, slice, listener, quorum)
+                        .whenComplete((o, t) -> {
+                            if (null != t)
+                                failure.compareAndSet(null, t);
+                        });
+            }));
+            // the data is hashed in order, while the uploads go on
+            if (hashes.enabled()) {
+                hashes.update(slice);
+                hashes.endPosition(pos);
+            }
             remaining -= size;
         }
         return CompletableFuture
-                .allOf(futures.toArray(new CompletableFuture[futures.size()]))
-                .thenApply(v -> {
+                .allOf(positions.toArray(new CompletableFuture[positions.size()]))
+                .thenCompose(v -> quorum.complete(oinf))
+                .thenApply(o -> {
+                    hashes.complete(oinf);
                     if (null != listener)
                         listener.onCompleted();
                     return oinf;
                 });
     }
 
-    public List<ListenableFuture<ChunkInfo>> uploadChunks(
-            List<ChunkInfo> chunks, byte[] data) {
-        throw new RuntimeException("NOT YET IMPL");
+    public ListenableFuture<Boolean> downloadObject(ObjectInfo oinf,
+            DownloadListener listener) {
+        return downloadObject(oinf, null, listener);
     }
 
+    /**
+     * Downloads the specified range of an object. Only the positions covering
+     * the range are downloaded, and only the range of their chunks when they
+     * hold the data as is. Compressed, encrypted and erasure coded positions
+     * are read in full, then trimmed.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param range
+     *            the range of the data to download, or {@code null} for the
+     *            whole object
+     * @param listener
+     *            the listener which handles the data of the range
+     * @return a Future
+     */
     public ListenableFuture<Boolean> downloadObject(ObjectInfo oinf,
-            DownloadListener listener) {
+            Range range, DownloadListener listener) {
         checkArgument(null != oinf);
         checkArgument(null != listener);
+        long[] offsets = offsets(oinf);
+        int n = offsets.length - 1;
+        long from = null == range ? 0L : range.from();
+        long to = null == range || 0 > range.to() ? offsets[n] - 1
+                : Math.min(offsets[n] - 1, range.to());
+        checkArgument(null == range || from <= to, "Range %s out of %s",
+                range, oinf.url());
         LinkedList<ListenableFuture<Boolean>> futures = new LinkedList<ListenableFuture<Boolean>>();
         Semaphore completionLock = new Semaphore(0);
-        downloadPosition(oinf, 0, 0, listener, futures, completionLock);
+        new DownloadWindow(null == range ? 0 : position(offsets, from),
+                null == range ? n : position(offsets, to) + 1, listener,
+                settings.downloadWindow(), settings.maxPrefetchBytes(),
+                pos -> Math.min(to, offsets[pos + 1] - 1)
+                        - Math.max(from, offsets[pos]) + 1,
+                (pos, l) -> {
+                    if (null == range)
+                        downloadPosition(oinf, pos, 0, l, futures, 0L, -1L,
+                                null);
+                    else
+                        downloadPosition(oinf, pos, 0, l, futures,
+                                Math.max(from, offsets[pos]) - offsets[pos],
+                                Math.min(to, offsets[pos + 1] - 1)
+                                        - offsets[pos], null);
+                },
+                completionLock::release).start();
         return new ObjectDownloadFuture(futures, completionLock);
     }
 
+    /**
+     * Downloads an object into a file. Up to
+     * {@link RawxSettings#downloadWindow()} positions are downloaded at once,
+     * each part of their data being written at its own offset in the file as
+     * soon as it is received, with no buffering.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param file
+     *            the file to write, from its first byte
+     * @return a future completed once all the data is written, or failed
+     *         with the first error. Cancelling it stops the download.
+     */
+    public CompletableFuture<Boolean> downloadTo(ObjectInfo oinf,
+            FileChannel file) {
+        checkArgument(null != oinf);
+        checkArgument(null != file);
+        LinkedList<ListenableFuture<Boolean>> futures = new LinkedList<ListenableFuture<Boolean>>();
+        CompletableFuture<Boolean> result = new FileDownload(file,
+                offsets(oinf), settings.downloadWindow(),
+                (pos, l) -> downloadPosition(oinf, pos, 0, l, futures, 0L,
+                        -1L, null)).start();
+        result.whenComplete((r, t) -> {
+            if (null != t)
+                cancel(futures);
+        });
+        return result;
+    }
+
+    /**
+     * Downloads an object into a channel, such as a socket, in order. The
+     * next positions are prefetched as for
+     * {@link #downloadObject(ObjectInfo, DownloadListener)}, and the parts of
+     * the data are written as they are, from the threads receiving them: the
+     * channel should be in blocking mode.
+     * 
+     * @param oinf
+     *            the object to download
+     * @param channel
+     *            the channel to write
+     * @return a future completed once all the data is written, or failed
+     *         with the first error. Cancelling it stops the download.
+     */
+    public CompletableFuture<Boolean> downloadTo(ObjectInfo oinf,
+            WritableByteChannel channel) {
+        checkArgument(null != oinf);
+        checkArgument(null != channel);
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        LinkedList<ListenableFuture<Boolean>> futures = new LinkedList<ListenableFuture<Boolean>>();
+        DownloadListener writer = new DownloadListener() {
+
+            @Override
+            public void onData(ByteBuffer bodyPart) {
+                if (result.isDone())
+                    return;
+                try {
+                    while (bodyPart.hasRemaining())
+                        channel.write(bodyPart);
+                } catch (IOException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                result.complete(true);
+            }
+
+            @Override
+            public void onPositionCompleted(int pos) {
+            }
+        };
+        long[] offsets = offsets(oinf);
+        new DownloadWindow(0, offsets.length - 1, writer,
+                settings.downloadWindow(), settings.maxPrefetchBytes(),
+                pos -> offsets[pos + 1] - offsets[pos],
+                (pos, l) -> downloadPosition(oinf, pos, 0, l, futures, 0L,
+                        -1L, null),
+                () -> {
+                }).start();
+        result.whenComplete((r, t) -> {
+            if (null != t)
+                cancel(futures);
+        });
+        return result;
+    }
+
+    /**
+     * Opens a stream reading the data of an object. The positions are
+     * downloaded one after the other, and the rawx services are only read as
+     * fast as the stream is, with at most
+     * {@link RawxSettings#streamBufferSize()} bytes received ahead of the
+     * reader.
+     * 
+     * @param oinf
+     *            the object to read
+     * @return the stream of the data of the object, to be closed
+     */
+    public ObjectDownloadStream openStream(ObjectInfo oinf) {
+        checkArgument(null != oinf);
+        LinkedList<ListenableFuture<Boolean>> futures = new LinkedList<ListenableFuture<Boolean>>();
+        ObjectDownloadStream stream = new ObjectDownloadStream(
+                settings.streamBufferSize(), () -> cancel(futures));
+        new DownloadWindow(0, oinf.sortedChunks().size(), stream.feed(), 1,
+                0L, pos -> 0L,
+                (pos, l) -> downloadPosition(oinf, pos, 0, l, futures, 0L,
+                        -1L, stream::request),
+                () -> {
+                }).start();
+        return stream;
+    }
+
+    private static void cancel(
+            LinkedList<ListenableFuture<Boolean>> futures) {
+        synchronized (futures) {
+            for (ListenableFuture<Boolean> f : futures)
+                f.cancel(true);
+        }
+    }
+
+    /**
+     * @return the offset of each position in the data of the object, then
+     *         the size of the data
+     */
+    private static long[] offsets(ObjectInfo oinf) {
+        int n = oinf.sortedChunks().size();
+        long[] offsets = new long[n + 1];
+        String original = oinf.properties().get(ORIGINAL_CHUNK_SIZE_PROPERTY);
+        for (int i = 0; i < n; i++) {
+            long size = oinf.sortedChunks().get(i).get(0).size();
+            // compressed or encrypted chunks do not hold the data as is
+            if (null != original)
+                size = i < n - 1 || 0 > oinf.size()
+                        ? Long.parseLong(original)
+                        : oinf.size() - offsets[i];
+            offsets[i + 1] = offsets[i] + size;
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the position holding the specified offset of the data
+     */
+    private static int position(long[] offsets, long offset) {
+        int pos = 0;
+        while (pos < offsets.length - 2 && offsets[pos + 1] <= offset)
+            pos++;
+        return pos;
+    }
+
+    /**
+     * Opens {@link RawxSettings#warmupConnections()} connections to each of
+     * the specified rawx services, which are then kept in the connection pool
+     * for the next chunk uploads.
+     * 
+     * @param hosts
+     *            the addresses of the rawx services, as {@code ip:port}
+     * @return a future completed when all the connections have been tried,
+     *         whether they succeeded or not
+     */
+    public CompletableFuture<Void> warmUp(Collection<String> hosts) {
+        checkArgument(null != hosts, "hosts cannot be null");
+        if (!settings.keepAlive())
+            return CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String host : hosts) {
+            // concurrent requests, so that each one opens its own connection
+            for (int i = 0; i < settings.warmupConnections(); i++) {
+                futures.add(http.prepareGet(format("http://%s/info", host))
+                        .execute()
+                        .toCompletableFuture()
+                        .handle((r, t) -> {
+                            if (null != t)
+                                logger.warn("Unable to connect to rawx %s",
+                                        host);
+                            return null;
+                        }));
+            }
+        }
+        return CompletableFuture.allOf(
+                futures.toArray(new CompletableFuture[futures.size()]));
+    }
+
+    /**
+     * Uploads a position of an object whose size is not known yet. The
+     * position ends at the end of the source or after {@code max} bytes,
+     * whichever comes first, its chunks being sent without length. Their
+     * size is left to the caller, which knows how much data it wrote.
+     *
+     * @param read
+     *            completed once the data of the position has been read
+     */
+    CompletableFuture<ObjectInfo> uploadOpenPosition(ObjectInfo oinf, int pos,
+            long max, UploadSource data, CompletableFuture<Void> read,
+            UploadHashes hashes, WriteQuorum quorum, ReedSolomon codec) {
+        return uploadPosition(oinf, pos, 0L, max, true, data, null, read,
+                hashes, quorum, codec);
+    }
+
+    /**
+     * @return new permits bounding the positions of an object in flight, see
+     *         {@link RawxSettings#uploadWindow()}
+     */
+    AsyncPermits uploadWindow() {
+        return new AsyncPermits(settings.uploadWindow());
+    }
+
+    /**
+     * Uploads the positions of the specified {@code ObjectInfo} from the
+     * specified one. The data of the previous positions, already uploaded, is
+     * only read from the source to be hashed, so that their chunks are
+     * checked and the content hash covers the whole object.
+     * 
+     * @param from
+     *            the first position to upload
+     * @param written
+     *            called with each uploaded position once all its chunks are
+     *            written, or {@code null}
+     */
+    CompletableFuture<ObjectInfo> uploadChunks(ObjectInfo oinf,
+            UploadSource data, UploadListener listener, int from,
+            WriteQuorum quorum, Consumer<Integer> written) {
+        try {
+            encoding(oinf);
+        } catch (SdsException e) {
+            return failedFuture(e);
+        }
+        ChunkMethod method = ChunkMethod.parse(oinf.chunkMethod());
+        ReedSolomon codec = method.ec()
+                ? new ReedSolomon(method.k(), method.m()) : null;
+        boolean compress = compression(oinf);
+        boolean encrypt = encryption(oinf);
+        boolean transform = compress || encrypt;
+        // the chunks of uploaded positions may hold their stored size
+        long chunkSize = transform || null != codec
+                ? Long.parseLong(oinf.properties()
+                        .get(ORIGINAL_CHUNK_SIZE_PROPERTY))
+                : -1L;
+        // positions read from their own offset are encrypted at the same time
+        boolean parallel = encrypt && null != data.reread(0L);
+        // rawx services hash the stored chunks, the content hash covers the
+        // original data, unless it is encrypted
+        UploadHashes hashes = transform
+                ? new UploadHashes(HashMethod.NONE, settings.verifyChunkHashes())
+                : hashes(oinf);
+        UploadHashes content = transform
+                ? new UploadHashes(encrypt ? HashMethod.NONE
+                        : HashMethod.of(oinf.hashMethod()), false)
+                : hashes;
+        List<UploadHashes> positionHashes = new ArrayList<>();
+        long[] sizes = new long[oinf.nbchunks()];
+        AsyncPermits window = new AsyncPermits(settings.uploadWindow());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<ObjectInfo>> positions = new ArrayList<>();
+        CompletableFuture<Void> previousRead = CompletableFuture
+                .completedFuture(null);
+        long remaining = oinf.size();
+        for (int i = 0; i < oinf.nbchunks(); i++) {
+            final int pos = i;
+            final long offset = oinf.size() - remaining;
+            final long csize = Math.min(remaining,
+                    0 <= chunkSize ? chunkSize : oinf.chunksize(pos));
+            remaining -= csize;
+            if (pos < from) {
+                // nothing to hash when the positions are read on their own
+                if (parallel)
+                    continue;
+                previousRead = previousRead
+                        .thenCompose(v -> hashPosition(data, pos, csize, content));
+                positions.add(previousRead.thenApply(v -> oinf));
+                continue;
+            }
+            final CompletableFuture<Void> read = new CompletableFuture<>();
+            CompletableFuture<ObjectInfo> f;
+            if (parallel) {
+                UploadHashes own = new UploadHashes(HashMethod.NONE,
+                        settings.verifyChunkHashes());
+                positionHashes.add(own);
+                f = inflight(CompletableFuture.completedFuture(null), window,
+                        () -> unlessFailed(failure,
+                                () -> uploadTransformed(oinf, pos,
+                                        data.reread(offset), 0L, csize,
+                                        listener, read, own, content, quorum,
+                                        sizes)));
+            } else if (transform) {
+                f = inflight(previousRead, window,
+                        () -> unlessFailed(failure,
+                                () -> uploadTransformed(oinf, pos, data,
+                                        offset, csize, listener, read, hashes,
+                                        content, quorum, sizes)));
+            } else {
+                f = inflight(previousRead, window,
+                        () -> unlessFailed(failure,
+                                () -> uploadPosition(oinf, pos, offset, csize,
+                                        false, data, listener, read, hashes,
+                                        quorum, codec)));
+            }
+            // a failed position must not let the next ones wait forever
+            f.whenComplete((o, t) -> {
+                if (null != t)
+                    read.completeExceptionally(t);
+            });
+            positions.add(null == written ? f : f.thenApply(o -> {
+                written.accept(pos);
+                return o;
+            }));
+            previousRead = read;
+        }
+        return CompletableFuture
+                .allOf(positions.toArray(new CompletableFuture[positions.size()]))
+                .thenCompose(v -> quorum.complete(oinf))
+                .thenApply(o -> {
+                    if (transform) {
+                        // late copies recorded the maximum size
+                        for (int pos = from; pos < sizes.length; pos++)
+                            resize(oinf, pos, sizes[pos]);
+                        content.complete(oinf);
+                    }
+                    hashes.complete(oinf);
+                    positionHashes.forEach(h -> h.complete(oinf));
+                    if (null != listener)
+                        listener.onCompleted();
+                    return oinf;
+                });
+    }
+
+    /**
+     * Returns whether the chunks of the specified {@code ObjectInfo} are
+     * compressed, see {@link RawxSettings#compression()}. Erasure coded
+     * contents and objects of unknown size are not.
+     */
+    boolean compression(ObjectInfo oinf) {
+        return Compression.NONE != settings.compression()
+                && 0 < oinf.size()
+                && !ChunkMethod.parse(oinf.chunkMethod()).ec();
+    }
+
+    /**
+     * Returns whether the chunks of the specified {@code ObjectInfo} are
+     * encrypted, see {@link RawxSettings#encryptionKey()}. Erasure coded
+     * contents and objects of unknown size are not.
+     */
+    boolean encryption(ObjectInfo oinf) {
+        return null != settings.encryptionKey()
+                && 0 < oinf.size()
+                && !ChunkMethod.parse(oinf.chunkMethod()).ec();
+    }
+
+    /**
+     * Returns whether the chunks of the specified {@code ObjectInfo} do not
+     * hold its data as is, so that they could only be read with its
+     * properties, see {@link #encoding(ObjectInfo)}: erasure coded contents,
+     * and contents whose chunks do not add up to their size, as compressed
+     * or encrypted ones.
+     */
+    boolean encoded(ObjectInfo oinf) {
+        if (ChunkMethod.parse(oinf.chunkMethod()).ec())
+            return true;
+        long stored = 0L;
+        for (List<ChunkInfo> copies : oinf.sortedChunks().values())
+            stored += copies.get(0).size();
+        return stored != oinf.size();
+    }
+
+    /**
+     * Records how the chunks of the specified {@code ObjectInfo} are
+     * compressed, encrypted or erasure coded, and the size of the original
+     * data of each position, in its properties, unless they already are. An
+     * upload resumed with chunks holding their stored size thus still knows
+     * it. Erasure coded contents take the chunk method of the erasure coding
+     * done by this client, see {@link RawxSettings#clientErasureCoding()}.
+     * 
+     * @throws SdsException
+     *             if the content is erasure coded and the client does not
+     *             encode it
+     */
+    ObjectInfo encoding(ObjectInfo oinf) {
+        ChunkMethod method = ChunkMethod.parse(oinf.chunkMethod());
+        if (method.ec()) {
+            if (!settings.clientErasureCoding())
+                throw new SdsException(format(
+                        "Chunk method %s is not supported, erasure coding "
+                                + "by the client is disabled",
+                        oinf.chunkMethod()));
+            if (!method.clientEc())
+                oinf.chunkMethod(method.toClientEc());
+        }
+        if (oinf.properties().containsKey(ORIGINAL_CHUNK_SIZE_PROPERTY)
+                || !(compression(oinf) || encryption(oinf) || method.ec()))
+            return oinf;
+        if (compression(oinf))
+            oinf.property(COMPRESSION_PROPERTY,
+                    settings.compression().sdsName());
+        if (encryption(oinf))
+            oinf.property(ENCRYPTION_PROPERTY, EncryptingSource.NAME);
+        return oinf.property(ORIGINAL_CHUNK_SIZE_PROPERTY,
+                String.valueOf(oinf.chunksize(0)));
+    }
+
     /* --- INTERNALS --- */
 
+    /**
+     * Uploads a position whose chunks hold its compressed or encrypted data,
+     * which is compressed before being encrypted, and records the size of
+     * its chunks once written.
+     */
+    private CompletableFuture<ObjectInfo> uploadTransformed(ObjectInfo oinf,
+            int pos, UploadSource data, long offset, long size,
+            UploadListener listener, CompletableFuture<Void> read,
+            UploadHashes hashes, UploadHashes content, WriteQuorum quorum,
+            long[] sizes) {
+        boolean compress = compression(oinf);
+        UploadSource source = data;
+        long start = offset;
+        long max = size;
+        LongSupplier produced = () -> size;
+        if (compress) {
+            DeflatingSource deflated = new DeflatingSource(source, start,
+                    size, settings.compressionLevel(), content);
+            source = deflated;
+            start = 0L;
+            max = DeflatingSource.bound(size);
+            produced = deflated::produced;
+        }
+        if (encryption(oinf)) {
+            EncryptingSource encrypted = new EncryptingSource(source, start,
+                    compress ? -1L : size, settings.encryptionKey(),
+                    EncryptingSource.seed(oinf, pos), executors);
+            source = encrypted;
+            max = EncryptingSource.sealedSize(max);
+            produced = encrypted::produced;
+        }
+        LongSupplier stored = produced;
+        // compressed chunks are sent chunked, as their size is not known
+        return uploadPosition(oinf, pos, 0L, max, compress, source, listener,
+                read, hashes, quorum, null).thenApply(o -> {
+                    sizes[pos] = stored.getAsLong();
+                    resize(oinf, pos, sizes[pos]);
+                    return o;
+                });
+    }
+
+    private static void resize(ObjectInfo oinf, int pos, long size) {
+        for (ChunkInfo ci : oinf.sortedChunks().get(pos))
+            ci.size(size);
+    }
+
     private CompletableFuture<ObjectInfo> uploadPosition(ObjectInfo oinf,
-            int pos, Long size, InputStream data, UploadListener listener) {
-        List<CompletableFuture<ObjectInfo>> futures = new ArrayList<>();
+            int pos, long offset, long size, boolean open, UploadSource data,
+            UploadListener listener, CompletableFuture<Void> read,
+            UploadHashes hashes, WriteQuorum quorum, ReedSolomon codec) {
         List<ChunkInfo> cil = oinf.sortedChunks().get(pos);
-        List<OioQueueBasedFeedableBodyGenerator> gens = size == 0 ? null
-                : feedableBodys(cil.size(), size);
+        // the chunks of an open position are sent chunked
+        long length = open ? -1L : size;
+        if (null != codec) {
+            if (cil.size() != codec.k() + codec.m()) {
+                SdsException e = new SdsException(format(
+                        "Position %d has %d chunks, %d expected", pos,
+                        cil.size(), codec.k() + codec.m()));
+                read.completeExceptionally(e);
+                return failedFuture(e);
+            }
+            // each fragment gets its own data
+            if (!open)
+                length = new StripeLayout(codec.k(), size).fragmentSize();
+        }
+        // fragments record their own size, open positions get theirs once
+        // complete
+        long stored = null == codec || open ? size : length;
+        // copies of a source which can be read again are retried alone
+        boolean retry = null != spares && 0 < settings.chunkRetries()
+                && null != data.reread(offset);
+        List<OioQueueBasedFeedableBodyGenerator> gens = size == 0 && !open
+                ? null : feedableBodys(cil.size());
+        List<CompletableFuture<ObjectInfo>> attempts = new ArrayList<>();
+        List<CompletableFuture<ObjectInfo>> futures = new ArrayList<>();
         for (int i = 0; i < cil.size(); i++) {
-            ChunkInfo ci = cil.get(i);
-            BoundRequestBuilder builder = http.preparePut(ci.url())
-                    .setHeader(CHUNK_META_CONTAINER_ID, oinf.url().cid())
-                    .setHeader(CHUNK_META_CONTENT_ID, oinf.oid())
-                    .setHeader(CHUNK_META_CONTENT_POLICY, oinf.policy())
-                    .setHeader(CHUNK_META_CONTENT_MIME_TYPE, oinf.mtype())
-                    .setHeader(CHUNK_META_CONTENT_CHUNK_METHOD, oinf.chunkMethod())
+            final int idx = i;
+            final long len = length;
+            attempts.add(putChunk(oinf, cil.get(i), stored, length,
+                    null == gens ? null : gens.get(i), listener));
+            futures.add(retrying(oinf, cil.get(i), attempts.get(i),
+                    !retry ? null
+                            : () -> read.isCompletedExceptionally()
+                                    ? read.thenApply(v -> oinf)
+                                    : uploadAgain(oinf, cil.get(idx), idx,
+                                            offset, size, len, data,
+                                            listener, codec)));
+        }
+
+        if (null == gens) {
+            hashes.endPosition(pos);
+            read.complete(null);
+        } else {
+            int required = retry ? 0
+                    : null == codec ? quorum.quorum(gens.size()) : gens.size();
+            PositionFeeder feeder = null == codec
+                    ? new PositionFeeder(data, size, gens, buffers,
+                            settings.feedTimeout(), timer, hashes,
+                            quorum.quorum(gens.size()), required,
+                            quorum.grace())
+                    : new PositionFeeder(data, size, gens, cells,
+                            settings.feedTimeout(), timer, hashes, codec,
+                            required);
+            if (open)
+                feeder.open();
+            feeder.result().whenComplete((v, t) -> {
+                if (null == t) {
+                    hashes.endPosition(pos);
+                    read.complete(null);
+                } else {
+                    logger.error("Unable to feed chunk uploads", t);
+                    // the aborted bodies fail the requests, but the read
+                    // failure is the one to report
+                    read.completeExceptionally(t);
+                    attempts.stream().forEach(f -> f.completeExceptionally(t));
+                }
+            });
+            feeder.start();
+        }
+        CompletableFuture<ObjectInfo> copies = null == codec
+                ? quorum.position(oinf, cil, futures)
+                : CompletableFuture
+                        .allOf(futures.toArray(new CompletableFuture[futures.size()]))
+                        .thenApply(v -> oinf);
+        return copies.thenApply(o -> {
+            if (null != listener)
+                listener.onPositionCompleted(pos);
+            return oinf;
+        });
+    }
+
+    /**
+     * Reads the data of a position from the source, only to hash it.
+     */
+    private CompletableFuture<Void> hashPosition(UploadSource data, int pos,
+            long size, UploadHashes hashes) {
+        CompletableFuture<Void> res = new CompletableFuture<>();
+        PooledBuffer buffer = buffers.acquire();
+        res.whenComplete((v, t) -> buffer.release());
+        hashRange(data, buffer.buffer(), size, hashes, res);
+        return res.thenRun(() -> hashes.endPosition(pos));
+    }
+
+    private static void hashRange(UploadSource data, ByteBuffer buffer,
+            long remaining, UploadHashes hashes, CompletableFuture<Void> res) {
+        if (0 == remaining) {
+            res.complete(null);
+            return;
+        }
+        buffer.clear();
+        if (remaining < buffer.capacity())
+            buffer.limit((int) remaining);
+        data.read(buffer).whenComplete((n, t) -> {
+            if (null != t) {
+                res.completeExceptionally(unwrap(t));
+            } else if (0 > n) {
+                res.completeExceptionally(new EOFException(format(
+                        "Source ended %d bytes before the position end",
+                        remaining)));
+            } else {
+                buffer.flip();
+                hashes.update(buffer);
+                hashRange(data, buffer, remaining - n, hashes, res);
+            }
+        });
+    }
+
+    /**
+     * Uploads a copy or a fragment of a position again, reading the position
+     * from the source once more.
+     */
+    private CompletableFuture<ObjectInfo> uploadAgain(ObjectInfo oinf,
+            ChunkInfo ci, int idx, long offset, long size, long length,
+            UploadSource data, UploadListener listener, ReedSolomon codec) {
+        long stored = null == codec || 0 > length ? size : length;
+        if (0 == size)
+            return putChunk(oinf, ci, stored, length, null, listener);
+        OioQueueBasedFeedableBodyGenerator gen = feedableBodys(1).get(0);
+        CompletableFuture<ObjectInfo> f = putChunk(oinf, ci, stored, length,
+                gen, listener);
+        PositionFeeder feeder;
+        if (null == codec) {
+            feeder = new PositionFeeder(data.reread(offset), size,
+                    Collections.singletonList(gen), buffers,
+                    settings.feedTimeout(), timer, null, 1, 1, 0L);
+        } else {
+            List<OioQueueBasedFeedableBodyGenerator> gens = new ArrayList<>(
+                    Collections.nCopies(codec.k() + codec.m(), null));
+            gens.set(idx, gen);
+            feeder = new PositionFeeder(data.reread(offset), size, gens,
+                    cells, settings.feedTimeout(), timer, null, codec, 1);
+        }
+        // compressed positions end with the compressed data
+        if (0 > length)
+            feeder.open();
+        feeder.result().whenComplete((v, t) -> {
+            if (null != t)
+                f.completeExceptionally(t);
+        });
+        feeder.start();
+        return f;
+    }
+
+    /**
+     * Uploads a chunk of a position, its body being fed by the specified
+     * generator, or empty.
+     */
+    private CompletableFuture<ObjectInfo> putChunk(ObjectInfo oinf,
+            ChunkInfo ci, long size, long length,
+            OioQueueBasedFeedableBodyGenerator gen, UploadListener listener) {
+        BoundRequestBuilder builder = http.preparePut(ci.url())
+                .setHeader(CHUNK_META_CONTAINER_ID, oinf.url().cid())
+                .setHeader(CHUNK_META_CONTENT_ID, oinf.oid())
+                .setHeader(CHUNK_META_CONTENT_POLICY, oinf.policy())
+                .setHeader(CHUNK_META_CONTENT_MIME_TYPE, oinf.mtype())
+                .setHeader(CHUNK_META_CONTENT_CHUNK_METHOD, oinf.chunkMethod())
+                .setHeader(CHUNK_META_CONTENT_PATH, oinf.url().object())
+                .setHeader(CHUNK_META_CHUNK_ID, ci.id())
+                .setHeader(CHUNK_META_CHUNK_POS, ci.pos().toString());
+        // the size of a streamed content is only known once it is complete
+        if (0 <= oinf.size())
+            builder = builder
                     .setHeader(CHUNK_META_CONTENT_CHUNKSNB,
                             String.valueOf(oinf.nbchunks()))
                     .setHeader(CHUNK_META_CONTENT_SIZE,
-                            String.valueOf(oinf.size()))
-                    .setHeader(CHUNK_META_CONTENT_PATH, oinf.url().object())
-                    .setHeader(CHUNK_META_CHUNK_ID, ci.id())
-                    .setHeader(CHUNK_META_CHUNK_POS, ci.pos().toString())
-                    .setHeader(CONTENT_LENGTH, String.valueOf(size))
-                    .setHeader("Connection", "Close");
-            if (null == gens)
-                builder = builder.setBody(new byte[0]);
-            else
-                builder = builder.setBody(gens.get(i));
-            futures.add(
-                    builder.execute(new AsyncCompletionHandler<ObjectInfo>() {
-                        @Override
-                        public void onThrowable(Throwable t) {
+                            String.valueOf(oinf.size()));
+        if (0 <= length)
+            builder = builder.setHeader(CONTENT_LENGTH, String.valueOf(length));
+        if (!settings.keepAlive())
+            builder = builder.setHeader("Connection", "Close");
+        if (null == gen)
+            builder = builder.setBody(new byte[0]);
+        else
+            builder = builder.setBody(gen);
+        long start = System.nanoTime();
+        ListenableFuture<ObjectInfo> request = builder
+                .execute(new AsyncCompletionHandler<ObjectInfo>() {
+                    @Override
+                    public void onThrowable(Throwable t) {
+                        if (null != listener)
                             listener.onThrowable(t);
-                        }
+                    }
 
-                        @Override
-                        public ObjectInfo onCompleted(Response response)
-                                throws Exception {
-                            if (200 != response.getStatusCode()
-                                    && 201 != response.getStatusCode()) {
-                                throw new SdsException(
-                                        format("Chunk %s upload failed (%d:%s)",
-                                                ci.url(),
-                                                response.getStatusCode(),
-                                                response.getStatusText()));
-                            }
-                            ci.size(size);
-                            ci.hash(response.getHeader(CHUNK_META_CHUNK_HASH));
-                            return oinf;
+                    @Override
+                    public ObjectInfo onCompleted(Response response)
+                            throws Exception {
+                        if (200 != response.getStatusCode()
+                                && 201 != response.getStatusCode()) {
+                            throw new SdsException(
+                                    format("Chunk %s upload failed (%d:%s)",
+                                            ci.url(),
+                                            response.getStatusCode(),
+                                            response.getStatusText()));
                         }
-                    }).toCompletableFuture());
+                        ci.size(size);
+                        ci.hash(response.getHeader(CHUNK_META_CHUNK_HASH));
+                        if (null != tuner)
+                            tuner.record(ci.url(), size,
+                                    System.nanoTime() - start);
+                        return oinf;
+                    }
+                });
+        return aborting(request, gen);
+    }
+
+    /**
+     * Uploads the copies of a position from the specified slice of the data,
+     * each one being fed with the whole slice at once.
+     */
+    private CompletableFuture<ObjectInfo> uploadPosition(ObjectInfo oinf,
+            int pos, ByteBuffer data, UploadListener listener,
+            WriteQuorum quorum) {
+        List<ChunkInfo> cil = oinf.sortedChunks().get(pos);
+        long size = data.remaining();
+        List<CompletableFuture<ObjectInfo>> futures = new ArrayList<>();
+        for (ChunkInfo ci : cil) {
+            // the slice is sent again as is to a spare chunk
+            Supplier<CompletableFuture<ObjectInfo>> put = () -> putChunk(oinf,
+                    ci, size, size, 0 == size ? null : feedSlice(data),
+                    listener);
+            futures.add(retrying(oinf, ci, put.get(),
+                    null == spares ? null : put));
         }
+        return quorum.position(oinf, cil, futures).thenApply(o -> {
+            if (null != listener)
+                listener.onPositionCompleted(pos);
+            return oinf;
+        });
+    }
 
-        startConsumer(data, size, gens, futures);
-        return CompletableFuture
-                .allOf(futures.toArray(new CompletableFuture[futures.size()]))
-                .thenApply(v -> {
-                    if (null != listener)
-                        listener.onPositionCompleted(pos);
-                    return oinf;
-                });
+    /**
+     * @return a generator holding the whole specified slice
+     */
+    private OioQueueBasedFeedableBodyGenerator feedSlice(ByteBuffer data) {
+        OioQueueBasedFeedableBodyGenerator gen =
+                new OioQueueBasedFeedableBodyGenerator(data.remaining(),
+                        settings.feedTimeout());
+        try {
+            gen.feed(PooledBuffer.wrap(data), true);
+        } catch (Exception e) {
+            // fails the request
+            gen.abort(e);
+        }
+        return gen;
     }
 
-    private void startConsumer(InputStream data, Long size,
-            List<OioQueueBasedFeedableBodyGenerator> gens,
-            List<? extends Future<ObjectInfo>> futures) {
-        executors.submit(new Callable<Void>() {
+    /**
+     * @return the specified range of the data, from its position
+     */
+    private static ByteBuffer slice(ByteBuffer data, long offset, long size) {
+        ByteBuffer b = data.duplicate();
+        b.position(b.position() + (int) offset);
+        b.limit(b.position() + (int) size);
+        return b.slice();
+    }
 
-            @Override
-            public Void call() throws Exception {
-                int done = 0;
-                while (done < size) {
-                    byte[] b = new byte[Math.min(size.intValue() - done,
-                            settings.bufsize())];
-                    try {
-                        done += fill(b, data);
-                        for (OioQueueBasedFeedableBodyGenerator g : gens) {
-                            g.feed(wrap(b), done >= size);
+    private List<OioQueueBasedFeedableBodyGenerator> feedableBodys(
+            int count) {
+        ArrayList<OioQueueBasedFeedableBodyGenerator> res = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            res.add(new OioQueueBasedFeedableBodyGenerator(
+                    settings.maxQueuedBytes(), settings.feedTimeout()));
+        return res;
+    }
+
+    private CompletableFuture<ObjectInfo> uploadPosition(ObjectInfo oinf,
+            int pos, long offset, long size, File data,
+            List<ByteBuffer> regions, UploadListener listener,
+            WriteQuorum quorum) {
+        List<CompletableFuture<ObjectInfo>> futures = new ArrayList<>();
+        List<ChunkInfo> cil = oinf.sortedChunks().get(pos);
+        List<OioQueueBasedFeedableBodyGenerator> gens = null;
+        if (null != regions && 0 < size) {
+            // the whole range is queued at once, it lives in the page cache
+            gens = new ArrayList<>();
+            for (int i = 0; i < cil.size(); i++)
+                gens.add(new OioQueueBasedFeedableBodyGenerator(size,
+                        settings.feedTimeout()));
+            try {
+                feedMapped(regions, gens);
+            } catch (IOException e) {
+                return failedFuture(e);
+            }
+        }
+        for (int i = 0; i < cil.size(); i++) {
+            ChunkInfo ci = cil.get(i);
+            CompletableFuture<ObjectInfo> f;
+            if (null != gens)
+                f = putFileChunk(oinf, ci, size, gens.get(i), listener);
+            else if (null != regions)
+                f = putFileChunk(oinf, ci, size, null, listener);
+            else
+                f = putFileChunk(oinf, ci, size,
+                        new FileBodyGenerator(data, offset, size), listener);
+            // retries are sent straight from the file
+            futures.add(retrying(oinf, ci, f,
+                    null == spares ? null
+                            : () -> putFileChunk(oinf, ci, size,
+                                    new FileBodyGenerator(data, offset, size),
+                                    listener)));
+        }
+        return quorum.position(oinf, cil, futures);
+    }
+
+    /**
+     * Uploads a chunk of a file, its body being the specified generator, or
+     * empty.
+     */
+    private CompletableFuture<ObjectInfo> putFileChunk(ObjectInfo oinf,
+            ChunkInfo ci, long size, BodyGenerator body,
+            UploadListener listener) {
+        BoundRequestBuilder builder = http.preparePut(ci.url())
+                .setHeader(CHUNK_META_CONTAINER_ID, oinf.url().cid())
+                .setHeader(CHUNK_META_CONTENT_ID, oinf.oid())
+                .setHeader(CHUNK_META_CONTENT_POLICY, oinf.policy())
+                .setHeader(CHUNK_META_CONTENT_CHUNK_METHOD, oinf.chunkMethod())
+                .setHeader(CHUNK_META_CONTENT_MIME_TYPE, oinf.mtype())
+                .setHeader(CHUNK_META_CONTENT_CHUNKSNB,
+                        String.valueOf(oinf.chunks().size()))
+                .setHeader(CHUNK_META_CONTENT_SIZE,
+                        String.valueOf(oinf.size()))
+                .setHeader(CHUNK_META_CONTENT_PATH, oinf.url().object())
+                .setHeader(CHUNK_META_CHUNK_ID, ci.id())
+                .setHeader(CHUNK_META_CHUNK_POS,
+                        String.valueOf(ci.pos().meta()))
+                .setHeader("Content-Length", String.valueOf(size));
+        if (null == body)
+            builder = builder.setBody(new byte[0]);
+        else
+            builder = builder.setBody(body);
+        long start = System.nanoTime();
+        ListenableFuture<ObjectInfo> request = builder
+                .execute(new AsyncCompletionHandler<ObjectInfo>() {
+                    @Override
+                    public ObjectInfo onCompleted(Response response)
+                            throws Exception {
+                        if (200 != response.getStatusCode()
+                                && 201 != response.getStatusCode()) {
+                            throw new SdsException(
+                                    format("Chunk %s upload failed (%d:%s)",
+                                            ci.url(),
+                                            response.getStatusCode(),
+                                            response.getStatusText()));
                         }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        futures.stream().forEach(f -> f.cancel(true));
-                        throw e;
+                        ci.size(size);
+                        ci.hash(response.getHeader(CHUNK_META_CHUNK_HASH));
+                        if (null != tuner)
+                            tuner.record(ci.url(), size,
+                                    System.nanoTime() - start);
+                        if (null != listener)
+                            listener.onPositionCompleted(ci.pos().meta());
+                        return oinf;
                     }
-                }
-                return null;
-            }
+                });
+        // releases the region if the request fails before sending it
+        return aborting(request, body instanceof OioQueueBasedFeedableBodyGenerator
+                ? (OioQueueBasedFeedableBodyGenerator) body : null);
+    }
 
-            private int fill(byte[] b, InputStream data) throws IOException {
-                int done = 0;
-                int read = 0;
-                while (done < b.length) {
-                    read = data.read(b, done, b.length - done);
-                    if (-1 == read)
-                        throw new EOFException("Unexpected end of stream");
-                    done += read;
-                }
-                return done;
+    /**
+     * Returns the specified request as a future. Failing the future, for
+     * instance to drop a copy, stops the request and its body.
+     */
+    private static CompletableFuture<ObjectInfo> aborting(
+            ListenableFuture<ObjectInfo> request,
+            OioQueueBasedFeedableBodyGenerator gen) {
+        CompletableFuture<ObjectInfo> f = request.toCompletableFuture();
+        f.whenComplete((o, t) -> {
+            if (null == t)
+                return;
+            if (null != gen)
+                gen.abort(t);
+            request.abort(t);
+        });
+        return f;
+    }
+
+    /**
+     * Returns the upload of a chunk, which is started again on a spare chunk
+     * when it fails, up to {@link RawxSettings#chunkRetries()} times. Failing
+     * the returned future stops the running attempt.
+     * 
+     * @param again
+     *            starts a new attempt, {@code null} if the chunk cannot be
+     *            uploaded again
+     */
+    private CompletableFuture<ObjectInfo> retrying(ObjectInfo oinf,
+            ChunkInfo ci, CompletableFuture<ObjectInfo> first,
+            Supplier<CompletableFuture<ObjectInfo>> again) {
+        if (null == again || 0 == settings.chunkRetries())
+            return first;
+        CompletableFuture<ObjectInfo> res = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<ObjectInfo>> current =
+                new AtomicReference<>(first);
+        res.whenComplete((o, t) -> {
+            if (null != t)
+                current.get().completeExceptionally(t);
+        });
+        attempt(oinf, ci, first, again, settings.chunkRetries(), current,
+                res);
+        return res;
+    }
+
+    private void attempt(ObjectInfo oinf, ChunkInfo ci,
+            CompletableFuture<ObjectInfo> f,
+            Supplier<CompletableFuture<ObjectInfo>> again, int retries,
+            AtomicReference<CompletableFuture<ObjectInfo>> current,
+            CompletableFuture<ObjectInfo> res) {
+        f.whenComplete((o, t) -> {
+            if (null == t) {
+                res.complete(o);
+                return;
+            }
+            if (res.isDone() || 0 == retries) {
+                res.completeExceptionally(t);
+                return;
             }
+            logger.warn("Chunk %s upload failed (%s), retrying on a spare chunk",
+                    ci.url(), unwrap(t));
+            spares.apply(oinf, ci).whenComplete((spare, e) -> {
+                if (null != e) {
+                    logger.warn("Unable to get a spare chunk for %s (%s)",
+                            ci.url(), unwrap(e));
+                    res.completeExceptionally(t);
+                    return;
+                }
+                if (res.isDone())
+                    return;
+                ci.url(spare.url());
+                CompletableFuture<ObjectInfo> next = again.get();
+                current.set(next);
+                attempt(oinf, ci, next, again, retries - 1, current, res);
+            });
         });
     }
 
-    private List<OioQueueBasedFeedableBodyGenerator> feedableBodys(int count,
-            long size) {
-        ArrayList<OioQueueBasedFeedableBodyGenerator> res = new ArrayList<>();
-        for (int i = 0; i < count; i++)
-            res.add(new OioQueueBasedFeedableBodyGenerator(5));
+    WriteQuorum quorum() {
+        return new WriteQuorum(settings.writeQuorum(),
+                settings.stragglerGrace(), timer);
+    }
+
+    UploadHashes hashes(ObjectInfo oinf) {
+        // rawx services hash the fragments of erasure coded chunks, not the
+        // data of the position
+        return new UploadHashes(HashMethod.of(oinf.hashMethod()),
+                settings.verifyChunkHashes()
+                        && !ChunkMethod.parse(oinf.chunkMethod()).ec());
+    }
+
+    /**
+     * Uploads an erasure coded, compressed or encrypted file, which has to be
+     * read by the client to compute the fragments or the stored chunks.
+     */
+    private CompletableFuture<ObjectInfo> uploadEncoded(ObjectInfo oinf,
+            File data, UploadListener listener) {
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(data.toPath(),
+                    StandardOpenOption.READ);
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+        CompletableFuture<ObjectInfo> res = uploadChunks(oinf,
+                UploadSource.fromChannel(channel, 0L), listener);
+        res.whenComplete((o, t) -> closeQuietly(channel));
         return res;
     }
 
-    private void uploadPosition(ObjectInfo oinf, int pos, long remaining,
-            long size, File data, UploadListener listener,
-            List<CompletableFuture<ObjectInfo>> futures) {
-        for (ChunkInfo ci : oinf.sortedChunks().get(pos)) {
-            futures.add(http.preparePut(ci.url())
-                    .setHeader(CHUNK_META_CONTAINER_ID, oinf.url().cid())
-                    .setHeader(CHUNK_META_CONTENT_ID, oinf.oid())
-                    .setHeader(CHUNK_META_CONTENT_POLICY, oinf.policy())
-                    .setHeader(CHUNK_META_CONTENT_CHUNK_METHOD, oinf.chunkMethod())
-                    .setHeader(CHUNK_META_CONTENT_MIME_TYPE, oinf.mtype())
-                    .setHeader(CHUNK_META_CONTENT_CHUNKSNB,
-                            String.valueOf(oinf.chunks().size()))
-                    .setHeader(CHUNK_META_CONTENT_SIZE,
-                            String.valueOf(oinf.size()))
-                    .setHeader(CHUNK_META_CONTENT_PATH, oinf.url().object())
-                    .setHeader(CHUNK_META_CHUNK_ID, ci.id())
-                    .setHeader(CHUNK_META_CHUNK_POS,
-                            String.valueOf(ci.pos().meta()))
-                    .setHeader("Content-Length", String.valueOf(size))
-                    .setBody(new FileBodyGenerator(data,
-                            oinf.size() - remaining, size))
-                    .execute(new AsyncCompletionHandler<ObjectInfo>() {
-                        @Override
-                        public ObjectInfo onCompleted(Response response)
-                                throws Exception {
-                            if (200 != response.getStatusCode()
-                                    && 201 != response.getStatusCode()) {
-                                throw new SdsException(
-                                        format("Chunk %s upload failed (%d:%s)",
-                                                ci.url(),
-                                                response.getStatusCode(),
-                                                response.getStatusText()));
-                            }
-                            ci.size(size);
-                            ci.hash(response.getHeader(CHUNK_META_CHUNK_HASH));
-                            if (null != listener)
-                                listener.onPositionCompleted(ci.pos().meta());
-                            return oinf;
-                        }
-                    }).toCompletableFuture());
+    /**
+     * Maps the specified range of the file. Ranges bigger than a mapping
+     * allows are split in several regions.
+     */
+    private static List<ByteBuffer> map(FileChannel channel, long offset,
+            long size) throws IOException {
+        List<ByteBuffer> regions = new ArrayList<>();
+        long done = 0L;
+        while (done < size) {
+            long len = Math.min(size - done, Integer.MAX_VALUE);
+            regions.add(channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset + done, len));
+            done += len;
+        }
+        return regions;
+    }
+
+    /**
+     * Starts an upload once the previous step is done, and once it has been
+     * granted a place in both the object window and the client-wide limit of
+     * positions in flight. Both are released when the upload completes.
+     */
+    CompletableFuture<ObjectInfo> inflight(
+            CompletableFuture<Void> previous, AsyncPermits window,
+            Supplier<CompletableFuture<ObjectInfo>> upload) {
+        return previous.thenCompose(v -> window.acquire())
+                .thenCompose(v -> positionPermits.acquire()
+                        .thenCompose(w -> upload.get())
+                        .whenComplete((o, t) -> {
+                            positionPermits.release();
+                            window.release();
+                        }));
+    }
+
+    /**
+     * Starts the upload of an open position once the previous step is done,
+     * and once it has been granted a place in the object window, released
+     * when the upload completes. Open positions are paced by the writer of
+     * their data, so they are not counted in the client-wide limit of
+     * positions in flight: waiting for its writer, a position would hold a
+     * place the other uploads wait for.
+     */
+    CompletableFuture<ObjectInfo> inflightOpen(
+            CompletableFuture<Void> previous, AsyncPermits window,
+            Supplier<CompletableFuture<ObjectInfo>> upload) {
+        return previous.thenCompose(v -> window.acquire()
+                .thenCompose(w -> upload.get())
+                .whenComplete((o, t) -> window.release()));
+    }
+
+    /**
+     * Starts an upload unless a previous one failed, recording its failure
+     * otherwise. The failure is recorded before the upload completes, so
+     * before the next position gets its place in the window.
+     */
+    private static CompletableFuture<ObjectInfo> unlessFailed(
+            AtomicReference<Throwable> failure,
+            Supplier<CompletableFuture<ObjectInfo>> upload) {
+        // positions waiting for their turn are not started anymore
+        if (null != failure.get())
+            return failedFuture(failure.get());
+        return upload.get().whenComplete((o, t) -> {
+            if (null != t)
+                failure.compareAndSet(null, t);
+        });
+    }
+
+    /**
+     * Returns whether an object of the specified size is loaded in memory
+     * while its chunks are prepared, see
+     * {@link RawxSettings#smallObjectSize()}
+     */
+    boolean small(long size) {
+        return 0 <= size && size <= settings.smallObjectSize()
+                && 0 < settings.smallObjectSize();
+    }
+
+    /**
+     * Reads the specified number of bytes of the stream into memory. The
+     * reads are run by the client workers.
+     */
+    CompletableFuture<ByteBuffer> load(InputStream data, long size) {
+        return load(UploadSource.fromStream(data, executors), size);
+    }
+
+    /**
+     * Reads the specified number of bytes of the file into memory.
+     */
+    CompletableFuture<ByteBuffer> load(File data, long size) {
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(data.toPath(),
+                    StandardOpenOption.READ);
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+        CompletableFuture<ByteBuffer> res = load(
+                UploadSource.fromChannel(channel, 0L), size);
+        res.whenComplete((b, t) -> closeQuietly(channel));
+        return res;
+    }
+
+    /**
+     * Reads the specified number of bytes of the source into memory.
+     * 
+     * @return a future which handles a heap buffer holding the data, or
+     *         fails if the source ends before
+     */
+    CompletableFuture<ByteBuffer> load(UploadSource data, long size) {
+        CompletableFuture<ByteBuffer> res = new CompletableFuture<>();
+        fill(data, ByteBuffer.allocate((int) size), res);
+        return res;
+    }
+
+    private static void fill(UploadSource data, ByteBuffer dst,
+            CompletableFuture<ByteBuffer> res) {
+        if (!dst.hasRemaining()) {
+            dst.flip();
+            res.complete(dst);
+            return;
+        }
+        data.read(dst).whenComplete((n, t) -> {
+            if (null != t)
+                res.completeExceptionally(unwrap(t));
+            else if (0 > n)
+                res.completeExceptionally(new EOFException(format(
+                        "Source ended %d bytes before the object size",
+                        dst.remaining())));
+            else
+                fill(data, dst, res);
+        });
+    }
+
+    /**
+     * Queues the mapped regions of a position in each generator.
+     */
+    private void feedMapped(List<ByteBuffer> regions,
+            List<OioQueueBasedFeedableBodyGenerator> gens)
+            throws IOException {
+        for (int i = 0; i < regions.size(); i++) {
+            // generators read duplicates, the regions are hashed as well
+            PooledBuffer region = PooledBuffer.wrap(regions.get(i));
+            try {
+                for (OioQueueBasedFeedableBodyGenerator g : gens)
+                    g.feed(region, i == regions.size() - 1);
+            } catch (Exception e) {
+                gens.stream().forEach(g -> g.abort(e));
+                throw new IOException("Unable to queue file region", e);
+            } finally {
+                region.release();
+            }
         }
     }
 
+    private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+        CompletableFuture<T> f = new CompletableFuture<T>();
+        f.completeExceptionally(t);
+        return f;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (null == c)
+            return;
+        try {
+            c.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close %s", c);
+        }
+    }
+
+    /**
+     * Downloads a single position, or the specified range of its data,
+     * notifying the listener of its data and of its completion only.
+     * 
+     * @param to
+     *            the offset of the last byte of the range, or {@code -1} for
+     *            the whole position
+     * @param demand
+     *            requests the next parts of the chunk once the listener has
+     *            room for them, or {@code null} to receive them as they come.
+     *            Erasure coded positions request their next stripes.
+     */
     private void downloadPosition(ObjectInfo oinf, int pos, int retry,
             DownloadListener listener,
-            LinkedList<ListenableFuture<Boolean>> futures,
-            Semaphore lock) {
-        if (oinf.sortedChunks().get(pos).size() < retry + 1)
+            LinkedList<ListenableFuture<Boolean>> futures, long from,
+            long to, Consumer<Subscription> demand) {
+        downloadPosition(oinf, pos, retry, listener, futures, from, to,
+                demand, null);
+    }
+
+    /**
+     * @param race
+     *            the requests of the other copies of the chunk, when it is
+     *            hedged, or {@code null} for the first request of a position
+     */
+    private void downloadPosition(ObjectInfo oinf, int pos, int retry,
+            DownloadListener listener,
+            LinkedList<ListenableFuture<Boolean>> futures, long from,
+            long to, Consumer<Subscription> demand, HedgedRead race) {
+        ChunkMethod method = ChunkMethod.parse(oinf.chunkMethod());
+        // liberasurecode fragments could not be decoded
+        if (method.ec() && !method.clientEc())
+            throw new SdsException(format("Chunk method %s is not supported",
+                    oinf.chunkMethod()));
+        if (!oinf.properties().containsKey(ORIGINAL_CHUNK_SIZE_PROPERTY)
+                && encoded(oinf))
+            throw new SdsException(format("Properties of %s are missing, "
+                    + "its chunks could not be read", oinf.url()));
+        if (method.ec()) {
+            downloadEncoded(oinf, pos, method, 0 > to ? listener
+                    : new TrimmingListener(listener, from, to - from + 1),
+                    futures, demand);
+            return;
+        }
+        List<ChunkInfo> copies = oinf.sortedChunks().get(pos);
+        if (copies.size() < retry + 1)
             throw new SdsException(
                     String.format("Could not download chunk at pos %d", pos));
-        ChunkInfo ci = oinf.sortedChunks().get(pos).get(retry);
+        ChunkInfo ci = copies.get(retry);
+        HedgedRead hedged = race;
+        if (null != hedges) {
+            // hedges and retries would raise the budget they spend
+            if (null == race && 0 == retry)
+                hedges.request();
+            // the first request of a position waits for its hedge
+            if (null == race && retry + 1 < copies.size()) {
+                hedged = new HedgedRead(retry + 1);
+                hedge(oinf, pos, listener, futures, from, to, demand,
+                        hedged);
+            }
+        }
+        HedgedRead contenders = hedged;
+        // each chunk is compressed and encrypted on its own
+        RecordDecipher cipher = decipher(oinf, pos);
+        Inflater inflater = Compression.DEFLATE == Compression
+                .of(oinf.properties().get(COMPRESSION_PROPERTY))
+                        ? new Inflater() : null;
+        // only the chunks holding the data as is are read in part
+        boolean partial = 0 <= to && null == cipher && null == inflater;
 
         AsyncHandler<Boolean> handler = new AsyncHandler<Boolean>() {
 
+            // the position goes on with another copy
+            private boolean switched = false;
+            private boolean first = true;
+            private final long start = System.nanoTime();
+            private DownloadListener sink = 0 > to || partial ? listener
+                    : new TrimmingListener(listener, from, to - from + 1);
+
+            /**
+             * Decrypts the records completed by a part of the chunk, or the
+             * last record once the whole chunk is received, when the part
+             * is {@code null}.
+             */
+            private byte[] decrypt(byte[] part)
+                    throws GeneralSecurityException {
+                try {
+                    return null == part ? cipher.doFinal()
+                            : cipher.update(part);
+                } catch (AEADBadTagException e) {
+                    throw new SdsException(format(
+                            "Chunk %s authentication failed", ci.url()), e);
+                }
+            }
+
+            private void decode(byte[] data) throws DataFormatException {
+                if (null == data || 0 == data.length)
+                    return;
+                if (null == inflater)
+                    sink.onData(ByteBuffer.wrap(data));
+                else
+                    inflate(inflater, data, sink);
+            }
+
             @Override
             public void onThrowable(Throwable t) {
+                if (null != inflater)
+                    inflater.end();
+                // a cancelled hedge, or a copy failing while another runs
+                if (null != contenders && !contenders.leave(this))
+                    return;
                 listener.onThrowable(t);
             }
 
@@ -339,7 +1683,23 @@ public class RawxClient {
             public org.asynchttpclient.AsyncHandler.State onBodyPartReceived(
                     HttpResponseBodyPart bodyPart)
                             throws Exception {
-                listener.onData(bodyPart.getBodyByteBuffer());
+                if (first) {
+                    first = false;
+                    if (null != hedges)
+                        hedges.record(System.nanoTime() - start);
+                    if (null != contenders && !contenders.claim(this)) {
+                        if (null != inflater)
+                            inflater.end();
+                        switched = true;
+                        return State.ABORT;
+                    }
+                }
+                if (null == inflater && null == cipher)
+                    sink.onData(bodyPart.getBodyByteBuffer());
+                else if (null == cipher)
+                    decode(bodyPart.getBodyPartBytes());
+                else
+                    decode(decrypt(bodyPart.getBodyPartBytes()));
                 return State.CONTINUE;
             }
 
@@ -347,15 +1707,30 @@ public class RawxClient {
             public org.asynchttpclient.AsyncHandler.State onStatusReceived(
                     HttpResponseStatus status)
                             throws Exception {
+                if (partial && 206 == status.getStatusCode())
+                    return State.CONTINUE;
                 if (200 != status.getStatusCode()) {
                     // this chunk is unreachable for some reason, switch
                     logger.warn("Unable to download chunk (%d %s) %s",
                             status.getStatusCode(),
                             status.getStatusText(), ci.url());
-                    downloadPosition(oinf, pos, retry + 1, listener,
-                            futures, lock);
+                    if (null != inflater)
+                        inflater.end();
+                    switched = true;
+                    // another copy may still be running
+                    if (null == contenders)
+                        downloadPosition(oinf, pos, retry + 1, listener,
+                                futures, from, to, demand);
+                    else if (contenders.leave(this))
+                        downloadPosition(oinf, pos, contenders.take(),
+                                listener, futures, from, to, demand,
+                                contenders);
                     return State.ABORT;
                 }
+                // the whole chunk is sent when the range is ignored
+                if (partial)
+                    sink = new TrimmingListener(listener, from,
+                            to - from + 1);
                 return State.CONTINUE;
             }
 
@@ -367,17 +1742,134 @@ public class RawxClient {
 
             @Override
             public Boolean onCompleted() throws Exception {
+                // an aborted request is completed as well
+                if (switched)
+                    return false;
+                // an empty chunk is claimed once completed
+                if (null != contenders && !contenders.claim(this))
+                    return false;
+                if (null != cipher)
+                    decode(decrypt(null));
+                if (null != inflater) {
+                    boolean finished = inflater.finished();
+                    inflater.end();
+                    if (!finished)
+                        throw new SdsException(format(
+                                "Chunk %s compressed data is truncated",
+                                ci.url()));
+                }
                 listener.onPositionCompleted(pos);
-                if (pos == oinf.sortedChunks().size() - 1) {
-                    lock.release();
-                    listener.onCompleted();
-                } else
-                    downloadPosition(oinf, pos + 1, 0, listener,
-                            futures, lock);
                 return true;
             }
         };
 
-        futures.addFirst(http.prepareGet(ci.url()).execute(handler));
+        BoundRequestBuilder builder = http.prepareGet(ci.url());
+        if (partial)
+            builder = builder.setHeader(RANGE,
+                    Range.between(from, to).headerValue());
+        if (null != contenders)
+            contenders.join(handler);
+        ListenableFuture<Boolean> request = builder.execute(null == demand
+                ? handler : new PacedHandler<Boolean>(handler, demand));
+        if (null != contenders)
+            contenders.started(handler, request);
+        // several positions are downloaded at once
+        synchronized (futures) {
+            futures.addFirst(request);
+        }
+    }
+
+    /**
+     * Requests another copy of the chunk of a position once the hedge delay
+     * has elapsed, if no copy sent any data yet and the hedge budget allows.
+     */
+    private void hedge(ObjectInfo oinf, int pos, DownloadListener listener,
+            LinkedList<ListenableFuture<Boolean>> futures, long from,
+            long to, Consumer<Subscription> demand, HedgedRead race) {
+        long delay = hedges.delay();
+        if (0 > delay)
+            return;
+        timer.schedule(() -> {
+            if (!race.waiting() || !hedges.tryHedge())
+                return;
+            int copy = race.take();
+            if (oinf.sortedChunks().get(pos).size() <= copy)
+                return;
+            logger.debug("Hedging chunk at pos %d of %s after %d ms", pos,
+                    oinf.url(), delay);
+            try {
+                downloadPosition(oinf, pos, copy, listener, futures, from,
+                        to, demand, race);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to hedge chunk at pos %d: %s", pos, e);
+            }
+        }, delay, MILLISECONDS);
+    }
+
+    /**
+     * Returns the decipher of a chunk of the specified position, or
+     * {@code null} if the object is not encrypted.
+     * 
+     * @throws SdsException
+     *             if the object is encrypted in another way, or if no key is
+     *             defined
+     */
+    private RecordDecipher decipher(ObjectInfo oinf, int pos) {
+        String encryption = oinf.properties().get(ENCRYPTION_PROPERTY);
+        if (null == encryption)
+            return null;
+        if (!EncryptingSource.NAME.equals(encryption))
+            throw new SdsException(format("Encryption %s is not supported",
+                    encryption));
+        if (null == settings.encryptionKey())
+            throw new SdsException(format("No key to decrypt %s",
+                    oinf.url()));
+        try {
+            return new RecordDecipher(settings.encryptionKey(),
+                    EncryptingSource.seed(oinf, pos));
+        } catch (GeneralSecurityException e) {
+            throw new SdsException("Unable to decrypt chunks", e);
+        }
+    }
+
+    /**
+     * Inflates a part of a compressed chunk, each block of data being passed
+     * to the listener in its own buffer.
+     */
+    private static void inflate(Inflater inflater, byte[] data,
+            DownloadListener listener) throws DataFormatException {
+        inflater.setInput(data);
+        while (!inflater.finished()) {
+            byte[] out = new byte[INFLATE_SIZE];
+            int n = inflater.inflate(out);
+            if (0 < n)
+                listener.onData(ByteBuffer.wrap(out, 0, n));
+            else if (inflater.needsInput())
+                return;
+            else if (inflater.needsDictionary())
+                throw new DataFormatException("Unexpected dictionary");
+        }
+    }
+
+    private void downloadEncoded(ObjectInfo oinf, int pos,
+            ChunkMethod method, DownloadListener listener,
+            LinkedList<ListenableFuture<Boolean>> futures,
+            Consumer<Subscription> demand) {
+        long[] offsets = offsets(oinf);
+        FragmentsReader reader = new FragmentsReader(http, pos,
+                oinf.sortedChunks().get(pos),
+                offsets[pos + 1] - offsets[pos],
+                new ReedSolomon(method.k(), method.m()), demand);
+        CompletableFuture<Void> read = reader.read(listener);
+        synchronized (futures) {
+            for (ListenableFuture<Boolean> f : reader.requests())
+                futures.addFirst(f);
+        }
+        read.whenComplete((v, t) -> {
+            if (null != t)
+                listener.onThrowable(unwrap(t));
+            else
+                listener.onPositionCompleted(pos);
+        });
     }
 }
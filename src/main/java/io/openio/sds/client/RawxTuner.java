@@ -0,0 +1,345 @@
+package io.openio.sds.client;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
+
+/**
+ * Adjusts the read buffer size, the number of positions in flight and the
+ * number of workers of a {@link RawxClient} to its chunk uploads.
+ * <p>
+ * Each completed chunk upload is recorded for its rawx service, with its size
+ * and its duration. Every {@link RawxSettings#tuningInterval()}, the
+ * throughput of the interval is compared to the one measured before the last
+ * change: the change is kept if it raised the throughput, and undone
+ * otherwise, which also turns its direction around. Undoing a change is
+ * measured for an interval before the next one. A change raising the latency
+ * by half without any gain is undone as well. Settings are changed one at a
+ * time, in turn, within their tuned bounds, and idle intervals change
+ * nothing.
+ *
+ *
+ */
+public class RawxTuner {
+
+    private static final SDSLogger logger = Loggers.getLogger(RawxTuner.class);
+
+    static final double THROUGHPUT_TOLERANCE = 0.05;
+    static final double LATENCY_TOLERANCE = 0.5;
+
+    private final List<Knob> knobs = new ArrayList<>();
+    private final Knob bufsize;
+    private final Knob positions;
+    private final Knob workers;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong decisions = new AtomicLong();
+    private int next = 0;
+    private Knob probed;
+    private double baseline;
+    private double baselineLatency;
+    private long last = System.nanoTime();
+    private volatile double throughput;
+    private volatile double latency;
+    private volatile String lastDecision;
+
+    /**
+     * @param bufsize
+     *            applies a new buffer size
+     * @param positions
+     *            applies a new number of positions in flight, or
+     *            {@code null} if they are not limited
+     * @param workers
+     *            applies a new number of workers
+     */
+    RawxTuner(RawxSettings settings, IntConsumer bufsize,
+            IntConsumer positions, IntConsumer workers) {
+        this.bufsize = knob("bufsize", settings.bufsize(),
+                settings.minTunedBufsize(), settings.maxTunedBufsize(), true,
+                bufsize);
+        this.positions = null == positions ? null
+                : knob("positions", settings.maxInflightPositions(),
+                        settings.minTunedPositions(),
+                        settings.maxTunedPositions(), false, positions);
+        this.workers = knob("workers", settings.workers(),
+                settings.minTunedWorkers(), settings.maxTunedWorkers(), false,
+                workers);
+    }
+
+    private Knob knob(String name, int value, int min, int max,
+            boolean doubling, IntConsumer apply) {
+        checkArgument(min <= max, "Invalid %s bounds", name);
+        Knob k = new Knob(name, value, min, max, doubling, apply);
+        if (value != k.value)
+            apply.accept(k.value);
+        knobs.add(k);
+        return k;
+    }
+
+    /**
+     * Records a completed chunk upload.
+     *
+     * @param url
+     *            the url of the chunk
+     * @param bytes
+     *            the size of the chunk
+     * @param nanos
+     *            the duration of the upload
+     */
+    void record(String url, long bytes, long nanos) {
+        hosts.computeIfAbsent(host(url), Host::new).record(bytes, nanos);
+    }
+
+    /**
+     * Measures the uploads completed since the previous call, and takes a
+     * decision.
+     */
+    void tune() {
+        long now = System.nanoTime();
+        tune(now - last);
+        last = now;
+    }
+
+    /**
+     * Measures the uploads recorded during the specified interval, and takes
+     * a decision.
+     */
+    synchronized void tune(long elapsed) {
+        long bytes = 0L;
+        long nanos = 0L;
+        long chunks = 0L;
+        for (Host h : hosts.values()) {
+            h.measure(elapsed);
+            bytes += h.lastBytes;
+            nanos += h.lastNanos;
+            chunks += h.lastChunks;
+        }
+        if (0 == chunks)
+            return;
+        double tput = bytes * 1e9 / elapsed;
+        double lat = nanos / 1e6 / chunks;
+        throughput = tput;
+        latency = lat;
+        if (null != probed) {
+            Knob k = probed;
+            probed = null;
+            boolean gain = tput > baseline * (1 + THROUGHPUT_TOLERANCE)
+                    && lat <= baselineLatency * (1 + LATENCY_TOLERANCE);
+            if (!gain) {
+                decide(k, k.previous, "no gain");
+                k.direction = -k.direction;
+                next = (knobs.indexOf(k) + 1) % knobs.size();
+                return;
+            }
+            // goes on the same way
+            next = knobs.indexOf(k);
+        }
+        baseline = tput;
+        baselineLatency = lat;
+        probe();
+    }
+
+    private void probe() {
+        for (int i = 0; i < knobs.size(); i++) {
+            Knob k = knobs.get((next + i) % knobs.size());
+            int value = k.step();
+            if (value == k.value) {
+                // at a bound, tries the other way
+                k.direction = -k.direction;
+                value = k.step();
+            }
+            if (value != k.value) {
+                probed = k;
+                decide(k, value, "probe");
+                return;
+            }
+        }
+    }
+
+    private void decide(Knob k, int value, String reason) {
+        lastDecision = format("%s %d -> %d (%s, %.0f B/s, %.2f ms)", k.name,
+                k.value, value, reason, throughput, latency);
+        logger.info("Tuning %s", lastDecision);
+        k.previous = k.value;
+        k.value = value;
+        k.apply.accept(value);
+        decisions.incrementAndGet();
+    }
+
+    /**
+     * @return the host and port of the specified url
+     */
+    static String host(String url) {
+        int start = url.indexOf("://");
+        start = 0 > start ? 0 : start + 3;
+        int end = url.indexOf('/', start);
+        return 0 > end ? url.substring(start) : url.substring(start, end);
+    }
+
+    /**
+     * Returns the current size of the read buffers
+     */
+    public int bufsize() {
+        return bufsize.value;
+    }
+
+    /**
+     * Returns the current number of positions in flight, {@code 0} meaning
+     * no limit
+     */
+    public int positions() {
+        return null == positions ? 0 : positions.value;
+    }
+
+    /**
+     * Returns the current number of workers
+     */
+    public int workers() {
+        return workers.value;
+    }
+
+    /**
+     * Returns the throughput of the chunk uploads, in bytes per second, over
+     * the last interval with uploads
+     */
+    public double throughput() {
+        return throughput;
+    }
+
+    /**
+     * Returns the mean duration of the chunk uploads, in milliseconds, over
+     * the last interval with uploads
+     */
+    public double latency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of changes applied so far
+     */
+    public long decisions() {
+        return decisions.get();
+    }
+
+    /**
+     * Returns a description of the last change, or {@code null}
+     */
+    public String lastDecision() {
+        return lastDecision;
+    }
+
+    /**
+     * Returns the measures of each rawx service, by host and port
+     */
+    public Map<String, Host> hosts() {
+        return Collections.unmodifiableMap(hosts);
+    }
+
+    /**
+     * Measures of the chunk uploads to a single rawx service.
+     */
+    public static class Host {
+
+        private final String host;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private long lastBytes;
+        private long lastNanos;
+        private long lastChunks;
+        private volatile double throughput;
+        private volatile double latency;
+
+        Host(String host) {
+            this.host = host;
+        }
+
+        void record(long bytes, long nanos) {
+            this.bytes.addAndGet(bytes);
+            this.nanos.addAndGet(nanos);
+            chunks.incrementAndGet();
+            total.incrementAndGet();
+        }
+
+        void measure(long elapsed) {
+            lastBytes = bytes.getAndSet(0L);
+            lastNanos = nanos.getAndSet(0L);
+            lastChunks = chunks.getAndSet(0L);
+            throughput = lastBytes * 1e9 / elapsed;
+            if (0 < lastChunks)
+                latency = lastNanos / 1e6 / lastChunks;
+        }
+
+        public String host() {
+            return host;
+        }
+
+        /**
+         * Returns the throughput of the chunk uploads to this service, in
+         * bytes per second, over the last interval
+         */
+        public double throughput() {
+            return throughput;
+        }
+
+        /**
+         * Returns the mean duration of the chunk uploads to this service, in
+         * milliseconds, over the last interval with uploads
+         */
+        public double latency() {
+            return latency;
+        }
+
+        /**
+         * Returns the number of chunks uploaded to this service
+         */
+        public long chunks() {
+            return total.get();
+        }
+    }
+
+    private static class Knob {
+
+        private final String name;
+        private final int min;
+        private final int max;
+        private final boolean doubling;
+        private final IntConsumer apply;
+        private int value;
+        private int previous;
+        private int direction = 1;
+
+        Knob(String name, int value, int min, int max, boolean doubling,
+                IntConsumer apply) {
+            this.name = name;
+            this.min = min;
+            this.max = max;
+            this.doubling = doubling;
+            this.apply = apply;
+            this.value = Math.max(min, Math.min(max, value));
+            this.previous = this.value;
+        }
+
+        /**
+         * @return the value one step further in the current direction,
+         *         within the bounds
+         */
+        int step() {
+            int delta = doubling ? value : Math.max(1, value / 4);
+            long v = 0 < direction ? (long) value + delta
+                    : value - (doubling ? value / 2 : delta);
+            return (int) Math.max(min, Math.min(max, v));
+        }
+    }
+}
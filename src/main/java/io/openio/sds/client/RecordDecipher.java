@@ -0,0 +1,99 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.client.EncryptingSource.RECORD_SIZE;
+import static io.openio.sds.client.EncryptingSource.TAG_SIZE;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Decrypts a chunk encrypted by {@link EncryptingSource} as it is received,
+ * the data of each record being released once the record is authenticated.
+ * At most one record is held at a time.
+ *
+ *
+ */
+class RecordDecipher {
+
+    private static final int SEALED_SIZE = RECORD_SIZE + TAG_SIZE;
+
+    private final SecretKey key;
+    private final byte[] seed;
+    private final Cipher cipher;
+    // the part of the record being received
+    private final byte[] sealed = new byte[SEALED_SIZE];
+    private int filled = 0;
+    private long record = 0L;
+
+    /**
+     * @param seed
+     *            the seed of the nonces of the position
+     */
+    RecordDecipher(SecretKey key, byte[] seed)
+            throws GeneralSecurityException {
+        this.key = key;
+        this.seed = seed;
+        this.cipher = EncryptingSource.cipher();
+    }
+
+    /**
+     * Decrypts the records completed by the specified part of the chunk.
+     * Full records are never the last one, so they are decrypted at once.
+     *
+     * @return the data of the records completed, empty if none
+     * @throws javax.crypto.AEADBadTagException
+     *             if a record fails authentication
+     */
+    byte[] update(byte[] part) throws GeneralSecurityException {
+        byte[] out = new byte[(filled + part.length) / SEALED_SIZE
+                * RECORD_SIZE];
+        int off = 0;
+        int written = 0;
+        while (off < part.length) {
+            if (0 == filled && SEALED_SIZE <= part.length - off) {
+                // a whole record of the part is decrypted in place
+                written += open(part, off, SEALED_SIZE, false, out, written);
+                off += SEALED_SIZE;
+                continue;
+            }
+            int n = Math.min(SEALED_SIZE - filled, part.length - off);
+            System.arraycopy(part, off, sealed, filled, n);
+            filled += n;
+            off += n;
+            if (SEALED_SIZE == filled) {
+                written += open(sealed, 0, SEALED_SIZE, false, out,
+                        written);
+                filled = 0;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Decrypts the last record, once the whole chunk has been received.
+     *
+     * @return the data of the last record
+     * @throws javax.crypto.AEADBadTagException
+     *             if the last record fails authentication, or if the chunk
+     *             is truncated
+     */
+    byte[] doFinal() throws GeneralSecurityException {
+        // not even a tag, the chunk was cut between two records
+        if (TAG_SIZE > filled)
+            throw new AEADBadTagException("truncated chunk");
+        byte[] out = new byte[filled - TAG_SIZE];
+        open(sealed, 0, filled, true, out, 0);
+        filled = 0;
+        return out;
+    }
+
+    private int open(byte[] in, int off, int len, boolean last, byte[] out,
+            int at) throws GeneralSecurityException {
+        EncryptingSource.init(cipher, Cipher.DECRYPT_MODE, key, seed,
+                record++, last);
+        return cipher.doFinal(in, off, len, out, at);
+    }
+}
@@ -0,0 +1,60 @@
+package io.openio.sds.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Passes only a range of the data of a position to a listener, for the
+ * positions read in full while a part of them was requested.
+ *
+ *
+ */
+class TrimmingListener implements DownloadListener {
+
+    private final DownloadListener listener;
+    private long skip;
+    private long remaining;
+
+    /**
+     * @param from
+     *            the offset of the range in the position
+     * @param length
+     *            the length of the range
+     */
+    TrimmingListener(DownloadListener listener, long from, long length) {
+        this.listener = listener;
+        this.skip = from;
+        this.remaining = length;
+    }
+
+    @Override
+    public void onData(ByteBuffer bodyPart) {
+        if (0 < skip) {
+            int n = (int) Math.min(skip, bodyPart.remaining());
+            bodyPart.position(bodyPart.position() + n);
+            skip -= n;
+        }
+        if (0 == remaining || !bodyPart.hasRemaining())
+            return;
+        if (bodyPart.remaining() > remaining) {
+            bodyPart = bodyPart.duplicate();
+            bodyPart.limit(bodyPart.position() + (int) remaining);
+        }
+        remaining -= bodyPart.remaining();
+        listener.onData(bodyPart);
+    }
+
+    @Override
+    public void onThrowable(Throwable t) {
+        listener.onThrowable(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        listener.onCompleted();
+    }
+
+    @Override
+    public void onPositionCompleted(int pos) {
+        listener.onPositionCompleted(pos);
+    }
+}
@@ -0,0 +1,90 @@
+package io.openio.sds.client;
+
+import static java.lang.String.format;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.hash.Hasher;
+
+import io.openio.sds.common.HashMethod;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+
+/**
+ * Computes the hash of each position and of the whole content while the data
+ * of an object goes through the client.
+ * <p>
+ * Data must be submitted in content order, one position after the other, by
+ * one thread at a time.
+ *
+ *
+ */
+class UploadHashes {
+
+    private final HashMethod chunkMethod;
+    private final Hasher content;
+    private final Map<Integer, String> chunks = new ConcurrentHashMap<>();
+    private Hasher chunk;
+
+    /**
+     * @param contentMethod
+     *            the method used to hash the whole content
+     * @param verifyChunks
+     *            {@code true} to compute the hash of each position, the way
+     *            rawx services compute it
+     */
+    UploadHashes(HashMethod contentMethod, boolean verifyChunks) {
+        this.chunkMethod = verifyChunks ? HashMethod.MD5 : HashMethod.NONE;
+        this.content = contentMethod.newHasher();
+    }
+
+    boolean enabled() {
+        return null != content || HashMethod.NONE != chunkMethod;
+    }
+
+    void update(ByteBuffer data) {
+        if (null == chunk)
+            chunk = chunkMethod.newHasher();
+        if (null != chunk)
+            HashMethod.update(chunk, data);
+        if (null != content)
+            HashMethod.update(content, data);
+    }
+
+    /**
+     * Completes the hash of the specified position, once all its data has
+     * been submitted.
+     */
+    void endPosition(int pos) {
+        if (null == chunk)
+            chunk = chunkMethod.newHasher();
+        if (null != chunk)
+            chunks.put(pos, HashMethod.hash(chunk));
+        chunk = null;
+    }
+
+    /**
+     * Checks the hashes returned by the rawx services against the computed
+     * ones, and sets the content hash of the object.
+     *
+     * @throws SdsException
+     *             if a chunk hash does not match
+     */
+    void complete(ObjectInfo oinf) {
+        for (Map.Entry<Integer, String> e : chunks.entrySet()) {
+            List<ChunkInfo> cil = oinf.sortedChunks().get(e.getKey());
+            for (ChunkInfo ci : cil) {
+                if (null != ci.hash() && !e.getValue().equalsIgnoreCase(ci.hash()))
+                    throw new SdsException(format(
+                            "Chunk %s hash mismatch (%s, expected %s)",
+                            ci.url(), ci.hash(), e.getValue()));
+            }
+        }
+        if (null != content)
+            oinf.hash(HashMethod.hash(content));
+    }
+}
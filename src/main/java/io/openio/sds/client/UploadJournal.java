@@ -0,0 +1,210 @@
+package io.openio.sds.client;
+
+import static io.openio.sds.common.JsonUtils.gson;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonParseException;
+
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+
+/**
+ * Local append-only journal of a resumable upload.
+ * <p>
+ * The first record holds the prepared {@code ObjectInfo}, each next one the
+ * chunks of a position once they are all written. Records are JSON lines,
+ * forced to disk as they are appended, so that a torn last line is the worst
+ * a crash can leave behind; it is ignored when the journal is read again.
+ *
+ *
+ */
+class UploadJournal implements Closeable {
+
+    private static final SDSLogger logger = Loggers
+            .getLogger(UploadJournal.class);
+
+    private final Path path;
+    private final FileChannel channel;
+    private ObjectInfo beans;
+    private final Map<Integer, List<ChunkInfo>> positions = new TreeMap<>();
+
+    private UploadJournal(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the specified journal, reading the records it already holds.
+     */
+    static UploadJournal open(Path path) throws IOException {
+        UploadJournal journal = new UploadJournal(path, FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE));
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Merges the recorded upload with freshly prepared chunks.
+     * <p>
+     * If the journal holds an upload of the same object, with the same
+     * layout, the positions recorded before the first missing one keep their
+     * chunks and the other ones take the prepared chunks, as their previous
+     * chunks may have been partially written. Otherwise the journal is
+     * restarted with the prepared chunks.
+     *
+     * @param prepared
+     *            the chunks prepared for the object
+     * @return the object to upload
+     */
+    synchronized ObjectInfo resume(ObjectInfo prepared) {
+        if (resumable(prepared)) {
+            // the positions after a missing one are uploaded again
+            int first = first();
+            positions.keySet().removeIf(pos -> pos >= first);
+            List<ChunkInfo> chunks = new ArrayList<>();
+            for (int i = 0; i < prepared.nbchunks(); i++)
+                chunks.addAll(i < first ? positions.get(i)
+                        : prepared.sortedChunks().get(i));
+            logger.info("Resuming upload of %s at position %d",
+                    prepared.url(), first);
+            // the recorded chunks were written with the first content id
+            return prepared.oid(beans.oid()).chunks(chunks);
+        }
+        if (null != beans)
+            logger.warn("Journal %s does not match %s, restarting", path,
+                    prepared.url());
+        try {
+            channel.truncate(0L);
+            append(gson().toJson(prepared));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        beans = prepared;
+        positions.clear();
+        return prepared;
+    }
+
+    /**
+     * @return the first position which has not been recorded
+     */
+    synchronized int first() {
+        int first = 0;
+        while (positions.containsKey(first))
+            first++;
+        return first;
+    }
+
+    /**
+     * Records the chunks of the specified position, once they are all
+     * written.
+     */
+    synchronized void position(int pos, List<ChunkInfo> chunks) {
+        try {
+            append(gson().toJson(new PositionRecord(pos, chunks)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        positions.put(pos, chunks);
+    }
+
+    /**
+     * Closes and removes the journal, once the object is committed.
+     */
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Unable to delete journal %s", path);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close journal %s", path);
+        }
+    }
+
+    /* --- INTERNALS --- */
+
+    private boolean resumable(ObjectInfo prepared) {
+        if (null == beans || beans.size() != prepared.size()
+                || !same(beans.url(), prepared.url())
+                || !beans.chunkMethod().equals(prepared.chunkMethod())
+                || !beans.properties().equals(prepared.properties())
+                || beans.nbchunks() != prepared.nbchunks())
+            return false;
+        for (int i = 0; i < beans.nbchunks(); i++) {
+            if (beans.chunksize(i) != prepared.chunksize(i)
+                    || beans.sortedChunks().get(i).size() != prepared
+                            .sortedChunks().get(i).size())
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean same(OioUrl u1, OioUrl u2) {
+        return u1.account().equals(u2.account())
+                && u1.container().equals(u2.container())
+                && u1.object().equals(u2.object());
+    }
+
+    private void load() throws IOException {
+        // a torn record may end with a partial character
+        String records = new String(Files.readAllBytes(path), UTF_8);
+        for (String line : records.split("\n")) {
+            try {
+                if (null == beans) {
+                    ObjectInfo oinf = gson().fromJson(line, ObjectInfo.class);
+                    beans = oinf.chunks(oinf.chunks());
+                } else {
+                    PositionRecord r = gson().fromJson(line,
+                            PositionRecord.class);
+                    positions.put(r.pos, r.chunks);
+                }
+            } catch (JsonParseException | NullPointerException e) {
+                // the last record may have been torn by a crash
+                break;
+            }
+        }
+    }
+
+    private void append(String record) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap((record + "\n").getBytes(UTF_8));
+        channel.position(channel.size());
+        while (b.hasRemaining())
+            channel.write(b);
+        channel.force(false);
+    }
+
+    private static class PositionRecord {
+
+        private int pos;
+        private List<ChunkInfo> chunks;
+
+        PositionRecord(int pos, List<ChunkInfo> chunks) {
+            this.pos = pos;
+            this.chunks = chunks;
+        }
+    }
+}
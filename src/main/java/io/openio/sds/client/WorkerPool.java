@@ -0,0 +1,82 @@
+package io.openio.sds.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.openio.sds.common.AsyncPermits;
+
+/**
+ * The workers of a {@link RawxClient}, running the blocking stream reads, the
+ * encryptions and the hashes of the uploads.
+ * <p>
+ * Their queue is bounded. Once it is full, a task waits for a queued one to
+ * start, and is queued by the worker starting it. A task never runs on the
+ * thread submitting it, which may be an I/O event loop thread.
+ *
+ *
+ */
+class WorkerPool implements Executor {
+
+    private static final long IDLE_THREAD_KEEP_ALIVE = 30L; // in seconds
+
+    private final ThreadPoolExecutor pool;
+    // one per task submitted and not started yet, so the queue has room for
+    // every task granted one
+    private final AsyncPermits permits;
+
+    /**
+     * @param n
+     *            the number of workers
+     * @param queued
+     *            the number of tasks waiting for a free worker
+     */
+    WorkerPool(int n, int queued) {
+        this.pool = new ThreadPoolExecutor(n, n, IDLE_THREAD_KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(queued), r -> {
+                    Thread t = new Thread(r);
+                    t.setName("RawxClient-Worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.permits = new AsyncPermits(queued);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        permits.acquire().thenRun(() -> pool.execute(() -> {
+            permits.release();
+            task.run();
+        }));
+    }
+
+    /**
+     * Changes the number of workers
+     */
+    void resize(int n) {
+        // the core size may never be over the maximum size
+        if (n > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(n);
+            pool.setCorePoolSize(n);
+        } else {
+            pool.setCorePoolSize(n);
+            pool.setMaximumPoolSize(n);
+        }
+    }
+
+    /**
+     * @return the number of tasks queued for a free worker
+     */
+    int queued() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks waiting for room in the queue
+     */
+    int waiting() {
+        return permits.waiting();
+    }
+}
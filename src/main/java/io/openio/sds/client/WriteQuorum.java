@@ -0,0 +1,151 @@
+package io.openio.sds.client;
+
+import static java.lang.String.format;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.openio.sds.common.logging.Loggers;
+import io.openio.sds.common.logging.SDSLogger;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+
+/**
+ * Tracks the copies of the positions of an object being uploaded, and
+ * completes each position once enough of its copies are acknowledged.
+ * <p>
+ * The copies still running when a position reaches its quorum are given a
+ * grace period, then aborted. The chunks of the failed and aborted copies are
+ * removed from the object before it is committed, and recorded as
+ * under-replicated.
+ *
+ *
+ */
+class WriteQuorum {
+
+    private static final SDSLogger logger = Loggers
+            .getLogger(WriteQuorum.class);
+
+    private final int quorum;
+    private final long grace;
+    private final ScheduledExecutorService timer;
+    private final List<CompletableFuture<Void>> settled = Collections
+            .synchronizedList(new ArrayList<>());
+    private final List<ChunkInfo> lost = Collections
+            .synchronizedList(new ArrayList<>());
+
+    /**
+     * @param quorum
+     *            the number of copies to acknowledge, {@code 0} for all
+     * @param grace
+     *            the time given to the other copies once the quorum is
+     *            reached, in milliseconds
+     */
+    WriteQuorum(int quorum, long grace, ScheduledExecutorService timer) {
+        this.quorum = quorum;
+        this.grace = grace;
+        this.timer = timer;
+    }
+
+    /**
+     * @return the number of copies to acknowledge among the specified number
+     */
+    int quorum(int copies) {
+        return 0 == quorum ? copies : Math.min(quorum, copies);
+    }
+
+    long grace() {
+        return grace;
+    }
+
+    /**
+     * Watches the copies of a position.
+     *
+     * @param cil
+     *            the chunks of the position
+     * @param copies
+     *            the uploads of the chunks, in the same order
+     * @return a future completed once the quorum is reached, or failed as
+     *         soon as it cannot be reached anymore
+     */
+    CompletableFuture<ObjectInfo> position(ObjectInfo oinf,
+            List<ChunkInfo> cil, List<CompletableFuture<ObjectInfo>> copies) {
+        int needed = quorum(copies.size());
+        if (needed == copies.size())
+            return CompletableFuture
+                    .allOf(copies.toArray(new CompletableFuture[copies.size()]))
+                    .thenApply(v -> oinf);
+        CompletableFuture<ObjectInfo> acked = new CompletableFuture<>();
+        CompletableFuture<Void> all = new CompletableFuture<>();
+        int[] counts = new int[2];
+        for (int i = 0; i < copies.size(); i++) {
+            ChunkInfo ci = cil.get(i);
+            copies.get(i).whenComplete((o, t) -> {
+                boolean reached = false;
+                boolean impossible = false;
+                boolean over;
+                synchronized (counts) {
+                    if (null == t)
+                        reached = ++counts[0] == needed;
+                    else {
+                        lost.add(ci);
+                        impossible = copies.size() - ++counts[1] == needed - 1;
+                    }
+                    over = counts[0] + counts[1] == copies.size();
+                }
+                if (null != t)
+                    logger.warn("Chunk %s not written: %s", ci.url(), t);
+                if (impossible)
+                    acked.completeExceptionally(t);
+                if (reached) {
+                    acked.complete(oinf);
+                    abortLater(copies);
+                }
+                if (over)
+                    all.complete(null);
+            });
+        }
+        settled.add(all);
+        return acked;
+    }
+
+    private void abortLater(List<CompletableFuture<ObjectInfo>> copies) {
+        Runnable abort = () -> {
+            for (CompletableFuture<ObjectInfo> f : copies)
+                f.completeExceptionally(new TimeoutException(format(
+                        "Copy still running %d ms after the quorum", grace)));
+        };
+        if (copies.stream().allMatch(CompletableFuture::isDone))
+            return;
+        if (0 == grace)
+            abort.run();
+        else
+            timer.schedule(abort, grace, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for all the copies to be completed or aborted, then removes the
+     * chunks which have not been written from the object.
+     *
+     * @return a future completed once the object is ready to be committed
+     */
+    CompletableFuture<ObjectInfo> complete(ObjectInfo oinf) {
+        return CompletableFuture
+                .allOf(settled.toArray(new CompletableFuture[settled.size()]))
+                .thenApply(v -> {
+                    if (lost.isEmpty())
+                        return oinf;
+                    List<ChunkInfo> written = new ArrayList<>(oinf.chunks());
+                    written.removeAll(lost);
+                    oinf.chunks(written);
+                    oinf.underReplicated(new ArrayList<>(lost));
+                    return oinf;
+                });
+    }
+}
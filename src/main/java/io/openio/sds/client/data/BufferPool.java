@@ -0,0 +1,111 @@
+package io.openio.sds.client.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of fixed size {@link ByteBuffer}s handed out as reference-counted
+ * {@link PooledBuffer}s.
+ * <p>
+ * A buffer goes back to the pool once its last reference has been released.
+ * When the pool is empty a new buffer is allocated (a miss), and when the pool
+ * is already full a released buffer is simply left to the garbage collector.
+ *
+ *
+ */
+public class BufferPool {
+
+    private final int bufsize;
+    private final int capacity;
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * @param bufsize
+     *            the size of the buffers
+     * @param capacity
+     *            the maximum number of idle buffers kept in the pool
+     * @param direct
+     *            {@code true} to allocate direct buffers, {@code false} for
+     *            heap buffers
+     */
+    public BufferPool(int bufsize, int capacity, boolean direct) {
+        checkArgument(0 < bufsize, "Invalid buffer size");
+        checkArgument(0 <= capacity, "Invalid pool capacity");
+        this.bufsize = bufsize;
+        this.capacity = capacity;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns a cleared buffer, with a reference count of 1.
+     * 
+     * @return the acquired buffer
+     */
+    public PooledBuffer acquire() {
+        ByteBuffer b = buffers.poll();
+        if (null == b) {
+            misses.incrementAndGet();
+            b = direct ? ByteBuffer.allocateDirect(bufsize)
+                    : ByteBuffer.allocate(bufsize);
+        } else {
+            pooled.decrementAndGet();
+            hits.incrementAndGet();
+            b.clear();
+        }
+        outstanding.addAndGet(bufsize);
+        return new PooledBuffer(this, b);
+    }
+
+    void recycle(ByteBuffer b) {
+        outstanding.addAndGet(-bufsize);
+        if (pooled.incrementAndGet() <= capacity)
+            buffers.offer(b);
+        else
+            pooled.decrementAndGet();
+    }
+
+    public int bufsize() {
+        return bufsize;
+    }
+
+    public boolean direct() {
+        return direct;
+    }
+
+    /**
+     * Returns the number of buffers acquired from the pool
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of buffers allocated because the pool was empty
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the size of the buffers acquired and not yet released
+     */
+    public long outstandingBytes() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the number of idle buffers available in the pool
+     */
+    public int pooled() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,40 @@
+package io.openio.sds.client.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link UploadSource} reading a {@link ByteBuffer}
+ *
+ *
+ */
+class BufferSource implements UploadSource {
+
+    private final ByteBuffer origin;
+    private final long start;
+    private final ByteBuffer data;
+
+    BufferSource(ByteBuffer origin, long start) {
+        this.origin = origin;
+        this.start = start;
+        this.data = origin.duplicate();
+        data.position(data.position() + (int) start);
+    }
+
+    @Override
+    public UploadSource reread(long offset) {
+        return new BufferSource(origin, start + offset);
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        if (!data.hasRemaining())
+            return CompletableFuture.completedFuture(-1);
+        int n = Math.min(data.remaining(), dst.remaining());
+        ByteBuffer part = data.duplicate();
+        part.limit(part.position() + n);
+        dst.put(part);
+        data.position(data.position() + n);
+        return CompletableFuture.completedFuture(n);
+    }
+}
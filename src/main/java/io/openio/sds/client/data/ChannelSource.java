@@ -0,0 +1,50 @@
+package io.openio.sds.client.data;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link UploadSource} reading an {@link AsynchronousFileChannel}
+ *
+ *
+ */
+class ChannelSource implements UploadSource {
+
+    private final AsynchronousFileChannel channel;
+    private final long start;
+    private volatile long position;
+
+    ChannelSource(AsynchronousFileChannel channel, long position) {
+        this.channel = channel;
+        this.start = position;
+        this.position = position;
+    }
+
+    @Override
+    public UploadSource reread(long offset) {
+        return new ChannelSource(channel, start + offset);
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        channel.read(dst, position, null,
+                new CompletionHandler<Integer, Void>() {
+
+                    @Override
+                    public void completed(Integer read, Void attachment) {
+                        if (0 < read)
+                            position += read;
+                        f.complete(read);
+                    }
+
+                    @Override
+                    public void failed(Throwable t, Void attachment) {
+                        f.completeExceptionally(t);
+                    }
+                });
+        return f;
+    }
+}
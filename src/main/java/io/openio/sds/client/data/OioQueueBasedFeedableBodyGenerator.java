@@ -1,31 +1,340 @@
 package io.openio.sds.client.data;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import static com.google.common.base.Preconditions.checkArgument;
 
-import org.asynchttpclient.request.body.generator.BodyChunk;
-import org.asynchttpclient.request.body.generator.QueueBasedFeedableBodyGenerator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.generator.FeedListener;
+import org.asynchttpclient.request.body.generator.FeedableBodyGenerator;
+
+import io.netty.buffer.ByteBuf;
+import io.openio.sds.client.settings.RawxSettings;
 
 /**
- * 
+ * Feedable body generator backed by a queue bounded by a number of bytes.
+ * <p>
+ * Feeding blocks while the queue is full, so the reader is throttled by the
+ * slowest request. It fails if no room has been made after the configured
+ * timeout, or as soon as the generator is aborted, in which case the request
+ * body fails too.
+ * <p>
+ * Buffers fed as {@link PooledBuffer} are retained until they have been
+ * entirely written to the request, so a single buffer could be shared by the
+ * generators of all the copies of a chunk.
  *
  *
  */
 public class OioQueueBasedFeedableBodyGenerator
-        extends QueueBasedFeedableBodyGenerator<LinkedBlockingQueue<BodyChunk>> {
+        implements FeedableBodyGenerator {
+
+    // guarded by this, a slice polled from the queue is owned by its poller
+    private final Queue<Slice> queue = new ArrayDeque<Slice>();
+    private final long capacity;
+    private final long timeout;
+    private volatile FeedListener listener;
+    private volatile Throwable failure;
+    // the thread writing the body, while it does
+    private volatile Thread writer;
+    private long queued = 0L;
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
 
+    /**
+     * Creates a generator which could queue {@code qsize} buffers of
+     * {@link RawxSettings#DEFAULT_BUFSIZE} bytes, and waits indefinitely for
+     * room in its queue.
+     * 
+     * @param qsize
+     *            the number of buffers
+     */
     public OioQueueBasedFeedableBodyGenerator(int qsize) {
-        super(new LinkedBlockingQueue<BodyChunk>());
+        this(qsize * (long) RawxSettings.DEFAULT_BUFSIZE, 0L);
+    }
+
+    /**
+     * @param capacity
+     *            the maximum number of bytes queued. A single buffer bigger
+     *            than the capacity is accepted when the queue is empty.
+     * @param timeout
+     *            the maximum time to wait for room in the queue, in
+     *            milliseconds. {@code 0} means no timeout.
+     */
+    public OioQueueBasedFeedableBodyGenerator(long capacity, long timeout) {
+        checkArgument(0 < capacity, "Invalid capacity");
+        checkArgument(0 <= timeout, "Invalid timeout");
+        this.capacity = capacity;
+        this.timeout = timeout;
     }
 
     @Override
-    protected boolean offer(BodyChunk chunk) throws Exception {
+    public Body createBody() {
+        return new QueueBody();
+    }
+
+    @Override
+    public boolean feed(ByteBuffer buffer, boolean isLast) throws Exception {
+        return offer(new Slice(buffer, null, isLast));
+    }
+
+    /**
+     * Feeds the content of the specified buffer, from its position to its
+     * limit. The buffer is retained until it has been written.
+     * 
+     * @param buffer
+     *            the buffer to feed
+     * @param isLast
+     *            {@code true} if it is the last part of the body
+     * @return {@code true}
+     * @throws Exception
+     *             if the buffer could not be queued
+     */
+    public boolean feed(PooledBuffer buffer, boolean isLast) throws Exception {
+        buffer.retain();
+        try {
+            return offer(new Slice(buffer.buffer().duplicate(), buffer,
+                    isLast));
+        } catch (Exception e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void setListener(FeedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a future completed when {@code size} bytes could be fed without
+     * blocking, or failed if the generator is aborted. It allows to feed the
+     * generator without holding a thread while the queue is full.
+     * 
+     * @param size
+     *            the number of bytes to feed
+     * @return the future
+     */
+    public CompletableFuture<Void> room(long size) {
+        CompletableFuture<Void> f = new CompletableFuture<Void>();
+        synchronized (this) {
+            if (null == failure && 0 < queued && capacity < queued + size) {
+                waiters.add(new Waiter(size, f));
+                return f;
+            }
+        }
+        if (null != failure)
+            f.completeExceptionally(new IOException("Body aborted", failure));
+        else
+            f.complete(null);
+        return f;
+    }
+
+    /**
+     * Aborts the body: pending and future feeds fail, queued buffers are
+     * released and the request body fails on its next write.
+     * 
+     * @param t
+     *            the cause of the abort
+     */
+    public void abort(Throwable t) {
+        List<Waiter> ready;
+        synchronized (this) {
+            if (null == failure)
+                failure = (null == t) ? new CancellationException() : t;
+            notifyAll();
+            ready = new ArrayList<Waiter>(waiters);
+            waiters.clear();
+        }
+        // completed outside of the lock, callers may feed other generators
+        for (Waiter w : ready)
+            w.future.completeExceptionally(
+                    new IOException("Body aborted", failure));
+        discard();
+        // the failure must be seen, even from the body write
+        FeedListener l = listener;
+        if (null != l)
+            l.onContentAdded();
+    }
+
+    /**
+     * Returns the number of bytes queued and not yet written
+     */
+    public synchronized long queued() {
+        return queued;
+    }
+
+    /**
+     * Releases all the buffers which have not been written yet
+     */
+    public void discard() {
+        List<Slice> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<Slice>(queue);
+            queue.clear();
+        }
+        dropped.forEach(this::consumed);
+    }
+
+    private boolean offer(Slice slice) throws Exception {
         // we need to block because we possibly work with many copies of a
-        // single InputStream, we have make synchronization between writers
-        // thread.
-        // TODO specify a timeout and check an exit condition in case of one
-        // worker crash and cannot consume its queue.        
-        queue.put(chunk);
+        // single InputStream, so the slowest consumer throttles the reader,
+        // but never more than the timeout, nor after an abort.
+        long size = slice.buffer.remaining();
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (null == failure && 0 < queued
+                    && capacity < queued + size) {
+                if (0 == timeout) {
+                    wait();
+                    continue;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (0 >= remaining)
+                    throw new TimeoutException(String.format(
+                            "No room for %d bytes after %d ms", size,
+                            timeout));
+                wait(remaining);
+            }
+            if (null != failure)
+                throw new IOException("Body aborted", failure);
+            queued += size;
+            queue.offer(slice);
+        }
+        notifyListener();
         return true;
     }
 
+    /**
+     * Tells the transport that content was added, unless the content is added
+     * from the body write itself, which picks it up anyway: resuming the
+     * transfer from there would write the next parts of the body before the
+     * one being written.
+     */
+    private void notifyListener() {
+        FeedListener l = listener;
+        if (null != l && Thread.currentThread() != writer)
+            l.onContentAdded();
+    }
+
+    private void consumed(Slice s) {
+        List<Waiter> ready = null;
+        synchronized (this) {
+            queued -= s.size;
+            notifyAll();
+            Iterator<Waiter> it = waiters.iterator();
+            while (it.hasNext()) {
+                Waiter w = it.next();
+                if (0 < queued && capacity < queued + w.size)
+                    continue;
+                if (null == ready)
+                    ready = new ArrayList<Waiter>();
+                ready.add(w);
+                it.remove();
+            }
+        }
+        s.release();
+        // completed outside of the lock, callers may feed other generators
+        if (null != ready)
+            ready.forEach(w -> w.future.complete(null));
+    }
+
+    private static final class Waiter {
+
+        private final long size;
+        private final CompletableFuture<Void> future;
+
+        Waiter(long size, CompletableFuture<Void> future) {
+            this.size = size;
+            this.future = future;
+        }
+    }
+
+    private static final class Slice {
+
+        private final ByteBuffer buffer;
+        private final PooledBuffer owner;
+        private final boolean last;
+        private final long size;
+
+        Slice(ByteBuffer buffer, PooledBuffer owner, boolean last) {
+            this.buffer = buffer;
+            this.owner = owner;
+            this.last = last;
+            this.size = buffer.remaining();
+        }
+
+        void release() {
+            if (null != owner)
+                owner.release();
+        }
+    }
+
+    private final class QueueBody implements Body {
+
+        private boolean done = false;
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public BodyState transferTo(ByteBuf target) throws IOException {
+            if (null != failure)
+                throw new IOException("Body aborted", failure);
+            if (done)
+                return BodyState.STOP;
+            writer = Thread.currentThread();
+            try {
+                return write(target);
+            } finally {
+                writer = null;
+            }
+        }
+
+        private BodyState write(ByteBuf target) throws IOException {
+            BodyState res = BodyState.SUSPEND;
+            while (target.isWritable() && !done) {
+                Slice written = null;
+                // an abort may release the queued slices at any time, so a
+                // slice is only read while it is still queued
+                synchronized (OioQueueBasedFeedableBodyGenerator.this) {
+                    if (null != failure)
+                        throw new IOException("Body aborted", failure);
+                    Slice s = queue.peek();
+                    if (null == s)
+                        return res;
+                    res = BodyState.CONTINUE;
+                    int n = Math.min(s.buffer.remaining(),
+                            target.writableBytes());
+                    if (0 < n) {
+                        ByteBuffer part = s.buffer.duplicate();
+                        part.limit(part.position() + n);
+                        target.writeBytes(part);
+                        s.buffer.position(s.buffer.position() + n);
+                    }
+                    if (!s.buffer.hasRemaining())
+                        written = queue.poll();
+                }
+                if (null != written) {
+                    consumed(written);
+                    done = written.last;
+                }
+            }
+            return res;
+        }
+
+        @Override
+        public void close() throws IOException {
+            discard();
+        }
+    }
 }
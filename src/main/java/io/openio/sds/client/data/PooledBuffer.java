@@ -0,0 +1,81 @@
+package io.openio.sds.client.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted buffer acquired from a {@link BufferPool}.
+ * <p>
+ * Each holder of the buffer calls {@link #retain()} before using it and
+ * {@link #release()} when done. The buffer goes back to its pool when the
+ * last reference is released, and must not be used anymore afterwards.
+ * <p>
+ * Buffers which do not belong to any pool, such as mapped file regions, could
+ * be shared the same way once {@link #wrap(ByteBuffer) wrapped}.
+ *
+ *
+ */
+public class PooledBuffer {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Wraps a buffer which does not belong to any pool. Releasing the last
+     * reference only drops it.
+     * 
+     * @param buffer
+     *            the buffer to wrap
+     * @return the wrapped buffer, with a single reference
+     */
+    public static PooledBuffer wrap(ByteBuffer buffer) {
+        return new PooledBuffer(null, buffer);
+    }
+
+    /**
+     * Returns the underlying buffer. Readers which share the buffer should
+     * work on a {@link ByteBuffer#duplicate()} of it.
+     * 
+     * @return the underlying buffer
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public PooledBuffer retain() {
+        int r;
+        do {
+            r = refs.get();
+            if (0 >= r)
+                throw new IllegalStateException("Buffer already released");
+        } while (!refs.compareAndSet(r, r + 1));
+        return this;
+    }
+
+    /**
+     * Releases a reference to this buffer.
+     * 
+     * @return {@code true} if it was the last reference, and the buffer went
+     *         back to its pool, if any
+     */
+    public boolean release() {
+        int r = refs.decrementAndGet();
+        if (0 > r)
+            throw new IllegalStateException("Buffer already released");
+        if (0 != r)
+            return false;
+        if (null != pool)
+            pool.recycle(buffer);
+        return true;
+    }
+
+    public int refCnt() {
+        return refs.get();
+    }
+}
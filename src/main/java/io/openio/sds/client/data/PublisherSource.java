@@ -0,0 +1,129 @@
+package io.openio.sds.client.data;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * {@link UploadSource} consuming a reactive streams {@link Publisher}. A
+ * single buffer is requested at a time, when the previous one has been
+ * entirely read, so the publisher is driven by the upload pace.
+ *
+ *
+ */
+class PublisherSource implements UploadSource, Subscriber<ByteBuffer> {
+
+    private final Publisher<ByteBuffer> publisher;
+    private boolean subscribed = false;
+    private Subscription subscription;
+    private ByteBuffer current;
+    private boolean requested = false;
+    private boolean completed = false;
+    private Throwable failure;
+    private ByteBuffer pendingDst;
+    private CompletableFuture<Integer> pending;
+
+    PublisherSource(Publisher<ByteBuffer> publisher) {
+        this.publisher = publisher;
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        boolean subscribe = false;
+        Subscription request = null;
+        synchronized (this) {
+            if (null != pending)
+                throw new IllegalStateException("Concurrent read");
+            if (null != current && current.hasRemaining()) {
+                f.complete(transfer(dst));
+                return f;
+            }
+            if (null != failure) {
+                f.completeExceptionally(failure);
+                return f;
+            }
+            if (completed) {
+                f.complete(-1);
+                return f;
+            }
+            pending = f;
+            pendingDst = dst;
+            if (!subscribed) {
+                subscribed = subscribe = true;
+            } else if (!requested) {
+                requested = true;
+                request = subscription;
+            }
+        }
+        if (subscribe)
+            publisher.subscribe(this);
+        else if (null != request)
+            request.request(1L);
+        return f;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        synchronized (this) {
+            subscription = s;
+            requested = true;
+        }
+        s.request(1L);
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer) {
+        CompletableFuture<Integer> f;
+        int read;
+        synchronized (this) {
+            requested = false;
+            current = buffer;
+            if (null == pending)
+                return;
+            f = pending;
+            read = transfer(pendingDst);
+            pending = null;
+            pendingDst = null;
+        }
+        f.complete(read);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        CompletableFuture<Integer> f;
+        synchronized (this) {
+            failure = t;
+            f = pending;
+            pending = null;
+            pendingDst = null;
+        }
+        if (null != f)
+            f.completeExceptionally(t);
+    }
+
+    @Override
+    public void onComplete() {
+        CompletableFuture<Integer> f;
+        synchronized (this) {
+            completed = true;
+            f = pending;
+            pending = null;
+            pendingDst = null;
+        }
+        if (null != f)
+            f.complete(-1);
+    }
+
+    private int transfer(ByteBuffer dst) {
+        int n = Math.min(dst.remaining(), current.remaining());
+        ByteBuffer part = current.duplicate();
+        part.limit(part.position() + n);
+        dst.put(part);
+        current.position(current.position() + n);
+        return n;
+    }
+}
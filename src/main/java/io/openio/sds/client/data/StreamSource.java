@@ -0,0 +1,54 @@
+package io.openio.sds.client.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link UploadSource} running blocking {@link InputStream} reads with an
+ * executor. A thread is only held for the duration of a single read.
+ *
+ *
+ */
+class StreamSource implements UploadSource {
+
+    private final InputStream in;
+    private final Executor executor;
+    private ReadableByteChannel channel;
+
+    StreamSource(InputStream in, Executor executor) {
+        this.in = in;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Integer> read(ByteBuffer dst) {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        executor.execute(() -> {
+            try {
+                f.complete(readNow(dst));
+            } catch (Throwable t) {
+                f.completeExceptionally(t);
+            }
+        });
+        return f;
+    }
+
+    private int readNow(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int read = in.read(dst.array(), dst.arrayOffset() + dst.position(),
+                    dst.remaining());
+            if (0 < read)
+                dst.position(dst.position() + read);
+            return read;
+        }
+        // direct buffers could only be filled through a copy
+        if (null == channel)
+            channel = Channels.newChannel(in);
+        return channel.read(dst);
+    }
+}
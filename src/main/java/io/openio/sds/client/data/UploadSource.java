@@ -0,0 +1,111 @@
+package io.openio.sds.client.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * Asynchronous source of the data of an object to upload.
+ * <p>
+ * The source is read sequentially, one read at a time: a new read is only
+ * requested once the previous one is completed. Reads should not block the
+ * calling thread, which may be an I/O event loop thread.
+ *
+ *
+ */
+public interface UploadSource {
+
+    /**
+     * Reads a sequence of bytes from this source into the specified buffer.
+     * 
+     * @param dst
+     *            the buffer to fill, from its position to its limit
+     * @return a future which handles the number of bytes read, possibly 0, or
+     *         -1 if the end of the source has been reached
+     */
+    public CompletableFuture<Integer> read(ByteBuffer dst);
+
+    /**
+     * Returns a new source reading the data of this one again, from the
+     * specified offset. It allows to upload a chunk again when its upload
+     * failed, without restarting the whole object.
+     * 
+     * @param offset
+     *            the offset of the first byte to read, from the start of this
+     *            source
+     * @return the new source, or {@code null} if the data cannot be read
+     *         again, which is the default
+     */
+    public default UploadSource reread(long offset) {
+        return null;
+    }
+
+    /**
+     * Creates a source reading the specified channel from the specified
+     * position. Reads complete from the channel thread pool. The source can
+     * be read again.
+     * 
+     * @param channel
+     *            the channel to read
+     * @param position
+     *            the position of the first byte to read
+     * @return the source
+     */
+    public static UploadSource fromChannel(AsynchronousFileChannel channel,
+            long position) {
+        checkArgument(null != channel, "channel cannot be null");
+        checkArgument(0 <= position, "Invalid position");
+        return new ChannelSource(channel, position);
+    }
+
+    /**
+     * Creates a source reading the specified buffer, from its position to its
+     * limit. Reads complete at once. The source can be read again.
+     * 
+     * @param data
+     *            the buffer to read, which is not modified
+     * @return the source
+     */
+    public static UploadSource fromBuffer(ByteBuffer data) {
+        checkArgument(null != data, "data cannot be null");
+        return new BufferSource(data.duplicate(), 0L);
+    }
+
+    /**
+     * Creates a source consuming the specified publisher. The publisher is
+     * subscribed on first read and each buffer is requested when the previous
+     * one has been consumed.
+     * 
+     * @param publisher
+     *            the publisher of data
+     * @return the source
+     */
+    public static UploadSource fromPublisher(
+            Publisher<ByteBuffer> publisher) {
+        checkArgument(null != publisher, "publisher cannot be null");
+        return new PublisherSource(publisher);
+    }
+
+    /**
+     * Creates a source reading the specified {@code InputStream}. As
+     * {@code InputStream} reads are blocking, each read is run with the
+     * specified executor.
+     * 
+     * @param in
+     *            the stream to read
+     * @param executor
+     *            the executor running the reads
+     * @return the source
+     */
+    public static UploadSource fromStream(InputStream in, Executor executor) {
+        checkArgument(null != in, "InputStream cannot be null");
+        checkArgument(null != executor, "executor cannot be null");
+        return new StreamSource(in, executor);
+    }
+}
@@ -0,0 +1,40 @@
+package io.openio.sds.client.request;
+
+import java.util.List;
+import java.util.Map;
+
+import io.openio.sds.models.ChunkInfo;
+
+/**
+ * Body of a content creation which also sets the content properties, and of
+ * the properties of a content
+ *
+ *
+ */
+public class ContentRequest {
+
+	private List<ChunkInfo> chunks;
+	private Map<String, String> properties;
+
+	public ContentRequest() {
+
+	}
+
+	public List<ChunkInfo> chunks() {
+		return chunks;
+	}
+
+	public ContentRequest chunks(List<ChunkInfo> chunks) {
+		this.chunks = chunks;
+		return this;
+	}
+
+	public Map<String, String> properties() {
+		return properties;
+	}
+
+	public ContentRequest properties(Map<String, String> properties) {
+		this.properties = properties;
+		return this;
+	}
+}
@@ -1,5 +1,7 @@
 package io.openio.sds.client.settings;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * 
  *
@@ -7,10 +9,20 @@ package io.openio.sds.client.settings;
  */
 public class ProxySettings {
 
+    public static final int DEFAULT_BEAN_POOL_DEPTH = 0;
+    public static final int DEFAULT_BEAN_POOL_CAPACITY = 1024;
+    public static final long DEFAULT_BEAN_POOL_TTL = 30000L;
+    public static final long DEFAULT_BEAN_POOL_MAX_OBJECT_SIZE = 1048576L;
+
     private String url;
 
     private String ns;
 
+    private int beanPoolDepth = DEFAULT_BEAN_POOL_DEPTH;
+    private int beanPoolCapacity = DEFAULT_BEAN_POOL_CAPACITY;
+    private long beanPoolTtl = DEFAULT_BEAN_POOL_TTL;
+    private long beanPoolMaxObjectSize = DEFAULT_BEAN_POOL_MAX_OBJECT_SIZE;
+
     public String url() {
         return url;
     }
@@ -26,4 +38,79 @@ public class ProxySettings {
         this.ns = ns;
         return this;
     }
+
+    public int beanPoolDepth() {
+        return beanPoolDepth;
+    }
+
+    /**
+     * Defines the number of chunk locations kept prepared for each container
+     * and size class, so that the uploads of small objects do not wait for
+     * their chunks to be prepared. The pool is disabled by default.
+     * 
+     * @param beanPoolDepth
+     *            the number of prepared locations, {@code 0} to disable the
+     *            pool
+     * @return this
+     */
+    public ProxySettings beanPoolDepth(int beanPoolDepth) {
+        checkArgument(0 <= beanPoolDepth, "Invalid bean pool depth");
+        this.beanPoolDepth = beanPoolDepth;
+        return this;
+    }
+
+    public int beanPoolCapacity() {
+        return beanPoolCapacity;
+    }
+
+    /**
+     * Defines the maximum number of chunk locations held by the pool, for all
+     * the containers, including the ones being prepared.
+     * 
+     * @param beanPoolCapacity
+     *            the maximum number of locations
+     * @return this
+     */
+    public ProxySettings beanPoolCapacity(int beanPoolCapacity) {
+        checkArgument(0 <= beanPoolCapacity, "Invalid bean pool capacity");
+        this.beanPoolCapacity = beanPoolCapacity;
+        return this;
+    }
+
+    public long beanPoolTtl() {
+        return beanPoolTtl;
+    }
+
+    /**
+     * Defines how long prepared chunk locations remain in the pool. Older
+     * ones are discarded, as the services they point to may be gone.
+     * 
+     * @param beanPoolTtl
+     *            the time to live in milliseconds
+     * @return this
+     */
+    public ProxySettings beanPoolTtl(long beanPoolTtl) {
+        checkArgument(0 < beanPoolTtl, "Invalid bean pool TTL");
+        this.beanPoolTtl = beanPoolTtl;
+        return this;
+    }
+
+    public long beanPoolMaxObjectSize() {
+        return beanPoolMaxObjectSize;
+    }
+
+    /**
+     * Defines the size of the biggest objects whose chunks are taken from the
+     * pool. Bigger objects always prepare their own chunks.
+     * 
+     * @param beanPoolMaxObjectSize
+     *            the maximum object size in bytes
+     * @return this
+     */
+    public ProxySettings beanPoolMaxObjectSize(long beanPoolMaxObjectSize) {
+        checkArgument(0 <= beanPoolMaxObjectSize,
+                "Invalid bean pool max object size");
+        this.beanPoolMaxObjectSize = beanPoolMaxObjectSize;
+        return this;
+    }
 }
@@ -1,5 +1,13 @@
 package io.openio.sds.client.settings;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.zip.Deflater;
+
+import javax.crypto.SecretKey;
+
+import io.openio.sds.common.Compression;
+
 /**
  * 
  *
@@ -8,10 +16,759 @@ package io.openio.sds.client.settings;
 public class RawxSettings {
 
     public static final int DEFAULT_BUFSIZE = 32768;
-    
+    public static final int DEFAULT_UPLOAD_WINDOW = 1;
+    public static final int DEFAULT_MAX_INFLIGHT_POSITIONS = 64;
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 256;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 5 * DEFAULT_BUFSIZE;
+    public static final long DEFAULT_FEED_TIMEOUT = 30000L;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = -1;
+    public static final int DEFAULT_IDLE_TIMEOUT = 60000;
+    public static final int DEFAULT_WARMUP_CONNECTIONS = 0;
+    public static final long DEFAULT_STRAGGLER_GRACE = 5000L;
+    public static final int DEFAULT_CHUNK_RETRIES = 1;
+    public static final int DEFAULT_SMALL_OBJECT_SIZE = 65536;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    public static final int DEFAULT_WORKERS = 20;
+    public static final int DEFAULT_MAX_QUEUED_TASKS = 1024;
+    public static final long DEFAULT_TUNING_INTERVAL = 5000L;
+    public static final int DEFAULT_MIN_TUNED_BUFSIZE = 8192;
+    public static final int DEFAULT_MAX_TUNED_BUFSIZE = 1048576;
+    public static final int DEFAULT_MIN_TUNED_POSITIONS = 4;
+    public static final int DEFAULT_MAX_TUNED_POSITIONS = 256;
+    public static final int DEFAULT_MIN_TUNED_WORKERS = 2;
+    public static final int DEFAULT_MAX_TUNED_WORKERS = 64;
+    public static final int DEFAULT_DOWNLOAD_WINDOW = 4;
+    public static final long DEFAULT_MAX_PREFETCH_BYTES = 64L << 20;
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 262144;
+    public static final int DEFAULT_HEDGE_BUDGET = 5;
+
     private int bufsize = DEFAULT_BUFSIZE;
-    
+    private int uploadWindow = DEFAULT_UPLOAD_WINDOW;
+    private int maxInflightPositions = DEFAULT_MAX_INFLIGHT_POSITIONS;
+    private int maxPooledBuffers = DEFAULT_MAX_POOLED_BUFFERS;
+    private boolean directBuffers = false;
+    private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private long feedTimeout = DEFAULT_FEED_TIMEOUT;
+    private boolean keepAlive = true;
+    private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private int warmupConnections = DEFAULT_WARMUP_CONNECTIONS;
+    private boolean mappedFileUploads = false;
+    private boolean verifyChunkHashes = true;
+    private int writeQuorum = 0;
+    private long stragglerGrace = DEFAULT_STRAGGLER_GRACE;
+    private int chunkRetries = DEFAULT_CHUNK_RETRIES;
+    private int smallObjectSize = DEFAULT_SMALL_OBJECT_SIZE;
+    private Compression compression = Compression.NONE;
+    private int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    private SecretKey encryptionKey;
+    private int workers = DEFAULT_WORKERS;
+    private int maxQueuedTasks = DEFAULT_MAX_QUEUED_TASKS;
+    private boolean tuning = false;
+    private long tuningInterval = DEFAULT_TUNING_INTERVAL;
+    private int minTunedBufsize = DEFAULT_MIN_TUNED_BUFSIZE;
+    private int maxTunedBufsize = DEFAULT_MAX_TUNED_BUFSIZE;
+    private int minTunedPositions = DEFAULT_MIN_TUNED_POSITIONS;
+    private int maxTunedPositions = DEFAULT_MAX_TUNED_POSITIONS;
+    private int minTunedWorkers = DEFAULT_MIN_TUNED_WORKERS;
+    private int maxTunedWorkers = DEFAULT_MAX_TUNED_WORKERS;
+    private int downloadWindow = DEFAULT_DOWNLOAD_WINDOW;
+    private long maxPrefetchBytes = DEFAULT_MAX_PREFETCH_BYTES;
+    private int streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+    private boolean hedging = false;
+    private long hedgeDelay = 0L;
+    private int hedgeBudget = DEFAULT_HEDGE_BUDGET;
+    private boolean clientErasureCoding = false;
+
     public int bufsize(){
         return bufsize;
     }
+
+    /**
+     * Defines the size of the buffers the uploaded data is read into, which
+     * is also the size of the largest write to a chunk.
+     * 
+     * @param bufsize
+     *            the size in bytes
+     * @return this
+     */
+    public RawxSettings bufsize(int bufsize) {
+        checkArgument(0 < bufsize, "Invalid buffer size");
+        this.bufsize = bufsize;
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of positions of a single object which could
+     * be uploaded at the same time.
+     * 
+     * @return the upload window
+     */
+    public int uploadWindow() {
+        return uploadWindow;
+    }
+
+    /**
+     * Defines the maximum number of positions of a single object which could
+     * be uploaded at the same time. When uploading from an
+     * {@code InputStream}, the next position starts to be read as soon as the
+     * previous one has been fully read, without waiting for its chunks to be
+     * acknowledged, while the window is not full. When uploading a file, the
+     * next position starts as soon as one of the window completes.
+     * {@code 1}, the default, means positions are uploaded one after the
+     * other.
+     * 
+     * @param uploadWindow
+     *            the number of positions in flight, at least 1
+     * @return this
+     */
+    public RawxSettings uploadWindow(int uploadWindow) {
+        checkArgument(0 < uploadWindow, "Invalid upload window");
+        this.uploadWindow = uploadWindow;
+        return this;
+    }
+
+    public int maxInflightPositions() {
+        return maxInflightPositions;
+    }
+
+    /**
+     * Defines the maximum number of positions uploaded at the same time by a
+     * client, all objects included. Each position opens a connection per copy
+     * of its chunk. Positions over the limit wait for a running one to
+     * complete. {@code 0} means no limit. The positions written through an
+     * {@link io.openio.sds.client.ObjectUploadStream} are paced by their
+     * writer, so they are only bound by the upload window of their object.
+     * 
+     * @param maxInflightPositions
+     *            the number of positions
+     * @return this
+     */
+    public RawxSettings maxInflightPositions(int maxInflightPositions) {
+        checkArgument(0 <= maxInflightPositions, "Invalid positions number");
+        this.maxInflightPositions = maxInflightPositions;
+        return this;
+    }
+
+    public int maxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    /**
+     * Defines the maximum number of idle read buffers kept for reuse. Each
+     * buffer is {@link #bufsize()} bytes long.
+     * 
+     * @param maxPooledBuffers
+     *            the number of pooled buffers
+     * @return this
+     */
+    public RawxSettings maxPooledBuffers(int maxPooledBuffers) {
+        checkArgument(0 <= maxPooledBuffers, "Invalid pool size");
+        this.maxPooledBuffers = maxPooledBuffers;
+        return this;
+    }
+
+    public boolean directBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * Defines if the read buffers should be allocated outside of the java
+     * heap
+     * 
+     * @param directBuffers
+     *            {@code true} to use direct buffers
+     * @return this
+     */
+    public RawxSettings directBuffers(boolean directBuffers) {
+        this.directBuffers = directBuffers;
+        return this;
+    }
+
+    public long maxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Defines the maximum number of bytes read ahead and not yet sent, for
+     * each copy of a chunk being uploaded. The reader waits for the slowest
+     * copy when this amount is reached.
+     * 
+     * @param maxQueuedBytes
+     *            the number of bytes
+     * @return this
+     */
+    public RawxSettings maxQueuedBytes(long maxQueuedBytes) {
+        checkArgument(0 < maxQueuedBytes, "Invalid queue size");
+        this.maxQueuedBytes = maxQueuedBytes;
+        return this;
+    }
+
+    public long feedTimeout() {
+        return feedTimeout;
+    }
+
+    /**
+     * Defines how long the reader waits for a chunk upload to make room in
+     * its queue before failing the upload, in milliseconds. {@code 0} means
+     * it waits indefinitely.
+     * 
+     * @param feedTimeout
+     *            the timeout in milliseconds
+     * @return this
+     */
+    public RawxSettings feedTimeout(long feedTimeout) {
+        checkArgument(0 <= feedTimeout, "Invalid feed timeout");
+        this.feedTimeout = feedTimeout;
+        return this;
+    }
+
+    public boolean keepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Defines if the connections used to upload chunks are kept open and
+     * reused by the next uploads to the same rawx service, instead of being
+     * closed after each chunk.
+     * 
+     * @param keepAlive
+     *            {@code false} to close the connection after each chunk
+     * @return this
+     */
+    public RawxSettings keepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public int maxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Defines the maximum number of connections opened to a single host,
+     * {@code -1} meaning no limit. Requests needing a new connection once the
+     * limit is reached fail instead of waiting, so the limit should be higher
+     * than the number of chunks uploaded at the same time to a host.
+     * <p>
+     * Only applies when the client builds its own {@code AsyncHttpClient}.
+     * 
+     * @param maxConnectionsPerHost
+     *            the number of connections, or {@code -1}
+     * @return this
+     */
+    public RawxSettings maxConnectionsPerHost(int maxConnectionsPerHost) {
+        checkArgument(0 < maxConnectionsPerHost || -1 == maxConnectionsPerHost,
+                "Invalid connections number");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    public int idleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Defines how long an idle pooled connection is kept open before being
+     * closed, in milliseconds.
+     * <p>
+     * Only applies when the client builds its own {@code AsyncHttpClient}.
+     * 
+     * @param idleTimeout
+     *            the timeout in milliseconds
+     * @return this
+     */
+    public RawxSettings idleTimeout(int idleTimeout) {
+        checkArgument(0 < idleTimeout, "Invalid idle timeout");
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public int warmupConnections() {
+        return warmupConnections;
+    }
+
+    /**
+     * Defines the number of connections opened to each rawx service when the
+     * client is warmed up, so the first uploads do not pay the connection
+     * setup.
+     * 
+     * @param warmupConnections
+     *            the number of connections per service
+     * @return this
+     */
+    public RawxSettings warmupConnections(int warmupConnections) {
+        checkArgument(0 <= warmupConnections, "Invalid connections number");
+        this.warmupConnections = warmupConnections;
+        return this;
+    }
+
+    public boolean mappedFileUploads() {
+        return mappedFileUploads;
+    }
+
+    /**
+     * Defines how files are uploaded. By default, each copy of a chunk is sent
+     * straight from the file by the transport, with {@code sendfile} where
+     * available, so the file is read once per copy. When enabled, the range
+     * of each position is mapped in memory once and the same region is sent
+     * to all the copies.
+     * 
+     * @param mappedFileUploads
+     *            {@code true} to read the file once for all the copies
+     * @return this
+     */
+    public RawxSettings mappedFileUploads(boolean mappedFileUploads) {
+        this.mappedFileUploads = mappedFileUploads;
+        return this;
+    }
+
+    public boolean verifyChunkHashes() {
+        return verifyChunkHashes;
+    }
+
+    /**
+     * Defines if the MD5 of each chunk is computed while uploading it, and
+     * checked against the hash returned by the rawx services before the
+     * object is committed.
+     * 
+     * @param verifyChunkHashes
+     *            {@code false} to trust the rawx services
+     * @return this
+     */
+    public RawxSettings verifyChunkHashes(boolean verifyChunkHashes) {
+        this.verifyChunkHashes = verifyChunkHashes;
+        return this;
+    }
+
+    public int writeQuorum() {
+        return writeQuorum;
+    }
+
+    /**
+     * Defines the number of copies of a replicated chunk which must be
+     * acknowledged for its position to complete, {@code 0} meaning all of
+     * them. The other copies get {@link #stragglerGrace()} to complete, then
+     * they are aborted, left out of the committed object, and listed by
+     * {@code ObjectInfo#underReplicated()}. Erasure coded positions always
+     * need all their fragments.
+     * 
+     * @param writeQuorum
+     *            the number of copies, or {@code 0}
+     * @return this
+     */
+    public RawxSettings writeQuorum(int writeQuorum) {
+        checkArgument(0 <= writeQuorum, "Invalid write quorum");
+        this.writeQuorum = writeQuorum;
+        return this;
+    }
+
+    public long stragglerGrace() {
+        return stragglerGrace;
+    }
+
+    /**
+     * Defines how long the copies of a chunk which are not part of the write
+     * quorum may go on once the quorum is reached, in milliseconds. It also
+     * bounds how long the reader waits for a slow copy to make room in its
+     * queue while the quorum of copies are ready.
+     * 
+     * @param stragglerGrace
+     *            the grace period in milliseconds
+     * @return this
+     */
+    public RawxSettings stragglerGrace(long stragglerGrace) {
+        checkArgument(0 <= stragglerGrace, "Invalid grace period");
+        this.stragglerGrace = stragglerGrace;
+        return this;
+    }
+
+    public int chunkRetries() {
+        return chunkRetries;
+    }
+
+    /**
+     * Defines how many times the upload of a single chunk is started again on
+     * a spare chunk when it fails, before failing the upload. The positions
+     * already uploaded are kept. Only files and sources which can be read
+     * again, like file channels, allow it: chunks uploaded from an
+     * {@code InputStream} are not retried.
+     * 
+     * @param chunkRetries
+     *            the number of retries per chunk, {@code 0} to disable them
+     * @return this
+     */
+    public RawxSettings chunkRetries(int chunkRetries) {
+        checkArgument(0 <= chunkRetries, "Invalid retries number");
+        this.chunkRetries = chunkRetries;
+        return this;
+    }
+
+    public int smallObjectSize() {
+        return smallObjectSize;
+    }
+
+    /**
+     * Defines the size up to which an object is loaded in memory while its
+     * chunks are prepared, instead of being read once they are known. The
+     * chunks are then sent straight from memory, so that the upload of a
+     * small object mostly costs its three round trips. Use {@code 0} to read
+     * all objects from their source after the prepare.
+     * 
+     * @param smallObjectSize
+     *            the maximum size in bytes of the objects loaded in memory
+     * @return this
+     */
+    public RawxSettings smallObjectSize(int smallObjectSize) {
+        checkArgument(0 <= smallObjectSize, "Invalid small object size");
+        this.smallObjectSize = smallObjectSize;
+        return this;
+    }
+
+    public Compression compression() {
+        return compression;
+    }
+
+    /**
+     * Defines the codec compressing the chunks of the uploaded objects. Each
+     * chunk is compressed on its own while it is streamed, and the codec is
+     * recorded in the object properties, so that downloads decompress it
+     * transparently. Erasure coded contents are not compressed.
+     * 
+     * @param compression
+     *            the codec, {@link Compression#NONE} by default
+     * @return this
+     */
+    public RawxSettings compression(Compression compression) {
+        checkArgument(null != compression, "Invalid compression");
+        this.compression = compression;
+        return this;
+    }
+
+    public int compressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Defines the level of the compression, from {@code 1} for the fastest to
+     * {@code 9} for the smallest chunks.
+     * 
+     * @param compressionLevel
+     *            the compression level
+     * @return this
+     */
+    public RawxSettings compressionLevel(int compressionLevel) {
+        checkArgument(Deflater.BEST_SPEED <= compressionLevel
+                && Deflater.BEST_COMPRESSION >= compressionLevel,
+                "Invalid compression level");
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public SecretKey encryptionKey() {
+        return encryptionKey;
+    }
+
+    /**
+     * Defines the key encrypting the chunks of the uploaded objects, and
+     * decrypting the chunks of the downloaded ones. Each chunk is encrypted on
+     * its own with AES-GCM, so that the positions of a file are encrypted on
+     * several cores at once. The chunks are cut in records of 64 KiB, each
+     * authenticated on its own, which downloads release as they come. Erasure
+     * coded contents are not encrypted.
+     * 
+     * @param encryptionKey
+     *            an AES key, {@code null} by default to disable encryption
+     * @return this
+     */
+    public RawxSettings encryptionKey(SecretKey encryptionKey) {
+        checkArgument(null == encryptionKey
+                || "AES".equals(encryptionKey.getAlgorithm()),
+                "Invalid encryption key");
+        this.encryptionKey = encryptionKey;
+        return this;
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    /**
+     * Defines the number of threads reading the uploaded streams, and
+     * encrypting the uploaded chunks.
+     * 
+     * @param workers
+     *            the number of threads
+     * @return this
+     */
+    public RawxSettings workers(int workers) {
+        checkArgument(0 < workers, "Invalid workers number");
+        this.workers = workers;
+        return this;
+    }
+
+    public int maxQueuedTasks() {
+        return maxQueuedTasks;
+    }
+
+    /**
+     * Defines the number of tasks waiting for a free worker. Once they are
+     * queued, a new task waits for a queued one to start, which slows the
+     * uploads down until the workers catch up. A task never runs on the
+     * thread submitting it, which may be an I/O event loop thread.
+     * 
+     * @param maxQueuedTasks
+     *            the number of tasks
+     * @return this
+     */
+    public RawxSettings maxQueuedTasks(int maxQueuedTasks) {
+        checkArgument(0 < maxQueuedTasks, "Invalid queued tasks number");
+        this.maxQueuedTasks = maxQueuedTasks;
+        return this;
+    }
+
+    public boolean tuning() {
+        return tuning;
+    }
+
+    /**
+     * Defines if the client adjusts its {@link #bufsize()}, its
+     * {@link #maxInflightPositions()} and its {@link #workers()} to the
+     * throughput and the latency of the chunk uploads, within the tuned
+     * bounds. The configured values are the starting points, and the
+     * decisions are exposed by {@code RawxClient#tuner()}.
+     * 
+     * @param tuning
+     *            {@code true} to enable the tuning
+     * @return this
+     */
+    public RawxSettings tuning(boolean tuning) {
+        this.tuning = tuning;
+        return this;
+    }
+
+    public long tuningInterval() {
+        return tuningInterval;
+    }
+
+    /**
+     * Defines how long the chunk uploads are measured before each tuning
+     * decision, in milliseconds.
+     * 
+     * @param tuningInterval
+     *            the interval in milliseconds
+     * @return this
+     */
+    public RawxSettings tuningInterval(long tuningInterval) {
+        checkArgument(0 < tuningInterval, "Invalid tuning interval");
+        this.tuningInterval = tuningInterval;
+        return this;
+    }
+
+    public int minTunedBufsize() {
+        return minTunedBufsize;
+    }
+
+    public RawxSettings minTunedBufsize(int minTunedBufsize) {
+        checkArgument(0 < minTunedBufsize, "Invalid buffer size");
+        this.minTunedBufsize = minTunedBufsize;
+        return this;
+    }
+
+    public int maxTunedBufsize() {
+        return maxTunedBufsize;
+    }
+
+    public RawxSettings maxTunedBufsize(int maxTunedBufsize) {
+        checkArgument(0 < maxTunedBufsize, "Invalid buffer size");
+        this.maxTunedBufsize = maxTunedBufsize;
+        return this;
+    }
+
+    public int minTunedPositions() {
+        return minTunedPositions;
+    }
+
+    /**
+     * Defines the lowest {@link #maxInflightPositions()} the tuning may set.
+     * Without a limit of positions in flight, it is not tuned.
+     * 
+     * @param minTunedPositions
+     *            the number of positions
+     * @return this
+     */
+    public RawxSettings minTunedPositions(int minTunedPositions) {
+        checkArgument(0 < minTunedPositions, "Invalid positions number");
+        this.minTunedPositions = minTunedPositions;
+        return this;
+    }
+
+    public int maxTunedPositions() {
+        return maxTunedPositions;
+    }
+
+    public RawxSettings maxTunedPositions(int maxTunedPositions) {
+        checkArgument(0 < maxTunedPositions, "Invalid positions number");
+        this.maxTunedPositions = maxTunedPositions;
+        return this;
+    }
+
+    public int minTunedWorkers() {
+        return minTunedWorkers;
+    }
+
+    public RawxSettings minTunedWorkers(int minTunedWorkers) {
+        checkArgument(0 < minTunedWorkers, "Invalid workers number");
+        this.minTunedWorkers = minTunedWorkers;
+        return this;
+    }
+
+    public int maxTunedWorkers() {
+        return maxTunedWorkers;
+    }
+
+    public RawxSettings maxTunedWorkers(int maxTunedWorkers) {
+        checkArgument(0 < maxTunedWorkers, "Invalid workers number");
+        this.maxTunedWorkers = maxTunedWorkers;
+        return this;
+    }
+
+    public int downloadWindow() {
+        return downloadWindow;
+    }
+
+    /**
+     * Defines the maximum number of positions of a single object which could
+     * be downloaded at the same time. The positions after the one being read
+     * are kept in memory until the listener gets their data, in order.
+     * {@code 1} means positions are downloaded one after the other.
+     * 
+     * @param downloadWindow
+     *            the number of positions in flight, at least 1
+     * @return this
+     */
+    public RawxSettings downloadWindow(int downloadWindow) {
+        checkArgument(0 < downloadWindow, "Invalid download window");
+        this.downloadWindow = downloadWindow;
+        return this;
+    }
+
+    public long maxPrefetchBytes() {
+        return maxPrefetchBytes;
+    }
+
+    /**
+     * Defines the maximum number of bytes kept in memory by a download for
+     * the positions after the one being read. A position only starts ahead
+     * when its whole data fits, otherwise it waits for its turn.
+     * 
+     * @param maxPrefetchBytes
+     *            the number of bytes
+     * @return this
+     */
+    public RawxSettings maxPrefetchBytes(long maxPrefetchBytes) {
+        checkArgument(0 <= maxPrefetchBytes, "Invalid prefetch size");
+        this.maxPrefetchBytes = maxPrefetchBytes;
+        return this;
+    }
+
+    public int streamBufferSize() {
+        return streamBufferSize;
+    }
+
+    /**
+     * Defines the number of bytes an object stream receives ahead of its
+     * reader. Once they are received, the connection to the rawx service is
+     * not read anymore until the reader catches up.
+     * 
+     * @param streamBufferSize
+     *            the number of bytes
+     * @return this
+     */
+    public RawxSettings streamBufferSize(int streamBufferSize) {
+        checkArgument(0 < streamBufferSize, "Invalid stream buffer size");
+        this.streamBufferSize = streamBufferSize;
+        return this;
+    }
+
+    public boolean hedging() {
+        return hedging;
+    }
+
+    /**
+     * Defines if the chunk downloads are hedged: when the first byte of a
+     * chunk is not received after {@link #hedgeDelay()}, the chunk is
+     * requested from another copy as well, and the first copy answering is
+     * read while the other request is cancelled. Erasure coded objects are
+     * not hedged.
+     * 
+     * @param hedging
+     *            {@code true} to enable the hedged reads
+     * @return this
+     */
+    public RawxSettings hedging(boolean hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    public long hedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Defines how long to wait for the first byte of a chunk before another
+     * copy is requested, in milliseconds. {@code 0} means the 95th percentile
+     * of the last delays measured, no chunk being hedged until enough of
+     * them are known.
+     * 
+     * @param hedgeDelay
+     *            the delay in milliseconds, or {@code 0}
+     * @return this
+     */
+    public RawxSettings hedgeDelay(long hedgeDelay) {
+        checkArgument(0 <= hedgeDelay, "Invalid hedge delay");
+        this.hedgeDelay = hedgeDelay;
+        return this;
+    }
+
+    public int hedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * Defines the maximum number of hedged requests, as a percentage of the
+     * chunks read, hedges and retries aside, so that hedging never doubles
+     * the load of a cluster which is slow as a whole.
+     * 
+     * @param hedgeBudget
+     *            the percentage, from 0 to 100
+     * @return this
+     */
+    public RawxSettings hedgeBudget(int hedgeBudget) {
+        checkArgument(0 <= hedgeBudget && 100 >= hedgeBudget,
+                "Invalid hedge budget");
+        this.hedgeBudget = hedgeBudget;
+        return this;
+    }
+
+    public boolean clientErasureCoding() {
+        return clientErasureCoding;
+    }
+
+    /**
+     * Defines if erasure coded contents are encoded by this client. Its
+     * fragments are raw Reed-Solomon cells, which are not compatible with
+     * liberasurecode, so the contents are written with their own chunk
+     * method, {@code ec/algo=oio_java_rs_vand}, and could only be read by
+     * this client. When disabled, the default, uploading an erasure coded
+     * content fails.
+     * 
+     * @param clientErasureCoding
+     *            {@code true} to encode erasure coded contents on upload
+     * @return this
+     */
+    public RawxSettings clientErasureCoding(boolean clientErasureCoding) {
+        this.clientErasureCoding = clientErasureCoding;
+        return this;
+    }
 }
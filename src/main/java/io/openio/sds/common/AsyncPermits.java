@@ -0,0 +1,126 @@
+package io.openio.sds.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Counting semaphore which never blocks: acquiring returns a future completed
+ * once a permit is granted. Waiters are granted permits in order.
+ *
+ *
+ */
+public class AsyncPermits {
+
+    private static final CompletableFuture<Void> GRANTED = CompletableFuture
+            .completedFuture(null);
+
+    private final boolean unlimited;
+    private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int permits;
+    private int available;
+
+    /**
+     * @param permits
+     *            the number of permits, {@code 0} or less meaning no limit
+     */
+    public AsyncPermits(int permits) {
+        this.unlimited = 0 >= permits;
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    /**
+     * Acquires a permit
+     *
+     * @return a future completed when the permit is granted. Cancelling it
+     *         gives up waiting.
+     */
+    public CompletableFuture<Void> acquire() {
+        if (unlimited)
+            return GRANTED;
+        synchronized (this) {
+            if (0 < available) {
+                available--;
+                return GRANTED;
+            }
+            CompletableFuture<Void> f = new CompletableFuture<Void>();
+            waiters.add(f);
+            return f;
+        }
+    }
+
+    /**
+     * Releases a permit, granting it to the oldest waiter if any
+     */
+    public void release() {
+        if (unlimited)
+            return;
+        for (;;) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                // permits removed by a resize are taken back first
+                if (0 > available) {
+                    available++;
+                    return;
+                }
+                next = waiters.poll();
+                if (null == next) {
+                    available++;
+                    return;
+                }
+            }
+            // completed outside the lock, it may start the next upload
+            if (next.complete(null))
+                return;
+        }
+    }
+
+    /**
+     * Changes the number of permits. Added permits are granted to the waiters
+     * at once, while removed ones are taken back as they are released.
+     * 
+     * @param permits
+     *            the new number of permits, at least 1
+     */
+    public void resize(int permits) {
+        checkState(!unlimited, "Unlimited permits cannot be resized");
+        checkArgument(0 < permits, "Invalid permits number");
+        synchronized (this) {
+            available += permits - this.permits;
+            this.permits = permits;
+        }
+        for (;;) {
+            CompletableFuture<Void> next;
+            synchronized (this) {
+                if (0 >= available)
+                    return;
+                next = waiters.poll();
+                if (null == next)
+                    return;
+                available--;
+            }
+            // the waiter gave up, its permit is kept
+            if (!next.complete(null)) {
+                synchronized (this) {
+                    available++;
+                }
+            }
+        }
+    }
+
+    public synchronized int permits() {
+        return permits;
+    }
+
+    public synchronized int available() {
+        return available;
+    }
+
+    public synchronized int waiting() {
+        return waiters.size();
+    }
+}
@@ -0,0 +1,43 @@
+package io.openio.sds.common;
+
+/**
+ * Codecs which could compress the chunks of an object, by the name recorded
+ * in the object properties.
+ *
+ *
+ */
+public enum Compression {
+
+    DEFLATE("deflate"),
+    NONE("none");
+
+    private final String sdsName;
+
+    private Compression(String sdsName) {
+        this.sdsName = sdsName;
+    }
+
+    /**
+     * Returns the codec with the specified name. A missing name means
+     * {@link #NONE}.
+     *
+     * @param name
+     *            the name of the codec, as recorded in the object properties
+     * @return the matching codec
+     * @throws IllegalArgumentException
+     *             if the codec is unknown, as the data could not be read
+     */
+    public static Compression of(String name) {
+        if (null == name || name.isEmpty())
+            return NONE;
+        for (Compression c : values()) {
+            if (c.sdsName.equalsIgnoreCase(name))
+                return c;
+        }
+        throw new IllegalArgumentException("Unknown compression " + name);
+    }
+
+    public String sdsName() {
+        return sdsName;
+    }
+}
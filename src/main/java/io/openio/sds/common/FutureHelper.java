@@ -0,0 +1,59 @@
+package io.openio.sds.common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 
+ *
+ *
+ */
+public class FutureHelper {
+
+    /**
+     * Returns a future completed as the specified one, or failed with a
+     * {@link TimeoutException} if it is not completed after the specified
+     * delay.
+     * 
+     * @param f
+     *            the future to watch
+     * @param timeout
+     *            the delay in milliseconds, {@code 0} means no timeout
+     * @param timer
+     *            the scheduler of the timeout
+     * @return the future
+     */
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> f,
+            long timeout, ScheduledExecutorService timer) {
+        if (0 == timeout || f.isDone())
+            return f;
+        CompletableFuture<T> res = new CompletableFuture<T>();
+        ScheduledFuture<?> task = timer.schedule(
+                () -> res.completeExceptionally(new TimeoutException(
+                        String.format("Timeout after %d ms", timeout))),
+                timeout, TimeUnit.MILLISECONDS);
+        f.whenComplete((v, t) -> {
+            task.cancel(false);
+            if (null == t)
+                res.complete(v);
+            else
+                res.completeExceptionally(t);
+        });
+        return res;
+    }
+
+    /**
+     * Returns the actual cause of a failure reported by a future
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException
+                || t instanceof ExecutionException) && null != t.getCause())
+            t = t.getCause();
+        return t;
+    }
+}
@@ -0,0 +1,96 @@
+package io.openio.sds.common;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Hash functions which could be used to check chunks and contents, by their
+ * OpenIO SDS name.
+ *
+ *
+ */
+public enum HashMethod {
+
+    MD5("md5", Hashing.md5()),
+    CRC32C("crc32c", Hashing.crc32c()),
+    SHA256("sha256", Hashing.sha256()),
+    NONE("none", null);
+
+    private static final int COPY_SIZE = 8192;
+
+    private final String sdsName;
+    private final HashFunction function;
+
+    private HashMethod(String sdsName, HashFunction function) {
+        this.sdsName = sdsName;
+        this.function = function;
+    }
+
+    /**
+     * Returns the method with the specified name. A missing name means the
+     * namespace default, {@link #MD5}, while an unknown one means
+     * {@link #NONE}.
+     *
+     * @param name
+     *            the name of the method, as returned by the namespace
+     * @return the matching method
+     */
+    public static HashMethod of(String name) {
+        if (null == name || name.isEmpty())
+            return MD5;
+        for (HashMethod m : values()) {
+            if (m.sdsName.equalsIgnoreCase(name))
+                return m;
+        }
+        return NONE;
+    }
+
+    public String sdsName() {
+        return sdsName;
+    }
+
+    /**
+     * @return a new hasher, or {@code null} for {@link #NONE}
+     */
+    public Hasher newHasher() {
+        return null == function ? null : function.newHasher();
+    }
+
+    /**
+     * Updates the hasher with the remaining bytes of the specified buffer,
+     * without moving its position.
+     *
+     * @param hasher
+     *            the hasher to update
+     * @param buffer
+     *            the bytes to hash
+     */
+    public static void update(Hasher hasher, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            hasher.putBytes(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+            return;
+        }
+        ByteBuffer b = buffer.duplicate();
+        byte[] copy = new byte[Math.min(COPY_SIZE, b.remaining())];
+        while (b.hasRemaining()) {
+            int n = Math.min(copy.length, b.remaining());
+            b.get(copy, 0, n);
+            hasher.putBytes(copy, 0, n);
+        }
+    }
+
+    /**
+     * @param hasher
+     *            the hasher to complete
+     * @return the hash in the format used by the namespace
+     */
+    public static String hash(Hasher hasher) {
+        return BaseEncoding.base16().encode(hasher.hash().asBytes());
+    }
+}
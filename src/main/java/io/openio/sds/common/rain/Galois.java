@@ -0,0 +1,116 @@
+package io.openio.sds.common.rain;
+
+/**
+ * Arithmetic in GF(2^8), generated by the polynomial
+ * {@code x^8 + x^4 + x^3 + x^2 + 1}.
+ * <p>
+ * Multiplications are table-driven: {@link #MUL} holds the full product table,
+ * so that multiplying a whole buffer by a constant is a lookup per byte in a
+ * single row of 256 bytes.
+ *
+ *
+ */
+final class Galois {
+
+    private static final int POLYNOMIAL = 0x11D;
+
+    static final int[] LOG = new int[256];
+    static final byte[] EXP = new byte[510];
+    static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (0 != (x & 0x100))
+                x ^= POLYNOMIAL;
+        }
+        for (int a = 0; a < 256; a++)
+            for (int b = 0; b < 256; b++)
+                MUL[a][b] = slowMul(a, b);
+    }
+
+    private Galois() {
+    }
+
+    private static byte slowMul(int a, int b) {
+        if (0 == a || 0 == b)
+            return 0;
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    static byte mul(byte a, byte b) {
+        return MUL[a & 0xFF][b & 0xFF];
+    }
+
+    static byte div(byte a, byte b) {
+        if (0 == b)
+            throw new ArithmeticException("Division by zero");
+        if (0 == a)
+            return 0;
+        return EXP[LOG[a & 0xFF] + 255 - LOG[b & 0xFF]];
+    }
+
+    static byte pow(int a, int n) {
+        if (0 == n)
+            return 1;
+        if (0 == a)
+            return 0;
+        return EXP[(LOG[a] * n) % 255];
+    }
+
+    static byte[][] multiply(byte[][] a, byte[][] b) {
+        byte[][] res = new byte[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                byte v = 0;
+                for (int i = 0; i < b.length; i++)
+                    v ^= mul(a[r][i], b[i][c]);
+                res[r][c] = v;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Inverts the specified square matrix by Gauss-Jordan elimination.
+     *
+     * @throws IllegalArgumentException
+     *             if the matrix is singular
+     */
+    static byte[][] invert(byte[][] m) {
+        int n = m.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(m[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+        for (int c = 0; c < n; c++) {
+            int pivot = c;
+            while (pivot < n && 0 == work[pivot][c])
+                pivot++;
+            if (pivot == n)
+                throw new IllegalArgumentException("Singular matrix");
+            byte[] tmp = work[pivot];
+            work[pivot] = work[c];
+            work[c] = tmp;
+            byte scale = work[c][c];
+            for (int i = 0; i < 2 * n; i++)
+                work[c][i] = div(work[c][i], scale);
+            for (int r = 0; r < n; r++) {
+                if (r == c || 0 == work[r][c])
+                    continue;
+                byte[] row = MUL[work[r][c] & 0xFF];
+                for (int i = 0; i < 2 * n; i++)
+                    work[r][i] ^= row[work[c][i] & 0xFF];
+            }
+        }
+        byte[][] res = new byte[n][n];
+        for (int r = 0; r < n; r++)
+            System.arraycopy(work[r], n, res[r], 0, n);
+        return res;
+    }
+}
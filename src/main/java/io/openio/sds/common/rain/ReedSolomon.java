@@ -0,0 +1,131 @@
+package io.openio.sds.common.rain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Systematic Reed-Solomon erasure code over GF(2^8), with {@code k} data
+ * fragments and {@code m} parity fragments. Any {@code k} of the
+ * {@code k + m} fragments are enough to rebuild the data.
+ * <p>
+ * The coding matrix is derived from a Vandermonde matrix, normalized so that
+ * its top {@code k} rows are the identity. Buffers must be backed by arrays,
+ * they are processed from their position, which is left unchanged.
+ *
+ *
+ */
+public class ReedSolomon {
+
+    private final int k;
+    private final int m;
+    private final byte[][] matrix;
+
+    public ReedSolomon(int k, int m) {
+        checkArgument(0 < k, "Invalid data fragments number");
+        checkArgument(0 <= m, "Invalid parity fragments number");
+        checkArgument(k + m <= 256, "Too many fragments");
+        this.k = k;
+        this.m = m;
+        byte[][] vandermonde = new byte[k + m][k];
+        for (int r = 0; r < k + m; r++)
+            for (int c = 0; c < k; c++)
+                vandermonde[r][c] = Galois.pow(r, c);
+        byte[][] top = new byte[k][];
+        System.arraycopy(vandermonde, 0, top, 0, k);
+        this.matrix = Galois.multiply(vandermonde, Galois.invert(top));
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    /**
+     * Computes the parity fragments of the specified data fragments.
+     *
+     * @param data
+     *            the {@code k} data fragments
+     * @param parity
+     *            the {@code m} parity fragments to fill
+     * @param len
+     *            the number of bytes of each fragment
+     */
+    public void encode(ByteBuffer[] data, ByteBuffer[] parity, int len) {
+        checkArgument(k == data.length, "Invalid data fragments");
+        checkArgument(m == parity.length, "Invalid parity fragments");
+        for (int p = 0; p < m; p++)
+            combine(matrix[k + p], data, parity[p], len);
+    }
+
+    /**
+     * Rebuilds the missing data fragments from any {@code k} available
+     * fragments.
+     *
+     * @param fragments
+     *            the {@code k + m} fragments, data ones first. Missing data
+     *            fragments are filled.
+     * @param present
+     *            which fragments are available
+     * @param len
+     *            the number of bytes of each fragment
+     * @throws IllegalArgumentException
+     *             if less than {@code k} fragments are available
+     */
+    public void decode(ByteBuffer[] fragments, boolean[] present, int len) {
+        checkArgument(k + m == fragments.length, "Invalid fragments");
+        int[] rows = new int[k];
+        int found = 0;
+        for (int i = 0; i < k + m && found < k; i++) {
+            if (present[i])
+                rows[found++] = i;
+        }
+        checkArgument(found == k, "Not enough fragments to decode");
+        boolean complete = true;
+        for (int d = 0; d < k; d++)
+            complete &= present[d];
+        if (complete)
+            return;
+        byte[][] sub = new byte[k][];
+        ByteBuffer[] inputs = new ByteBuffer[k];
+        for (int i = 0; i < k; i++) {
+            sub[i] = matrix[rows[i]];
+            inputs[i] = fragments[rows[i]];
+        }
+        byte[][] decoding = Galois.invert(sub);
+        for (int d = 0; d < k; d++) {
+            if (!present[d])
+                combine(decoding[d], inputs, fragments[d], len);
+        }
+    }
+
+    /**
+     * Sets {@code out} to the linear combination of the inputs with the
+     * specified coefficients.
+     */
+    private static void combine(byte[] coefs, ByteBuffer[] inputs,
+            ByteBuffer out, int len) {
+        checkArgument(out.hasArray() && len <= out.remaining(),
+                "Invalid output fragment");
+        byte[] o = out.array();
+        int oo = out.arrayOffset() + out.position();
+        for (int j = 0; j < inputs.length; j++) {
+            ByteBuffer in = inputs[j];
+            checkArgument(in.hasArray() && len <= in.remaining(),
+                    "Invalid input fragment");
+            byte[] a = in.array();
+            int ao = in.arrayOffset() + in.position();
+            byte[] row = Galois.MUL[coefs[j] & 0xFF];
+            if (0 == j) {
+                for (int i = 0; i < len; i++)
+                    o[oo + i] = row[a[ao + i] & 0xFF];
+            } else {
+                for (int i = 0; i < len; i++)
+                    o[oo + i] ^= row[a[ao + i] & 0xFF];
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.openio.sds.common.rain;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Layout of the data of a position across its {@code k} data fragments.
+ * <p>
+ * The data is cut in stripes of {@code k} cells of {@link #CELL_SIZE} bytes,
+ * cell {@code i} of each stripe going to fragment {@code i}. The last stripe
+ * uses smaller cells, of {@code ceil(remaining / k)} bytes, its missing bytes
+ * being zeros. The layout only depends on {@code k} and on the size of the
+ * data, so that readers could rebuild it.
+ *
+ *
+ */
+public class StripeLayout {
+
+    public static final int CELL_SIZE = 32768;
+
+    private final int k;
+    private final long size;
+    private final long stripes;
+
+    public StripeLayout(int k, long size) {
+        checkArgument(0 < k, "Invalid data fragments number");
+        checkArgument(0 <= size, "Invalid size");
+        this.k = k;
+        this.size = size;
+        this.stripes = (size + stripeSize() - 1) / stripeSize();
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long stripes() {
+        return stripes;
+    }
+
+    /**
+     * @return the number of data bytes of a full stripe
+     */
+    public long stripeSize() {
+        return (long) k * CELL_SIZE;
+    }
+
+    /**
+     * @return the offset of the first byte of the specified stripe in the
+     *         data
+     */
+    public long offset(long stripe) {
+        return stripe * stripeSize();
+    }
+
+    /**
+     * @return the number of data bytes in the specified stripe
+     */
+    public int dataSize(long stripe) {
+        return (int) Math.min(stripeSize(), size - offset(stripe));
+    }
+
+    /**
+     * @return the size of each cell of the specified stripe
+     */
+    public int cellSize(long stripe) {
+        int data = dataSize(stripe);
+        return (data + k - 1) / k;
+    }
+
+    /**
+     * @return the number of data bytes in the cell {@code i} of the specified
+     *         stripe, the rest of the cell being padding
+     */
+    public int cellData(long stripe, int i) {
+        int cell = cellSize(stripe);
+        return Math.max(0, Math.min(cell, dataSize(stripe) - i * cell));
+    }
+
+    /**
+     * @return the size of each fragment
+     */
+    public long fragmentSize() {
+        if (0 == stripes)
+            return 0L;
+        return (stripes - 1) * CELL_SIZE + cellSize(stripes - 1);
+    }
+
+    /**
+     * @return the offset of the cells of the specified stripe in each
+     *         fragment
+     */
+    public long fragmentOffset(long stripe) {
+        return stripe * CELL_SIZE;
+    }
+}
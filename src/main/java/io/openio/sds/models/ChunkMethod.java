@@ -0,0 +1,124 @@
+package io.openio.sds.models;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Integer.parseInt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * The way the chunks of a content are stored, parsed from its chunk method,
+ * e.g. {@code plain/nb_copy=3} or {@code ec/algo=liberasurecode_rs_vand,k=6,m=3}
+ *
+ *
+ *
+ */
+public class ChunkMethod {
+
+    /**
+     * The algorithm of the positions erasure coded by this client, whose
+     * fragments are raw Reed-Solomon cells, without liberasurecode headers
+     */
+    public static final String CLIENT_EC_ALGO = "oio_java_rs_vand";
+
+    private static final String EC = "ec";
+
+    private final String type;
+    private final Map<String, String> params;
+
+    private ChunkMethod(String type, Map<String, String> params) {
+        this.type = type;
+        this.params = params;
+    }
+
+    public static ChunkMethod parse(String chunkMethod) {
+        if (null == chunkMethod || chunkMethod.isEmpty())
+            return new ChunkMethod("plain", new HashMap<>());
+        String[] tok = chunkMethod.split("/", 2);
+        Map<String, String> params = new HashMap<>();
+        if (1 < tok.length && !tok[1].isEmpty()) {
+            for (String p : tok[1].split(",")) {
+                String[] kv = p.split("=", 2);
+                params.put(kv[0].trim(), 1 < kv.length ? kv[1].trim() : "");
+            }
+        }
+        ChunkMethod res = new ChunkMethod(tok[0], params);
+        if (res.ec()) {
+            checkArgument(0 < res.k() && 0 <= res.m(),
+                    String.format("Invalid chunk method %s", chunkMethod));
+        }
+        return res;
+    }
+
+    public String type() {
+        return type;
+    }
+
+    /**
+     * @return {@code true} if chunks are erasure coded
+     */
+    public boolean ec() {
+        return EC.equals(type);
+    }
+
+    /**
+     * @return the number of data fragments of erasure coded positions
+     */
+    public int k() {
+        return intParam("k", 0);
+    }
+
+    /**
+     * @return the number of parity fragments of erasure coded positions
+     */
+    public int m() {
+        return intParam("m", 0);
+    }
+
+    /**
+     * @return the erasure coding algorithm, or {@code null}
+     */
+    public String algo() {
+        return params.get("algo");
+    }
+
+    /**
+     * @return {@code true} if chunks are erasure coded by this client, see
+     *         {@link #CLIENT_EC_ALGO}
+     */
+    public boolean clientEc() {
+        return ec() && CLIENT_EC_ALGO.equals(algo());
+    }
+
+    /**
+     * @return the chunk method of the same erasure coding, done by this
+     *         client
+     */
+    public String toClientEc() {
+        return String.format("%s/algo=%s,k=%d,m=%d", EC, CLIENT_EC_ALGO, k(),
+                m());
+    }
+
+    public String param(String name) {
+        return params.get(name);
+    }
+
+    private int intParam(String name, int def) {
+        String v = params.get(name);
+        try {
+            return null == v ? def : parseInt(v);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("params", params)
+                .toString();
+    }
+}
@@ -2,13 +2,13 @@ package io.openio.sds.models;
 
 import static java.util.stream.Collectors.groupingBy;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.MoreObjects;
-import com.google.common.hash.Hashing;
-import com.google.common.io.BaseEncoding;
 
 public class ObjectInfo {
 
@@ -24,15 +24,14 @@ public class ObjectInfo {
     private long version;
     private String mtype;
     private List<ChunkInfo> chunks;
+    private List<ChunkInfo> underReplicated = Collections.emptyList();
+    private Map<String, String> properties;
     private transient Map<Integer, List<ChunkInfo>> sortedChunks;
 
     private static final Comparator<ChunkInfo> comparator = (c1, c2) -> c1.pos()
             .compare(c2.pos());
 
     public ObjectInfo() {
-        //TODO: content hash
-        this.hash = BaseEncoding.base16()
-                .encode(Hashing.md5().hashBytes("".getBytes()).asBytes());
     }
 
     public List<ChunkInfo> chunks() {
@@ -143,11 +142,66 @@ public class ObjectInfo {
         return this;
     }
 
+    /**
+     * Returns the chunks which could not be written when the object was
+     * uploaded with a write quorum. They are not part of the committed
+     * object, which lacks copies at their positions.
+     * 
+     * @return the chunks not written, empty if all of them have been
+     */
+    public List<ChunkInfo> underReplicated() {
+        return underReplicated;
+    }
+
+    public ObjectInfo underReplicated(List<ChunkInfo> underReplicated) {
+        this.underReplicated = underReplicated;
+        return this;
+    }
+
+    /**
+     * Returns the user and client properties of the object, such as the codec
+     * compressing its chunks.
+     * 
+     * @return the properties, empty if there is none
+     */
+    public Map<String, String> properties() {
+        return null == properties ? Collections.emptyMap() : properties;
+    }
+
+    public ObjectInfo properties(Map<String, String> properties) {
+        this.properties = properties;
+        return this;
+    }
+
+    /**
+     * Adds a property to the object.
+     * 
+     * @param key
+     *            the name of the property
+     * @param value
+     *            the value of the property
+     * @return this
+     */
+    public ObjectInfo property(String key, String value) {
+        if (null == properties)
+            properties = new HashMap<>();
+        properties.put(key, value);
+        return this;
+    }
+
     public int nbchunks() {
         return sortedChunks.size();
     }
 
-    // FIXME Not good for RAIN
+    /**
+     * Returns the size of the data stored at the specified position. For
+     * erasure coded contents, all the fragments of a position hold the size of
+     * the whole position, not their own.
+     * 
+     * @param pos
+     *            the position
+     * @return the size of the position
+     */
     public long chunksize(int pos) {
         return sortedChunks.get(pos).get(0).size();
     }
@@ -166,7 +220,10 @@ public class ObjectInfo {
                 .add("chunk-method", chunkMethod)
                 .add("size", size)
                 .add("version", version)
+                .add("properties", properties)
                 .add("chunks", chunks)
+                .add("under-replicated",
+                        underReplicated.isEmpty() ? null : underReplicated)
                 .toString();
     }
 
@@ -176,7 +233,7 @@ public class ObjectInfo {
             List<ChunkInfo> chunks) {
         Map<Integer, List<ChunkInfo>> res = chunks.stream()
                 .collect(groupingBy((c) -> c.pos().meta()));
-        res.values().forEach(l -> l.stream().sorted(comparator));
+        res.values().forEach(l -> l.sort(comparator));
         return res;
     }
 }
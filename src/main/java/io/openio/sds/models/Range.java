@@ -1,7 +1,7 @@
 package io.openio.sds.models;
 
 import static com.google.common.base.Preconditions.checkArgument;
-import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,34 +17,34 @@ public class Range {
 
     private static final Pattern RANGE_PATTERN = Pattern.compile("^([\\d]+)?-([\\d]+)?$");
 
-    private int from = 0;
-    private int to = -1;
+    private long from = 0;
+    private long to = -1;
 
-    private Range(int from, int to) {
+    private Range(long from, long to) {
         this.from = from;
         this.to = to;
     }
     
-    public static Range upTo(int to) {
+    public static Range upTo(long to) {
         return new Range(0, to);
     }
 
-    public static Range from(int from) {
+    public static Range from(long from) {
         return new Range(from, -1);
     }
 
-    public static Range between(int from, int to) {
+    public static Range between(long from, long to) {
         from = Math.max(from, 0);
-        if (to > 0 && to <= from)
+        if (to >= 0 && to < from)
             throw new IllegalArgumentException("Invalid range");
         return new Range(from, to);
     }
     
-    public int from(){
+    public long from(){
         return from;
     }
     
-    public int to(){
+    public long to(){
         return to;
     }
     
@@ -53,10 +53,10 @@ public class Range {
         checkArgument(m.matches());
         if (null == m.group(1)) {
             checkArgument(null != m.group(2), "useless range");
-            return upTo(parseInt(m.group(2)));
+            return upTo(parseLong(m.group(2)));
         }
-        return (null == m.group(2)) ? from(parseInt(m.group(1)))
-                : between(parseInt(m.group(1)), parseInt(m.group(2)));
+        return (null == m.group(2)) ? from(parseLong(m.group(1)))
+                : between(parseLong(m.group(1)), parseLong(m.group(2)));
     }
 
     public String headerValue() {
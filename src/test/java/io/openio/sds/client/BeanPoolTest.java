@@ -0,0 +1,129 @@
+package io.openio.sds.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.openio.sds.client.settings.ProxySettings;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+import io.openio.sds.models.Position;
+
+/**
+ *
+ *
+ *
+ */
+public class BeanPoolTest {
+
+    private final List<Long> prepared = new ArrayList<>();
+    private final List<CompletableFuture<ObjectInfo>> pending = new ArrayList<>();
+
+    private CompletableFuture<ObjectInfo> prepare(OioUrl url, long size) {
+        prepared.add(size);
+        CompletableFuture<ObjectInfo> f = new CompletableFuture<>();
+        pending.add(f);
+        return f;
+    }
+
+    private void completeAll() {
+        for (CompletableFuture<ObjectInfo> f : pending) {
+            ChunkInfo ci = new ChunkInfo().pos(Position.simple(0));
+            f.complete(new ObjectInfo()
+                    .chunks(new ArrayList<>(Collections.singletonList(ci))));
+        }
+        pending.clear();
+    }
+
+    @Test
+    public void sizeClass() {
+        Assert.assertEquals(4096L, BeanPool.sizeClass(0L));
+        Assert.assertEquals(4096L, BeanPool.sizeClass(4096L));
+        Assert.assertEquals(8192L, BeanPool.sizeClass(4097L));
+        Assert.assertEquals(65536L, BeanPool.sizeClass(65536L));
+    }
+
+    @Test
+    public void missThenHit() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare,
+                new ProxySettings().beanPoolDepth(2));
+        OioUrl url = OioUrl.url("A", "C", "o1");
+        CompletableFuture<ObjectInfo> first = pool.take(url, 1000L);
+        // the object itself, then two pooled entries of its class
+        Assert.assertEquals(3, prepared.size());
+        Assert.assertEquals(1000L, (long) prepared.get(2));
+        Assert.assertEquals(4096L, (long) prepared.get(0));
+        completeAll();
+        Assert.assertTrue(first.isDone());
+        Assert.assertEquals(1L, pool.misses());
+        Assert.assertEquals(2, pool.entries());
+
+        OioUrl other = OioUrl.url("A", "C", "o2");
+        ObjectInfo oinf = pool.take(other, 10L).get();
+        Assert.assertEquals(1L, pool.hits());
+        Assert.assertSame(other, oinf.url());
+        Assert.assertEquals(10L, oinf.size());
+        // the taken entry is prepared again
+        Assert.assertEquals(4, prepared.size());
+        Assert.assertEquals(2, pool.entries());
+    }
+
+    @Test
+    public void otherContainerMisses() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare,
+                new ProxySettings().beanPoolDepth(1));
+        pool.take(OioUrl.url("A", "C1", "o"), 10L);
+        completeAll();
+        pool.take(OioUrl.url("A", "C2", "o"), 10L);
+        pool.take(OioUrl.url("A", "C1", "o"), 100000L);
+        Assert.assertEquals(0L, pool.hits());
+        Assert.assertEquals(3L, pool.misses());
+    }
+
+    @Test
+    public void expired() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare,
+                new ProxySettings().beanPoolDepth(1).beanPoolTtl(1L));
+        pool.take(OioUrl.url("A", "C", "o"), 10L);
+        completeAll();
+        Thread.sleep(10L);
+        pool.take(OioUrl.url("A", "C", "o"), 10L);
+        Assert.assertEquals(0L, pool.hits());
+        Assert.assertEquals(2L, pool.misses());
+        Assert.assertEquals(1L, pool.expired());
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare, new ProxySettings()
+                .beanPoolDepth(4).beanPoolCapacity(3));
+        pool.take(OioUrl.url("A", "C1", "o"), 10L);
+        pool.take(OioUrl.url("A", "C2", "o"), 10L);
+        Assert.assertEquals(3, pool.entries());
+        // 2 objects and 3 pooled entries
+        Assert.assertEquals(5, prepared.size());
+    }
+
+    @Test
+    public void bigObjectsNotPooled() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare, new ProxySettings()
+                .beanPoolDepth(1).beanPoolMaxObjectSize(1000L));
+        pool.take(OioUrl.url("A", "C", "o"), 1001L);
+        Assert.assertEquals(1, prepared.size());
+        Assert.assertEquals(0L, pool.misses());
+        Assert.assertEquals(0, pool.entries());
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        BeanPool pool = new BeanPool(this::prepare, new ProxySettings());
+        pool.take(OioUrl.url("A", "C", "o"), 10L);
+        Assert.assertEquals(1, prepared.size());
+        Assert.assertEquals(0, pool.entries());
+    }
+}
@@ -0,0 +1,104 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.openio.sds.client.data.UploadSource;
+import io.openio.sds.common.HashMethod;
+import io.openio.sds.models.ObjectInfo;
+
+/**
+ *
+ *
+ *
+ */
+public class DeflatingSourceTest {
+
+    private static byte[] readAll(UploadSource source, ByteBuffer dst)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dst.clear();
+        while (0 <= source.read(dst).get()) {
+            dst.flip();
+            byte[] b = new byte[dst.remaining()];
+            dst.get(b);
+            out.write(b);
+            dst.clear();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, int size) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] res = new byte[size];
+        int n = 0;
+        while (!inflater.finished())
+            n += inflater.inflate(res, n, size - n);
+        inflater.end();
+        Assert.assertEquals(size, n);
+        return res;
+    }
+
+    @Test
+    public void positionCompressedAlone() throws Exception {
+        byte[] data = new byte[300000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i % 17);
+        UploadSource source = UploadSource.fromBuffer(ByteBuffer.wrap(data));
+        // the first position is read, the source stops at the second one
+        readAll(new DeflatingSource(source, 0L, 100000L, Deflater.BEST_SPEED,
+                null), ByteBuffer.allocate(4096));
+        UploadHashes hashes = new UploadHashes(HashMethod.MD5, false);
+        DeflatingSource second = new DeflatingSource(source, 100000L,
+                100000L, Deflater.BEST_SPEED, hashes);
+        byte[] compressed = readAll(second, ByteBuffer.allocateDirect(1000));
+        Assert.assertEquals(compressed.length, second.produced());
+        Assert.assertTrue(compressed.length < 10000);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 100000, 200000),
+                inflate(compressed, 100000));
+        // the original data is hashed
+        ObjectInfo oinf = new ObjectInfo();
+        hashes.complete(oinf);
+        Assert.assertEquals(HashMethod.hash(HashMethod.MD5.newHasher()
+                .putBytes(data, 100000, 100000)), oinf.hash());
+        // the same compressed data is read again for a retry
+        Assert.assertArrayEquals(compressed, readAll(second.reread(0L),
+                ByteBuffer.allocate(333)));
+    }
+
+    @Test
+    public void incompressibleWithinBound() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(3).nextBytes(data);
+        DeflatingSource source = new DeflatingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(data)), 0L,
+                data.length, Deflater.BEST_COMPRESSION, null);
+        byte[] compressed = readAll(source, ByteBuffer.allocate(8192));
+        Assert.assertTrue(compressed.length > data.length);
+        Assert.assertTrue(compressed.length <= DeflatingSource.bound(data.length));
+        Assert.assertArrayEquals(data, inflate(compressed, data.length));
+    }
+
+    @Test
+    public void shortSource() throws Exception {
+        DeflatingSource source = new DeflatingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(new byte[10])), 0L,
+                20L, Deflater.BEST_SPEED, null);
+        try {
+            readAll(source, ByteBuffer.allocate(64));
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.openio.sds.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class DownloadWindowTest {
+
+    private final Map<Integer, DownloadListener> fetched = new HashMap<>();
+    private final List<String> events = new ArrayList<>();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private final DownloadListener listener = new DownloadListener() {
+
+        @Override
+        public void onData(ByteBuffer bodyPart) {
+            events.add("data" + bodyPart.get(0));
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            events.add("failed " + t.getMessage());
+        }
+
+        @Override
+        public void onCompleted() {
+            events.add("completed");
+        }
+
+        @Override
+        public void onPositionCompleted(int pos) {
+            events.add("pos" + pos);
+        }
+    };
+
+    private DownloadWindow window(int positions, int window, long budget) {
+        return new DownloadWindow(0, positions, listener, window, budget,
+                pos -> 100L, fetched::put, () -> released.set(true));
+    }
+
+    private void data(int pos) {
+        fetched.get(pos).onData(ByteBuffer.wrap(new byte[] { (byte) pos }));
+    }
+
+    private void done(int pos) {
+        fetched.get(pos).onPositionCompleted(pos);
+    }
+
+    @Test
+    public void orderedDelivery() {
+        DownloadWindow w = window(4, 3, 1000L);
+        w.start();
+        Assert.assertEquals(3, fetched.size());
+        Assert.assertEquals(200L, w.reserved());
+        // the next positions complete first
+        data(2);
+        done(2);
+        data(1);
+        data(0);
+        Assert.assertEquals("[data0]", events.toString());
+        done(0);
+        Assert.assertEquals(4, fetched.size());
+        done(1);
+        data(3);
+        Assert.assertFalse(released.get());
+        done(3);
+        Assert.assertEquals("[data0, pos0, data1, pos1, data2, pos2, data3, "
+                + "pos3, completed]", events.toString());
+        Assert.assertTrue(released.get());
+        Assert.assertEquals(0L, w.reserved());
+    }
+
+    @Test
+    public void budgetBoundsPrefetch() {
+        window(3, 3, 150L).start();
+        // a single position fits in the budget
+        Assert.assertEquals(2, fetched.size());
+        data(1);
+        done(1);
+        Assert.assertEquals(2, fetched.size());
+        data(0);
+        done(0);
+        Assert.assertEquals(3, fetched.size());
+        Assert.assertEquals("[data0, pos0, data1, pos1]", events.toString());
+    }
+
+    @Test
+    public void positionsOfARange() {
+        new DownloadWindow(2, 4, listener, 4, 1000L, pos -> 100L,
+                fetched::put, () -> released.set(true)).start();
+        Assert.assertEquals(2, fetched.size());
+        data(3);
+        done(3);
+        data(2);
+        done(2);
+        Assert.assertEquals("[data2, pos2, data3, pos3, completed]",
+                events.toString());
+        Assert.assertTrue(released.get());
+    }
+
+    @Test
+    public void failureDropsBufferedData() {
+        window(3, 3, 1000L).start();
+        data(1);
+        fetched.get(2).onThrowable(new Exception("boom"));
+        data(0);
+        done(0);
+        done(1);
+        Assert.assertEquals("[failed boom]", events.toString());
+        Assert.assertFalse(released.get());
+    }
+}
@@ -0,0 +1,156 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.openio.sds.client.data.UploadSource;
+import io.openio.sds.models.ObjectInfo;
+
+/**
+ *
+ *
+ *
+ */
+public class EncryptingSourceTest {
+
+    private static final Executor direct = Runnable::run;
+    private final SecretKey key = new SecretKeySpec(new byte[16], "AES");
+
+    private static byte[] readAll(UploadSource source) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer dst = ByteBuffer.allocate(1000);
+        while (0 <= source.read(dst).get()) {
+            out.write(dst.array(), 0, dst.position());
+            dst.clear();
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] stored, byte[] seed, int partSize)
+            throws Exception {
+        RecordDecipher decipher = new RecordDecipher(key, seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < stored.length; off += partSize)
+            out.write(decipher.update(Arrays.copyOfRange(stored, off,
+                    Math.min(stored.length, off + partSize))));
+        out.write(decipher.doFinal());
+        return out.toByteArray();
+    }
+
+    @Test
+    public void positionEncryptedAlone() throws Exception {
+        byte[] data = new byte[300000];
+        new Random(1).nextBytes(data);
+        ObjectInfo oinf = new ObjectInfo().oid("0123456789ABCDEF");
+        byte[] seed = EncryptingSource.seed(oinf, 1);
+        UploadSource source = UploadSource.fromBuffer(ByteBuffer.wrap(data));
+        EncryptingSource encrypted = new EncryptingSource(
+                source.reread(40000L), 0L, 150000L, key, seed, direct);
+        byte[] stored = readAll(encrypted);
+        // two full records and a short one
+        Assert.assertEquals(150000 + 3 * EncryptingSource.TAG_SIZE,
+                stored.length);
+        Assert.assertEquals(EncryptingSource.sealedSize(150000L),
+                stored.length);
+        Assert.assertEquals(stored.length, encrypted.produced());
+        for (int part : new int[] { 1000, 65552, 100000, stored.length })
+            Assert.assertArrayEquals(
+                    Arrays.copyOfRange(data, 40000, 190000),
+                    decrypt(stored, seed, part));
+        // the same encrypted data is read again for a retry
+        Assert.assertArrayEquals(stored, readAll(encrypted.reread(0L)));
+    }
+
+    @Test
+    public void recordsReleasedOnceAuthenticated() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(2).nextBytes(data);
+        byte[] seed = new byte[32];
+        byte[] stored = readAll(new EncryptingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(data)), 0L, 100000L,
+                key, seed, direct));
+        int sealed = EncryptingSource.RECORD_SIZE + EncryptingSource.TAG_SIZE;
+        RecordDecipher decipher = new RecordDecipher(key, seed);
+        Assert.assertEquals(0, decipher.update(
+                Arrays.copyOfRange(stored, 0, sealed - 1)).length);
+        Assert.assertArrayEquals(
+                Arrays.copyOfRange(data, 0, EncryptingSource.RECORD_SIZE),
+                decipher.update(Arrays.copyOfRange(stored, sealed - 1,
+                        sealed + 10)));
+        // each record is authenticated on its own
+        stored[sealed + 20] ^= 1;
+        try {
+            decrypt(stored, seed, 1000);
+            Assert.fail();
+        } catch (AEADBadTagException e) {
+        }
+    }
+
+    @Test
+    public void lastRecordIsNeverFull() throws Exception {
+        byte[] data = new byte[2 * EncryptingSource.RECORD_SIZE];
+        new Random(3).nextBytes(data);
+        byte[] seed = new byte[32];
+        byte[] stored = readAll(new EncryptingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(data)), 0L,
+                data.length, key, seed, direct));
+        Assert.assertEquals(EncryptingSource.sealedSize(data.length),
+                stored.length);
+        // the source read until its end gives the same records
+        Assert.assertArrayEquals(stored, readAll(new EncryptingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(data)), 0L, -1L, key,
+                seed, direct)));
+        Assert.assertArrayEquals(data, decrypt(stored, seed, 4096));
+        // a chunk cut between two records is detected
+        try {
+            decrypt(Arrays.copyOf(stored, stored.length
+                    - EncryptingSource.TAG_SIZE), seed, 4096);
+            Assert.fail();
+        } catch (AEADBadTagException e) {
+        }
+    }
+
+    @Test
+    public void noncePerRecord() {
+        ObjectInfo oinf = new ObjectInfo().oid("0123456789ABCDEF");
+        byte[] seed = EncryptingSource.seed(oinf, 0);
+        Assert.assertArrayEquals(seed, EncryptingSource.seed(oinf, 0));
+        Assert.assertFalse(Arrays.equals(seed,
+                EncryptingSource.seed(oinf, 1)));
+        Assert.assertFalse(Arrays.equals(seed, EncryptingSource.seed(
+                new ObjectInfo().oid("0123456789ABCDEE"), 0)));
+        byte[] nonce = EncryptingSource.nonce(seed, 0L, false);
+        Assert.assertEquals(12, nonce.length);
+        Assert.assertArrayEquals(nonce,
+                EncryptingSource.nonce(seed, 0L, false));
+        Assert.assertFalse(Arrays.equals(nonce,
+                EncryptingSource.nonce(seed, 1L, false)));
+        Assert.assertFalse(Arrays.equals(nonce,
+                EncryptingSource.nonce(seed, 0L, true)));
+    }
+
+    @Test
+    public void shortSource() throws Exception {
+        EncryptingSource source = new EncryptingSource(
+                UploadSource.fromBuffer(ByteBuffer.wrap(new byte[10])), 0L,
+                20L, key, new byte[32], direct);
+        try {
+            readAll(source);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.openio.sds.client;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.Position;
+
+/**
+ * A rawx service in memory, storing the chunks uploaded to it and serving
+ * them back, ranges included. Requests are handled by their own threads, so
+ * that slow chunks do not hold the others.
+ *
+ *
+ */
+class FakeRawx implements Closeable {
+
+    final Map<String, byte[]> chunks = new ConcurrentHashMap<>();
+    final AtomicInteger puts = new AtomicInteger();
+    final AtomicInteger gets = new AtomicInteger();
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger activePuts = new AtomicInteger();
+    final AtomicInteger maxActivePuts = new AtomicInteger();
+    // the Connection header of each chunk upload, "" when missing
+    final List<String> putConnections = new CopyOnWriteArrayList<>();
+    // the ids of the chunks uploaded, in the order of their requests
+    final List<String> putIds = new CopyOnWriteArrayList<>();
+    volatile long putDelay = 0L;
+    volatile Predicate<String> failing = id -> false;
+    // the chunks served after getDelay milliseconds
+    volatile Predicate<String> slow = id -> false;
+    volatile long getDelay = 0L;
+
+    private final EventLoopGroup group = new NioEventLoopGroup(2);
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final int port;
+
+    FakeRawx() throws InterruptedException {
+        Channel c = new ServerBootstrap().group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        connections.incrementAndGet();
+                        ch.pipeline().addLast(new HttpServerCodec(),
+                                new HttpObjectAggregator(1 << 26),
+                                new Handler());
+                    }
+                }).bind("127.0.0.1", 0).sync().channel();
+        port = ((InetSocketAddress) c.localAddress()).getPort();
+    }
+
+    /**
+     * @return a chunk of this service, at the specified position
+     */
+    ChunkInfo chunk(String id, String pos, long size) {
+        return new ChunkInfo()
+                .url("http://127.0.0.1:" + port + "/" + id)
+                .pos(Position.parse(pos))
+                .size(size);
+    }
+
+    byte[] data(ChunkInfo ci) {
+        return chunks.get(ci.id());
+    }
+
+    @Override
+    public void close() {
+        group.shutdownGracefully();
+        workers.shutdownNow();
+    }
+
+    private void put(String id, byte[] body, HttpHeaders headers,
+            FullHttpResponse res) throws InterruptedException {
+        puts.incrementAndGet();
+        putIds.add(id);
+        String connection = headers.get(HttpHeaders.Names.CONNECTION);
+        putConnections.add(null == connection ? "" : connection);
+        // failing chunks fail at once
+        if (failing.test(id)) {
+            res.setStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+            return;
+        }
+        maxActivePuts.accumulateAndGet(activePuts.incrementAndGet(),
+                Math::max);
+        try {
+            if (0 < putDelay)
+                Thread.sleep(putDelay);
+        } finally {
+            activePuts.decrementAndGet();
+        }
+        chunks.put(id, body);
+        res.headers().set("X-oio-chunk-meta-chunk-hash", md5(body));
+        res.setStatus(HttpResponseStatus.CREATED);
+    }
+
+    private void get(String id, HttpHeaders headers, FullHttpResponse res)
+            throws InterruptedException {
+        gets.incrementAndGet();
+        if (slow.test(id))
+            Thread.sleep(getDelay);
+        byte[] b = chunks.get(id);
+        if (null == b) {
+            res.setStatus(HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        int from = 0;
+        int to = b.length - 1;
+        String range = headers.get(HttpHeaders.Names.RANGE);
+        if (null != range) {
+            String[] r = range.substring("bytes=".length()).split("-", -1);
+            from = Integer.parseInt(r[0]);
+            if (!r[1].isEmpty())
+                to = Math.min(to, Integer.parseInt(r[1]));
+            res.setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+        }
+        res.content().writeBytes(b, from, to - from + 1);
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data))
+                sb.append(String.format("%02X", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class Handler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                FullHttpRequest req) {
+            String id = req.getUri().substring(1);
+            String method = req.getMethod().name();
+            byte[] body = new byte[req.content().readableBytes()];
+            req.content().readBytes(body);
+            HttpHeaders headers = new DefaultHttpHeaders().set(req.headers());
+            workers.execute(() -> {
+                FullHttpResponse res = new DefaultFullHttpResponse(
+                        HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                        Unpooled.buffer());
+                try {
+                    if ("PUT".equals(method))
+                        put(id, body, headers, res);
+                    else
+                        get(id, headers, res);
+                } catch (Exception e) {
+                    res.setStatus(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                }
+                HttpHeaders.setContentLength(res, res.content().readableBytes());
+                boolean close = HttpHeaders.Values.CLOSE
+                        .equalsIgnoreCase(headers.get(HttpHeaders.Names.CONNECTION));
+                if (close)
+                    ctx.writeAndFlush(res)
+                            .addListener(ChannelFutureListener.CLOSE);
+                else
+                    ctx.writeAndFlush(res);
+            });
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.openio.sds.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class FileDownloadTest {
+
+    private final Map<Integer, DownloadListener> fetched = new HashMap<>();
+
+    private void data(int pos, String s) {
+        fetched.get(pos).onData(ByteBuffer.wrap(s.getBytes()));
+    }
+
+    @Test
+    public void positionsWrittenAtTheirOffsets() throws IOException {
+        File f = File.createTempFile("download", ".tmp");
+        f.deleteOnExit();
+        try (FileChannel file = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE)) {
+            CompletableFuture<Boolean> result = new FileDownload(file,
+                    new long[] { 0L, 4L, 8L, 10L }, 2, fetched::put).start();
+            Assert.assertEquals(2, fetched.size());
+            data(1, "ef");
+            data(0, "abcd");
+            data(1, "gh");
+            fetched.get(1).onPositionCompleted(1);
+            Assert.assertEquals(3, fetched.size());
+            data(2, "ij");
+            fetched.get(2).onPositionCompleted(2);
+            Assert.assertFalse(result.isDone());
+            fetched.get(0).onPositionCompleted(0);
+            Assert.assertTrue(result.join());
+        }
+        Assert.assertEquals("abcdefghij",
+                new String(Files.readAllBytes(f.toPath())));
+    }
+
+    @Test
+    public void failureStopsTheDownload() {
+        CompletableFuture<Boolean> result = new FileDownload(null,
+                new long[] { 0L, 4L, 8L, 10L }, 2, fetched::put).start();
+        fetched.get(0).onThrowable(new Exception("boom"));
+        fetched.get(1).onPositionCompleted(1);
+        Assert.assertTrue(result.isCompletedExceptionally());
+        Assert.assertEquals(2, fetched.size());
+    }
+}
@@ -0,0 +1,185 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.Dsl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.common.rain.ReedSolomon;
+import io.openio.sds.common.rain.StripeLayout;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+
+/**
+ *
+ *
+ *
+ */
+public class FragmentsReaderTest {
+
+    private static final int K = 3;
+    private static final int M = 2;
+    private static final long STRIPE = (long) K * StripeLayout.CELL_SIZE;
+
+    private FakeRawx rawx;
+    private AsyncHttpClient http;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    private final DownloadListener listener = new DownloadListener() {
+
+        @Override
+        public void onData(ByteBuffer bodyPart) {
+            byte[] b = new byte[bodyPart.remaining()];
+            bodyPart.get(b);
+            synchronized (received) {
+                received.write(b, 0, b.length);
+            }
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onPositionCompleted(int pos) {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        rawx = new FakeRawx();
+        http = Dsl.asyncHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        http.close();
+        rawx.close();
+    }
+
+    /**
+     * Uploads the data as the single position of an erasure coded object
+     */
+    private ObjectInfo upload(byte[] data) throws Exception {
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (int j = 0; j < K + M; j++) {
+            String pos = j < K ? "0." + j : "0." + (j - K) + "p";
+            chunks.add(rawx.chunk("ec" + pos, pos, data.length));
+        }
+        ObjectInfo oinf = new ObjectInfo()
+                .url(OioUrl.url("ACCOUNT", "CONTAINER", "OBJECT"))
+                .oid("0123456789ABCDEF")
+                .policy("EC")
+                .mtype("application/octet-stream")
+                .chunkMethod("ec/algo=liberasurecode_rs_vand,k=" + K + ",m="
+                        + M)
+                .size(data.length)
+                .chunks(chunks);
+        RawxClient.client(http, new RawxSettings().clientErasureCoding(true))
+                .uploadChunks(oinf, data, null).get(10, TimeUnit.SECONDS);
+        return oinf;
+    }
+
+    private FragmentsReader reader(ObjectInfo oinf, long size,
+            Consumer<Subscription> demand) {
+        return new FragmentsReader(http, 0, oinf.chunks(), size,
+                new ReedSolomon(K, M), demand);
+    }
+
+    private byte[] read(ObjectInfo oinf, int size) throws Exception {
+        reader(oinf, size, null).read(listener).get(10, TimeUnit.SECONDS);
+        return received.toByteArray();
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void firstFragmentsAreEnough() throws Exception {
+        byte[] data = data((int) (2 * STRIPE));
+        ObjectInfo oinf = upload(data);
+        rawx.slow = id -> id.endsWith("p");
+        rawx.getDelay = 5000L;
+        long start = System.currentTimeMillis();
+        Assert.assertArrayEquals(data, read(oinf, data.length));
+        Assert.assertTrue(2000L > System.currentTimeMillis() - start);
+    }
+
+    @Test
+    public void missingDataFragmentsAreRebuilt() throws Exception {
+        byte[] data = data((int) (3 * STRIPE));
+        ObjectInfo oinf = upload(data);
+        rawx.chunks.remove("ec0.0");
+        rawx.chunks.remove("ec0.2");
+        Assert.assertArrayEquals(data, read(oinf, data.length));
+    }
+
+    @Test
+    public void fewerThanKFragmentsFail() throws Exception {
+        byte[] data = data((int) STRIPE);
+        ObjectInfo oinf = upload(data);
+        rawx.chunks.remove("ec0.0");
+        rawx.chunks.remove("ec0.1");
+        rawx.chunks.remove("ec0.0p");
+        try {
+            read(oinf, data.length);
+            Assert.fail("Read should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SdsException);
+        }
+    }
+
+    @Test
+    public void shortFinalStripeIsRebuilt() throws Exception {
+        // the last cells of the last stripe hold 34, 34 and 32 bytes
+        byte[] data = data((int) STRIPE + 100);
+        ObjectInfo oinf = upload(data);
+        for (ChunkInfo ci : oinf.chunks())
+            Assert.assertEquals(StripeLayout.CELL_SIZE + 34, ci.size());
+        rawx.chunks.remove("ec0.2");
+        Assert.assertArrayEquals(data, read(oinf, data.length));
+    }
+
+    @Test
+    public void stripesAreReadOnDemand() throws Exception {
+        byte[] data = data((int) (2 * FragmentsReader.STRIPES_AHEAD
+                * STRIPE));
+        ObjectInfo oinf = upload(data);
+        CompletableFuture<Subscription> demand = new CompletableFuture<>();
+        CompletableFuture<Void> result = reader(oinf, data.length,
+                demand::complete).read(listener);
+        Subscription s = demand.get(10, TimeUnit.SECONDS);
+        Thread.sleep(200L);
+        Assert.assertFalse(result.isDone());
+        synchronized (received) {
+            Assert.assertEquals(FragmentsReader.STRIPES_AHEAD * STRIPE,
+                    received.size());
+        }
+        s.request(Long.MAX_VALUE / 2);
+        result.get(10, TimeUnit.SECONDS);
+        Assert.assertArrayEquals(data, received.toByteArray());
+    }
+}
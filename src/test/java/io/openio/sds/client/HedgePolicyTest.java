@@ -0,0 +1,69 @@
+package io.openio.sds.client;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class HedgePolicyTest {
+
+    @Test
+    public void learnedDelay() {
+        HedgePolicy policy = new HedgePolicy(0L, 5);
+        for (int i = 1; i < HedgePolicy.MIN_SAMPLES; i++)
+            policy.record(i * 1000000L);
+        Assert.assertEquals(-1L, policy.delay());
+        policy.record(HedgePolicy.MIN_SAMPLES * 1000000L);
+        Assert.assertEquals(19L, policy.delay());
+        Assert.assertEquals(30L, new HedgePolicy(30L, 5).delay());
+    }
+
+    @Test
+    public void budget() {
+        HedgePolicy policy = new HedgePolicy(30L, 10);
+        int hedged = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.request();
+            if (policy.tryHedge())
+                hedged++;
+        }
+        Assert.assertEquals(10, hedged);
+        Assert.assertEquals(10L, policy.hedges());
+        Assert.assertFalse(new HedgePolicy(30L, 0).tryHedge());
+    }
+
+    @Test
+    public void firstDataWins() {
+        HedgedRead race = new HedgedRead(1);
+        Object primary = new Object();
+        Object hedge = new Object();
+        CompletableFuture<Boolean> first = new CompletableFuture<>();
+        race.join(primary);
+        race.started(primary, first);
+        Assert.assertEquals(1, race.take());
+        race.join(hedge);
+        Assert.assertTrue(race.waiting());
+        Assert.assertTrue(race.claim(hedge));
+        Assert.assertTrue(first.isCancelled());
+        Assert.assertFalse(race.claim(primary));
+        Assert.assertFalse(race.leave(primary));
+        Assert.assertFalse(race.waiting());
+        Assert.assertTrue(race.leave(hedge));
+    }
+
+    @Test
+    public void lastFailureFails() {
+        HedgedRead race = new HedgedRead(1);
+        Object primary = new Object();
+        Object hedge = new Object();
+        race.join(primary);
+        race.join(hedge);
+        Assert.assertFalse(race.leave(primary));
+        Assert.assertTrue(race.leave(hedge));
+    }
+}
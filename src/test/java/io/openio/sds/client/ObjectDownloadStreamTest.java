@@ -0,0 +1,89 @@
+package io.openio.sds.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+
+/**
+ *
+ *
+ *
+ */
+public class ObjectDownloadStreamTest {
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    private final Subscription subscription = new Subscription() {
+
+        @Override
+        public void request(long n) {
+            requested.addAndGet(n);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled.set(true);
+        }
+    };
+
+    private final ObjectDownloadStream stream = new ObjectDownloadStream(10L,
+            () -> stopped.set(true));
+
+    private void receive(int size) {
+        stream.feed().onData(ByteBuffer.wrap(new byte[size]));
+        stream.request(subscription);
+    }
+
+    @Test
+    public void fullBufferPausesTheChunk() throws IOException {
+        stream.request(subscription);
+        Assert.assertEquals(1L, requested.get());
+        receive(6);
+        Assert.assertEquals(2L, requested.get());
+        receive(6);
+        // the buffer is full, the next part waits for the reader
+        Assert.assertEquals(2L, requested.get());
+        Assert.assertEquals(12L, stream.queued());
+        Assert.assertEquals(1, stream.read(new byte[1]));
+        Assert.assertEquals(2L, requested.get());
+        Assert.assertEquals(8, stream.read(new byte[8]));
+        Assert.assertEquals(3L, requested.get());
+        Assert.assertEquals(3L, stream.queued());
+        stream.feed().onPositionCompleted(0);
+        stream.feed().onCompleted();
+        Assert.assertEquals(3, stream.read(ByteBuffer.allocate(100)));
+        Assert.assertEquals(-1, stream.read());
+        stream.close();
+        Assert.assertFalse(stopped.get());
+    }
+
+    @Test
+    public void failureAfterTheReceivedData() throws IOException {
+        receive(4);
+        stream.feed().onThrowable(new Exception("boom"));
+        Assert.assertEquals(4, stream.read(new byte[10]));
+        try {
+            stream.read();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals("boom", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void closeCancelsTheDownload() {
+        receive(12);
+        stream.close();
+        Assert.assertTrue(cancelled.get());
+        Assert.assertTrue(stopped.get());
+        Assert.assertFalse(stream.isOpen());
+        Assert.assertEquals(0L, stream.queued());
+    }
+}
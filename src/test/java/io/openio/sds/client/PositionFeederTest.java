@@ -0,0 +1,126 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.Body.BodyState;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.openio.sds.client.data.BufferPool;
+import io.openio.sds.client.data.OioQueueBasedFeedableBodyGenerator;
+import io.openio.sds.client.data.UploadSource;
+
+/**
+ * 
+ *
+ *
+ */
+public class PositionFeederTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService timer = Executors
+            .newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private List<OioQueueBasedFeedableBodyGenerator> gens(int count) {
+        List<OioQueueBasedFeedableBodyGenerator> res = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            res.add(new OioQueueBasedFeedableBodyGenerator(16, 0));
+        return res;
+    }
+
+    /**
+     * Reads the body until its end, the way the transport would
+     */
+    private CompletableFuture<Integer> drain(
+            OioQueueBasedFeedableBodyGenerator g) {
+        Body body = g.createBody();
+        return CompletableFuture.supplyAsync(() -> {
+            ByteBuf target = Unpooled.buffer(64);
+            try {
+                while (BodyState.STOP != body.transferTo(target))
+                    Thread.sleep(1);
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return target.readableBytes();
+        }, executor);
+    }
+
+    private PositionFeeder feeder(List<OioQueueBasedFeedableBodyGenerator> gens,
+            int quorum, long timeout) {
+        return new PositionFeeder(
+                UploadSource.fromStream(new ByteArrayInputStream(new byte[64]),
+                        executor),
+                64L, gens, new BufferPool(8, 4, false), timeout, timer, null,
+                quorum, quorum, 50L);
+    }
+
+    @Test
+    public void slowCopyLeftOut() throws Exception {
+        List<OioQueueBasedFeedableBodyGenerator> gens = gens(3);
+        CompletableFuture<Integer> d1 = drain(gens.get(0));
+        CompletableFuture<Integer> d2 = drain(gens.get(1));
+        PositionFeeder feeder = feeder(gens, 2, 5000L);
+        feeder.start();
+        feeder.result().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(64, d1.get(5, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(64, d2.get(5, TimeUnit.SECONDS).intValue());
+        try {
+            gens.get(2).createBody().transferTo(Unpooled.buffer(64));
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void slowCopyBlocksWithoutQuorum() throws Exception {
+        List<OioQueueBasedFeedableBodyGenerator> gens = gens(3);
+        drain(gens.get(0));
+        drain(gens.get(1));
+        PositionFeeder feeder = feeder(gens, 3, 200L);
+        feeder.start();
+        try {
+            feeder.result().get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void openPositionEndsWithSource() throws Exception {
+        List<OioQueueBasedFeedableBodyGenerator> gens = gens(2);
+        CompletableFuture<Integer> d1 = drain(gens.get(0));
+        CompletableFuture<Integer> d2 = drain(gens.get(1));
+        PositionFeeder feeder = new PositionFeeder(
+                UploadSource.fromStream(new ByteArrayInputStream(new byte[20]),
+                        executor),
+                64L, gens, new BufferPool(8, 4, false), 5000L, timer, null,
+                2, 2, 0L).open();
+        feeder.start();
+        feeder.result().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(20, d1.get(5, TimeUnit.SECONDS).intValue());
+        Assert.assertEquals(20, d2.get(5, TimeUnit.SECONDS).intValue());
+    }
+}
@@ -0,0 +1,386 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.Dsl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import io.openio.sds.client.settings.RawxSettings;
+import io.openio.sds.common.Compression;
+import io.openio.sds.common.rain.StripeLayout;
+import io.openio.sds.exceptions.SdsException;
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ChunkMethod;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+
+/**
+ *
+ *
+ *
+ */
+public class RawxClientTest {
+
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FakeRawx rawx;
+    private AsyncHttpClient http;
+
+    @Before
+    public void setUp() throws Exception {
+        rawx = new FakeRawx();
+        http = Dsl.asyncHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        http.close();
+        rawx.close();
+    }
+
+    private ObjectInfo object(byte[] data) {
+        return object("chunk", data);
+    }
+
+    private ObjectInfo object(String prefix, byte[] data) {
+        int nbchunks = (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (int i = 0; i < nbchunks; i++)
+            chunks.add(rawx.chunk(prefix + i, String.valueOf(i), CHUNK_SIZE));
+        return new ObjectInfo()
+                .url(OioUrl.url("ACCOUNT", "CONTAINER", "OBJECT"))
+                .oid("0123456789ABCDEF")
+                .policy("SINGLE")
+                .mtype("application/octet-stream")
+                .chunkMethod("plain/nb_copy=1")
+                .size(data.length)
+                .chunks(chunks);
+    }
+
+    private ObjectInfo ecObject(String chunkMethod, byte[] data,
+            int chunkSize) {
+        ChunkMethod method = ChunkMethod.parse(chunkMethod);
+        int nbchunks = (data.length + chunkSize - 1) / chunkSize;
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (int i = 0; i < nbchunks; i++) {
+            for (int j = 0; j < method.k() + method.m(); j++) {
+                String pos = j < method.k() ? i + "." + j
+                        : i + "." + (j - method.k()) + "p";
+                chunks.add(rawx.chunk("ec" + pos, pos, chunkSize));
+            }
+        }
+        return new ObjectInfo()
+                .url(OioUrl.url("ACCOUNT", "CONTAINER", "OBJECT"))
+                .oid("0123456789ABCDEF")
+                .policy("EC")
+                .mtype("application/octet-stream")
+                .chunkMethod(chunkMethod)
+                .size(data.length)
+                .chunks(chunks);
+    }
+
+    private File file(byte[] data) throws IOException {
+        File f = tmp.newFile();
+        Files.write(f.toPath(), data);
+        return f;
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void uploadWindowBoundsPositionsInFlight() throws Exception {
+        rawx.putDelay = 100L;
+        byte[] data = data(8 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(3));
+        client.uploadChunks(object(data), new ByteArrayInputStream(data),
+                null).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(8, rawx.puts.get());
+        Assert.assertEquals(3, rawx.maxActivePuts.get());
+    }
+
+    @Test
+    public void uploadedChunksFollowTheData() throws Exception {
+        rawx.putDelay = 20L;
+        byte[] data = data(7 * CHUNK_SIZE + 123);
+        ObjectInfo oinf = object(data);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(4));
+        client.uploadChunks(oinf, new ByteArrayInputStream(data), null)
+                .get(10, TimeUnit.SECONDS);
+        for (int pos = 0; pos < oinf.nbchunks(); pos++) {
+            ChunkInfo ci = oinf.sortedChunks().get(pos).get(0);
+            int from = pos * CHUNK_SIZE;
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, from,
+                    Math.min(data.length, from + CHUNK_SIZE)), rawx.data(ci));
+            Assert.assertEquals(rawx.data(ci).length, ci.size());
+        }
+    }
+
+    @Test
+    public void failedPositionStopsTheNextOnes() throws Exception {
+        rawx.putDelay = 100L;
+        rawx.failing = id -> id.equals("chunk2");
+        byte[] data = data(10 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(2));
+        try {
+            client.uploadChunks(object(data), new ByteArrayInputStream(data),
+                    null).get(10, TimeUnit.SECONDS);
+            Assert.fail("The upload should fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        // the positions sharing the window with the failed one may be sent,
+        // the next ones are not
+        Assert.assertTrue(rawx.putIds.contains("chunk2"));
+        for (String id : rawx.putIds)
+            Assert.assertTrue(id, Integer.parseInt(id.substring(5)) < 4);
+    }
+
+    @Test
+    public void keepAliveReusesConnections() throws Exception {
+        byte[] data = data(2 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(1).keepAlive(true));
+        client.uploadChunks(object(data), new ByteArrayInputStream(data),
+                null).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, rawx.puts.get());
+        Assert.assertEquals(1, rawx.connections.get());
+        Assert.assertEquals(Arrays.asList("", ""), rawx.putConnections);
+    }
+
+    @Test
+    public void noKeepAliveClosesConnections() throws Exception {
+        byte[] data = data(2 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(1).keepAlive(false));
+        client.uploadChunks(object(data), new ByteArrayInputStream(data),
+                null).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, rawx.puts.get());
+        Assert.assertEquals(2, rawx.connections.get());
+        for (String connection : rawx.putConnections)
+            Assert.assertTrue(connection, "close".equalsIgnoreCase(connection));
+    }
+
+    @Test
+    public void fileUploadIsSequentialByDefault() throws Exception {
+        rawx.putDelay = 20L;
+        byte[] data = data(4 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http, new RawxSettings());
+        client.uploadChunks(object(data), file(data), null)
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(4, rawx.puts.get());
+        Assert.assertEquals(1, rawx.maxActivePuts.get());
+    }
+
+    @Test
+    public void fileUploadWindowBoundsPositionsInFlight() throws Exception {
+        rawx.putDelay = 100L;
+        byte[] data = data(8 * CHUNK_SIZE);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(3));
+        client.uploadChunks(object(data), file(data), null)
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(8, rawx.puts.get());
+        Assert.assertEquals(3, rawx.maxActivePuts.get());
+    }
+
+    @Test
+    public void mappedFileUploadHashesTheSentRegions() throws Exception {
+        byte[] data = data(3 * CHUNK_SIZE + 10);
+        ObjectInfo oinf = object(data);
+        RawxClient.client(http, new RawxSettings().mappedFileUploads(true))
+                .uploadChunks(oinf, file(data), null)
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(4, rawx.puts.get());
+        Assert.assertTrue(Hashing.md5().hashBytes(data).toString()
+                .equalsIgnoreCase(oinf.hash()));
+    }
+
+    @Test
+    public void clientBoundsPositionsInFlightOfAllObjects() throws Exception {
+        rawx.putDelay = 100L;
+        byte[] data = data(6 * CHUNK_SIZE);
+        File f = file(data);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().uploadWindow(4).maxInflightPositions(3));
+        CompletableFuture<ObjectInfo> first = client
+                .uploadChunks(object("first", data), f, null);
+        CompletableFuture<ObjectInfo> second = client
+                .uploadChunks(object("second", data), f, null);
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(12, rawx.puts.get());
+        Assert.assertEquals(3, rawx.maxActivePuts.get());
+        Assert.assertEquals(3, client.positionPermits().available());
+    }
+
+    @Test
+    public void openPositionsLeaveTheClientLimit() throws Exception {
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().maxInflightPositions(1));
+        CompletableFuture<ObjectInfo> writer = new CompletableFuture<>();
+        CompletableFuture<ObjectInfo> open = client.inflightOpen(
+                CompletableFuture.completedFuture(null), client.uploadWindow(),
+                () -> writer);
+        // a position waiting for its writer does not hold the other uploads
+        byte[] data = data(2 * CHUNK_SIZE);
+        client.uploadChunks(object(data), data, null).get(10,
+                TimeUnit.SECONDS);
+        Assert.assertEquals(2, rawx.puts.get());
+        Assert.assertEquals(1, client.positionPermits().available());
+        Assert.assertFalse(open.isDone());
+        writer.complete(null);
+        open.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void ecUploadNeedsClientErasureCoding() throws Exception {
+        byte[] data = data(100000);
+        ObjectInfo oinf = ecObject("ec/algo=liberasurecode_rs_vand,k=2,m=1",
+                data, 40000);
+        RawxClient client = RawxClient.client(http, new RawxSettings());
+        try {
+            client.uploadChunks(oinf, data, null).get(10, TimeUnit.SECONDS);
+            Assert.fail("The upload should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SdsException);
+        }
+        Assert.assertEquals(0, rawx.puts.get());
+    }
+
+    @Test
+    public void ecUploadRecordsFragments() throws Exception {
+        byte[] data = data(250000);
+        ObjectInfo oinf = ecObject("ec/algo=liberasurecode_rs_vand,k=2,m=1",
+                data, 100000);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().clientErasureCoding(true));
+        client.uploadChunks(oinf, data, null).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("ec/algo=" + ChunkMethod.CLIENT_EC_ALGO
+                + ",k=2,m=1", oinf.chunkMethod());
+        Assert.assertEquals("100000", oinf.properties()
+                .get(OioConstants.ORIGINAL_CHUNK_SIZE_PROPERTY));
+        Assert.assertEquals(9, rawx.puts.get());
+        long[] positions = { 100000, 100000, 50000 };
+        for (ChunkInfo ci : oinf.chunks()) {
+            long fragment = new StripeLayout(2,
+                    positions[ci.pos().meta()]).fragmentSize();
+            Assert.assertEquals(fragment, ci.size());
+            Assert.assertEquals(fragment, rawx.data(ci).length);
+        }
+        try (InputStream in = client.openStream(oinf)) {
+            Assert.assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void liberasurecodeDownloadIsRefused() throws Exception {
+        byte[] data = data(1000);
+        ObjectInfo oinf = ecObject("ec/algo=liberasurecode_rs_vand,k=2,m=1",
+                data, 1000);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().clientErasureCoding(true));
+        Assert.assertTrue(downloadFailure(client, oinf)
+                instanceof SdsException);
+        Assert.assertEquals(0, rawx.gets.get());
+    }
+
+    @Test
+    public void encodedDownloadNeedsProperties() throws Exception {
+        byte[] data = new byte[5000];
+        ObjectInfo oinf = object(data);
+        RawxClient client = RawxClient.client(http,
+                new RawxSettings().compression(Compression.DEFLATE));
+        Assert.assertFalse(client.encoded(oinf));
+        client.uploadChunks(oinf, data, null).get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(client.encoded(oinf));
+        oinf.properties(null);
+        Assert.assertTrue(downloadFailure(client, oinf)
+                instanceof SdsException);
+        Assert.assertEquals(0, rawx.gets.get());
+    }
+
+    @Test
+    public void hedgesStayWithinTheBudget() throws Exception {
+        int positions = 20;
+        byte[] data = data(positions * CHUNK_SIZE);
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (int i = 0; i < positions; i++) {
+            byte[] chunk = Arrays.copyOfRange(data, i * CHUNK_SIZE,
+                    (i + 1) * CHUNK_SIZE);
+            for (String copy : Arrays.asList("slow", "fast")) {
+                rawx.chunks.put(copy + i, chunk);
+                chunks.add(rawx.chunk(copy + i, String.valueOf(i),
+                        CHUNK_SIZE));
+            }
+        }
+        ObjectInfo oinf = object(data).chunkMethod("plain/nb_copy=2")
+                .chunks(chunks);
+        // every position would be hedged without a budget
+        rawx.slow = id -> id.startsWith("slow");
+        rawx.getDelay = 200L;
+        RawxClient client = RawxClient.client(http, new RawxSettings()
+                .hedging(true).hedgeDelay(10L).hedgeBudget(25));
+        try (InputStream in = client.openStream(oinf)) {
+            Assert.assertArrayEquals(data, ByteStreams.toByteArray(in));
+        }
+        // hedges and retries do not earn hedges
+        int hedged = rawx.gets.get() - positions;
+        Assert.assertTrue(0 < hedged);
+        Assert.assertTrue(hedged <= positions * 25 / 100);
+    }
+
+    private static Throwable downloadFailure(RawxClient client,
+            ObjectInfo oinf) throws Exception {
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        client.downloadObject(oinf, new DownloadListener() {
+
+            @Override
+            public void onData(ByteBuffer bodyPart) {
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+                failure.complete(t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onPositionCompleted(int pos) {
+            }
+        });
+        return failure.get(10, TimeUnit.SECONDS);
+    }
+}
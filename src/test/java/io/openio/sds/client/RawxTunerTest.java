@@ -0,0 +1,85 @@
+package io.openio.sds.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.openio.sds.client.settings.RawxSettings;
+
+/**
+ *
+ *
+ *
+ */
+public class RawxTunerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+    private final AtomicInteger bufsize = new AtomicInteger();
+    private final AtomicInteger positions = new AtomicInteger();
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private RawxTuner tuner(RawxSettings settings) {
+        return new RawxTuner(settings, bufsize::set, positions::set,
+                workers::set);
+    }
+
+    private static void upload(RawxTuner tuner, long bytes, long millis) {
+        tuner.record("http://127.0.0.1:6010/0123", bytes,
+                TimeUnit.MILLISECONDS.toNanos(millis));
+        tuner.tune(SECOND);
+    }
+
+    @Test
+    public void keepGainsUndoLosses() {
+        RawxTuner tuner = tuner(new RawxSettings().bufsize(32768));
+        upload(tuner, 1000L, 10L);
+        // the buffer size is probed first
+        Assert.assertEquals(65536, bufsize.get());
+        Assert.assertEquals(1, tuner.decisions());
+        upload(tuner, 2000L, 10L);
+        Assert.assertEquals(131072, tuner.bufsize());
+        Assert.assertEquals(131072, bufsize.get());
+        // no gain, the previous size is restored and measured again
+        upload(tuner, 2000L, 10L);
+        Assert.assertEquals(65536, bufsize.get());
+        Assert.assertEquals(3, tuner.decisions());
+        upload(tuner, 2000L, 10L);
+        Assert.assertEquals(65536, bufsize.get());
+        Assert.assertEquals(80, tuner.positions());
+        Assert.assertEquals(80, positions.get());
+        Assert.assertTrue(tuner.lastDecision().startsWith("positions 64 -> 80"));
+    }
+
+    @Test
+    public void latencyWithoutGainUndone() {
+        RawxTuner tuner = tuner(new RawxSettings());
+        upload(tuner, 1000L, 10L);
+        upload(tuner, 1020L, 100L);
+        Assert.assertEquals(RawxSettings.DEFAULT_BUFSIZE, bufsize.get());
+        Assert.assertEquals(100.0, tuner.latency(), 0.001);
+    }
+
+    @Test
+    public void boundsAndIdleIntervals() {
+        RawxTuner tuner = tuner(new RawxSettings().workers(100)
+                .bufsize(4096).minTunedBufsize(4096).maxTunedBufsize(4096)
+                .maxInflightPositions(8).minTunedPositions(8)
+                .maxTunedPositions(8));
+        // the starting values are brought within the bounds
+        Assert.assertEquals(RawxSettings.DEFAULT_MAX_TUNED_WORKERS,
+                workers.get());
+        tuner.tune(SECOND);
+        Assert.assertEquals(0, tuner.decisions());
+        // only the workers may change, downwards
+        upload(tuner, 1000L, 10L);
+        Assert.assertEquals(48, workers.get());
+        Assert.assertEquals(0, bufsize.get());
+        Assert.assertEquals(0, positions.get());
+        Assert.assertEquals(1000.0, tuner.hosts().get("127.0.0.1:6010")
+                .throughput(), 0.001);
+        Assert.assertEquals(1, tuner.hosts().get("127.0.0.1:6010").chunks());
+    }
+}
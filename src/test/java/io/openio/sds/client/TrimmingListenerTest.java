@@ -0,0 +1,47 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class TrimmingListenerTest {
+
+    @Test
+    public void rangeAcrossParts() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TrimmingListener l = new TrimmingListener(new DownloadListener() {
+
+            @Override
+            public void onData(ByteBuffer bodyPart) {
+                while (bodyPart.hasRemaining())
+                    out.write(bodyPart.get());
+            }
+
+            @Override
+            public void onThrowable(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onPositionCompleted(int pos) {
+            }
+        }, 5L, 7L);
+        byte[] data = new byte[20];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        for (int i = 0; i < data.length; i += 4)
+            l.onData(ByteBuffer.wrap(data, i, 4));
+        Assert.assertArrayEquals(new byte[] { 5, 6, 7, 8, 9, 10, 11 },
+                out.toByteArray());
+    }
+}
@@ -0,0 +1,123 @@
+package io.openio.sds.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.openio.sds.models.ChunkInfo;
+import io.openio.sds.models.ObjectInfo;
+import io.openio.sds.models.OioUrl;
+import io.openio.sds.models.Position;
+
+/**
+ *
+ *
+ *
+ */
+public class UploadJournalTest {
+
+    private Path path;
+    private int ids = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("journal", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private ObjectInfo prepared(String object, int positions) {
+        List<ChunkInfo> chunks = new ArrayList<>();
+        for (int i = 0; i < positions; i++) {
+            for (int j = 0; j < 2; j++)
+                chunks.add(new ChunkInfo().url("http://rawx/" + ids++)
+                        .pos(Position.simple(i)).size(100L));
+        }
+        return new ObjectInfo().url(OioUrl.url("A", "C", object))
+                .oid("OID" + ids++)
+                .size(100L * positions).chunkMethod("plain/nb_copy=2")
+                .chunks(chunks);
+    }
+
+    @Test
+    public void resumeAfterRecordedPositions() throws IOException {
+        UploadJournal j = UploadJournal.open(path);
+        ObjectInfo first = j.resume(prepared("o", 4));
+        Assert.assertEquals(0, j.first());
+        j.position(0, first.sortedChunks().get(0));
+        j.position(2, first.sortedChunks().get(2));
+        j.close();
+
+        j = UploadJournal.open(path);
+        ObjectInfo again = j.resume(prepared("o", 4));
+        Assert.assertEquals(1, j.first());
+        Assert.assertEquals(first.sortedChunks().get(0).get(0).url(),
+                again.sortedChunks().get(0).get(0).url());
+        // the positions after a missing one take the new chunks
+        Assert.assertNotEquals(first.sortedChunks().get(2).get(0).url(),
+                again.sortedChunks().get(2).get(0).url());
+        Assert.assertEquals(8, again.chunks().size());
+        Assert.assertEquals(first.oid(), again.oid());
+        j.delete();
+        Assert.assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void tornRecordIgnored() throws IOException {
+        UploadJournal j = UploadJournal.open(path);
+        ObjectInfo first = j.resume(prepared("o", 3));
+        j.position(0, first.sortedChunks().get(0));
+        j.close();
+        Files.write(path, "{\"pos\":1,\"chu".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        j = UploadJournal.open(path);
+        j.resume(prepared("o", 3));
+        Assert.assertEquals(1, j.first());
+        j.close();
+    }
+
+    @Test
+    public void otherObjectRestarts() throws IOException {
+        UploadJournal j = UploadJournal.open(path);
+        ObjectInfo first = j.resume(prepared("o", 3));
+        j.position(0, first.sortedChunks().get(0));
+        j.close();
+
+        j = UploadJournal.open(path);
+        j.resume(prepared("other", 3));
+        Assert.assertEquals(0, j.first());
+        j.close();
+        // the journal now holds the new object only
+        j = UploadJournal.open(path);
+        j.resume(prepared("other", 3));
+        Assert.assertEquals(0, j.first());
+        Assert.assertEquals(1, Files.readAllLines(path).size());
+        j.close();
+    }
+
+    @Test
+    public void otherLayoutRestarts() throws IOException {
+        UploadJournal j = UploadJournal.open(path);
+        ObjectInfo first = j.resume(prepared("o", 3));
+        j.position(0, first.sortedChunks().get(0));
+        j.close();
+
+        j = UploadJournal.open(path);
+        j.resume(prepared("o", 3).size(250L));
+        Assert.assertEquals(0, j.first());
+        j.close();
+    }
+}
@@ -0,0 +1,119 @@
+package io.openio.sds.client;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.Body.BodyState;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.openio.sds.client.data.BufferPool;
+import io.openio.sds.client.data.OioQueueBasedFeedableBodyGenerator;
+import io.openio.sds.client.data.UploadSource;
+
+/**
+ *
+ *
+ *
+ */
+public class WorkerPoolTest {
+
+    private final ScheduledExecutorService timer = Executors
+            .newSingleThreadScheduledExecutor();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        timer.shutdownNow();
+    }
+
+    /**
+     * Keeps the single worker of the pool busy, and fills its queue
+     */
+    private void fill(WorkerPool workers) throws InterruptedException {
+        CountDownLatch busy = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            busy.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        workers.execute(blocked);
+        Assert.assertTrue(busy.await(5, TimeUnit.SECONDS));
+        workers.execute(() -> {
+        });
+        Assert.assertEquals(1, workers.queued());
+    }
+
+    @Test
+    public void fullQueueNeverRunsOnCaller() throws Exception {
+        WorkerPool workers = new WorkerPool(1, 1);
+        fill(workers);
+        Thread[] ran = new Thread[1];
+        CountDownLatch done = new CountDownLatch(1);
+        workers.execute(() -> {
+            ran[0] = Thread.currentThread();
+            done.countDown();
+        });
+        Assert.assertNull(ran[0]);
+        Assert.assertEquals(1, workers.waiting());
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertNotSame(Thread.currentThread(), ran[0]);
+        Assert.assertEquals(0, workers.waiting());
+    }
+
+    @Test
+    public void feederResumedByTransferDoesNotRead() throws Exception {
+        WorkerPool workers = new WorkerPool(1, 1);
+        List<Thread> readers = new CopyOnWriteArrayList<>();
+        ByteArrayInputStream in = new ByteArrayInputStream(new byte[64]) {
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                readers.add(Thread.currentThread());
+                return super.read(b, off, len);
+            }
+        };
+        OioQueueBasedFeedableBodyGenerator gen =
+                new OioQueueBasedFeedableBodyGenerator(8L, 0L);
+        PositionFeeder feeder = new PositionFeeder(
+                UploadSource.fromStream(in, workers), 64L,
+                Collections.singletonList(gen), new BufferPool(8, 4, false),
+                0L, timer, null, 1, 1, 0L);
+        feeder.start();
+        // the feeder waits for room once its first buffer is queued
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (8L > gen.queued() && System.currentTimeMillis() < deadline)
+            Thread.sleep(1L);
+        Assert.assertEquals(8L, gen.queued());
+        fill(workers);
+        // the transport makes room, which resumes the feeder on this thread
+        Body body = gen.createBody();
+        ByteBuf target = Unpooled.buffer(64);
+        body.transferTo(target);
+        Assert.assertEquals(1, readers.size());
+        Assert.assertEquals(1, workers.waiting());
+        release.countDown();
+        while (BodyState.STOP != body.transferTo(target)
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(1L);
+        feeder.result().get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(64, target.readableBytes());
+        for (Thread t : readers)
+            Assert.assertNotSame(Thread.currentThread(), t);
+    }
+}
@@ -0,0 +1,64 @@
+package io.openio.sds.client.data;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ *
+ *
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void recycleOnLastRelease() {
+        BufferPool pool = new BufferPool(1024, 2, false);
+        PooledBuffer b = pool.acquire();
+        Assert.assertEquals(1, pool.misses());
+        Assert.assertEquals(1024, pool.outstandingBytes());
+        b.retain();
+        b.retain();
+        Assert.assertFalse(b.release());
+        Assert.assertFalse(b.release());
+        Assert.assertEquals(0, pool.pooled());
+        Assert.assertTrue(b.release());
+        Assert.assertEquals(1, pool.pooled());
+        Assert.assertEquals(0, pool.outstandingBytes());
+
+        PooledBuffer again = pool.acquire();
+        Assert.assertEquals(1, pool.hits());
+        Assert.assertSame(b.buffer(), again.buffer());
+        Assert.assertEquals(1024, again.buffer().remaining());
+    }
+
+    @Test
+    public void boundedPool() {
+        BufferPool pool = new BufferPool(16, 1, true);
+        PooledBuffer b1 = pool.acquire();
+        PooledBuffer b2 = pool.acquire();
+        Assert.assertTrue(b1.buffer().isDirect());
+        Assert.assertEquals(2, pool.misses());
+        b1.release();
+        b2.release();
+        Assert.assertEquals(1, pool.pooled());
+        Assert.assertEquals(0, pool.outstandingBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRelease() {
+        PooledBuffer b = new BufferPool(16, 1, false).acquire();
+        b.release();
+        b.release();
+    }
+
+    @Test
+    public void wrappedBuffer() {
+        PooledBuffer b = PooledBuffer.wrap(ByteBuffer.allocate(16));
+        b.retain();
+        Assert.assertFalse(b.release());
+        Assert.assertTrue(b.release());
+        Assert.assertEquals(0, b.refCnt());
+    }
+}
@@ -0,0 +1,156 @@
+package io.openio.sds.client.data;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.Body.BodyState;
+import org.asynchttpclient.request.body.generator.FeedListener;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 
+ *
+ *
+ */
+public class OioQueueBasedFeedableBodyGeneratorTest {
+
+    @Test
+    public void sharedBufferReleasedAfterAllWrites() throws Exception {
+        BufferPool pool = new BufferPool(8, 1, false);
+        OioQueueBasedFeedableBodyGenerator g1 = new OioQueueBasedFeedableBodyGenerator(
+                64, 1000);
+        OioQueueBasedFeedableBodyGenerator g2 = new OioQueueBasedFeedableBodyGenerator(
+                64, 1000);
+        Body b1 = g1.createBody();
+        Body b2 = g2.createBody();
+        PooledBuffer b = pool.acquire();
+        b.buffer().put("abcdefgh".getBytes()).flip();
+        g1.feed(b, true);
+        g2.feed(b, true);
+        b.release();
+        Assert.assertEquals(8, pool.outstandingBytes());
+
+        ByteBuf target = Unpooled.buffer(16);
+        Assert.assertEquals(BodyState.CONTINUE, b1.transferTo(target));
+        Assert.assertEquals(BodyState.STOP, b1.transferTo(target));
+        Assert.assertEquals("abcdefgh", target.toString(US_ASCII));
+        Assert.assertEquals(8, pool.outstandingBytes());
+        b2.transferTo(Unpooled.buffer(16));
+        Assert.assertEquals(0, pool.outstandingBytes());
+        Assert.assertEquals(0, g1.queued());
+    }
+
+    @Test
+    public void feedTimeout() throws Exception {
+        OioQueueBasedFeedableBodyGenerator g = new OioQueueBasedFeedableBodyGenerator(
+                8, 50);
+        g.feed(ByteBuffer.allocate(8), false);
+        try {
+            g.feed(ByteBuffer.allocate(1), true);
+            Assert.fail();
+        } catch (TimeoutException e) {
+            Assert.assertEquals(8, g.queued());
+        }
+    }
+
+    @Test
+    public void abortUnblocksFeeder() throws Exception {
+        OioQueueBasedFeedableBodyGenerator g = new OioQueueBasedFeedableBodyGenerator(
+                8, 0);
+        g.feed(ByteBuffer.allocate(8), false);
+        CompletableFuture<Boolean> blocked = CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return g.feed(ByteBuffer.allocate(8), true);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+        Thread.sleep(50);
+        Assert.assertFalse(blocked.isDone());
+        g.abort(new IOException("rawx failure"));
+        try {
+            blocked.get(1, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+        Assert.assertEquals(0, g.queued());
+        try {
+            g.createBody().transferTo(Unpooled.buffer(8));
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void feedFromWriteDoesNotResume() throws Exception {
+        OioQueueBasedFeedableBodyGenerator g = new OioQueueBasedFeedableBodyGenerator(
+                4, 0);
+        int[] resumed = new int[1];
+        g.setListener(new FeedListener() {
+            @Override
+            public void onContentAdded() {
+                resumed[0]++;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+        });
+        Body body = g.createBody();
+        g.feed(ByteBuffer.wrap("abcd".getBytes()), false);
+        Assert.assertEquals(1, resumed[0]);
+        // fed once the first part is written, from the body write
+        g.room(4).thenRun(() -> {
+            try {
+                g.feed(ByteBuffer.wrap("efgh".getBytes()), true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        ByteBuf target = Unpooled.buffer(16);
+        Assert.assertEquals(BodyState.CONTINUE, body.transferTo(target));
+        Assert.assertEquals("abcdefgh", target.toString(US_ASCII));
+        Assert.assertEquals(1, resumed[0]);
+    }
+
+    @Test
+    public void abortWhileWritingReleasesOnce() throws Exception {
+        for (int round = 0; round < 200; round++) {
+            OioQueueBasedFeedableBodyGenerator g = new OioQueueBasedFeedableBodyGenerator(
+                    1 << 20, 0);
+            PooledBuffer[] buffers = new PooledBuffer[64];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = PooledBuffer.wrap(ByteBuffer.allocate(64));
+                g.feed(buffers[i], i == buffers.length - 1);
+                buffers[i].release();
+            }
+            Body body = g.createBody();
+            CompletableFuture<Void> writing = CompletableFuture.runAsync(() -> {
+                try {
+                    while (BodyState.STOP != body.transferTo(Unpooled.buffer(16)))
+                        ;
+                } catch (IOException e) {
+                    // aborted
+                }
+            });
+            g.abort(new IOException("rawx failure"));
+            writing.get(5, TimeUnit.SECONDS);
+            for (PooledBuffer b : buffers)
+                Assert.assertEquals(0, b.refCnt());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.openio.sds.client.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+
+/**
+ *
+ *
+ *
+ */
+public class UploadSourceTest {
+
+    @Test
+    public void publisherDrivenByReads() throws Exception {
+        int[] requests = new int[1];
+        Publisher<ByteBuffer> publisher = s -> s.onSubscribe(
+                new Subscription() {
+                    int sent = 0;
+
+                    @Override
+                    public void request(long n) {
+                        requests[0]++;
+                        if (sent++ < 2)
+                            s.onNext(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+                        else
+                            s.onComplete();
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+        UploadSource source = UploadSource.fromPublisher(publisher);
+        ByteBuffer dst = ByteBuffer.allocate(2);
+        Assert.assertEquals(2, source.read(dst).get().intValue());
+        Assert.assertEquals(1, requests[0]);
+        // the rest of the first buffer is read before requesting another one
+        dst.clear();
+        Assert.assertEquals(1, source.read(dst).get().intValue());
+        Assert.assertEquals(1, requests[0]);
+        dst.clear();
+        Assert.assertEquals(2, source.read(dst).get().intValue());
+        Assert.assertEquals(2, requests[0]);
+        dst.clear();
+        Assert.assertEquals(1, source.read(dst).get().intValue());
+        Assert.assertEquals(-1, source.read(dst).get().intValue());
+        Assert.assertEquals(3, requests[0]);
+    }
+
+    @Test
+    public void publisherFailure() throws Exception {
+        IOException e = new IOException("boom");
+        UploadSource source = UploadSource.fromPublisher(s -> s.onError(e));
+        try {
+            source.read(ByteBuffer.allocate(4)).get();
+            Assert.fail();
+        } catch (ExecutionException ee) {
+            Assert.assertSame(e, ee.getCause());
+        }
+    }
+
+    @Test
+    public void streamToDirectBuffer() throws Exception {
+        UploadSource source = UploadSource.fromStream(
+                new ByteArrayInputStream(new byte[] { 1, 2, 3 }), Runnable::run);
+        ByteBuffer dst = ByteBuffer.allocateDirect(8);
+        Assert.assertEquals(3, source.read(dst).get().intValue());
+        Assert.assertEquals(-1, source.read(dst).get().intValue());
+        dst.flip();
+        Assert.assertEquals(3, dst.get(2));
+    }
+
+    @Test
+    public void channelReadAgain() throws Exception {
+        File f = File.createTempFile("source", ".bin");
+        f.deleteOnExit();
+        Files.write(f.toPath(), new byte[] { 0, 1, 2, 3, 4, 5 });
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel
+                .open(f.toPath(), StandardOpenOption.READ)) {
+            UploadSource source = UploadSource.fromChannel(channel, 1L);
+            ByteBuffer dst = ByteBuffer.allocate(2);
+            source.read(dst).get();
+            Assert.assertEquals(1, dst.get(0));
+            dst.clear();
+            source.reread(2L).read(dst).get();
+            Assert.assertEquals(3, dst.get(0));
+            Assert.assertNull(UploadSource.fromStream(
+                    new ByteArrayInputStream(new byte[1]), Runnable::run)
+                    .reread(0L));
+        }
+    }
+
+    @Test
+    public void bufferReadAgain() throws Exception {
+        ByteBuffer data = ByteBuffer.wrap(new byte[] { 0, 1, 2, 3, 4, 5 });
+        data.position(1);
+        UploadSource source = UploadSource.fromBuffer(data);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        Assert.assertEquals(4, source.read(dst).get().intValue());
+        Assert.assertEquals(1, dst.get(0));
+        dst.clear();
+        Assert.assertEquals(1, source.read(dst).get().intValue());
+        Assert.assertEquals(-1, source.read(dst).get().intValue());
+        dst.clear();
+        source.reread(3L).read(dst).get();
+        Assert.assertEquals(4, dst.get(0));
+        Assert.assertEquals(1, data.position());
+        // offsets are relative to the source read again
+        dst.clear();
+        source.reread(2L).reread(1L).read(dst).get();
+        Assert.assertEquals(4, dst.get(0));
+    }
+}
@@ -0,0 +1,73 @@
+package io.openio.sds.common;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class AsyncPermitsTest {
+
+    @Test
+    public void grantInOrder() {
+        AsyncPermits permits = new AsyncPermits(1);
+        Assert.assertTrue(permits.acquire().isDone());
+        CompletableFuture<Void> second = permits.acquire();
+        CompletableFuture<Void> third = permits.acquire();
+        Assert.assertFalse(second.isDone());
+        Assert.assertEquals(2, permits.waiting());
+        permits.release();
+        Assert.assertTrue(second.isDone());
+        Assert.assertFalse(third.isDone());
+        permits.release();
+        Assert.assertTrue(third.isDone());
+        permits.release();
+        Assert.assertEquals(1, permits.available());
+    }
+
+    @Test
+    public void cancelledWaiterIsSkipped() {
+        AsyncPermits permits = new AsyncPermits(1);
+        permits.acquire();
+        CompletableFuture<Void> cancelled = permits.acquire();
+        CompletableFuture<Void> next = permits.acquire();
+        cancelled.cancel(false);
+        permits.release();
+        Assert.assertTrue(next.isDone());
+        Assert.assertFalse(next.isCompletedExceptionally());
+        Assert.assertEquals(0, permits.available());
+    }
+
+    @Test
+    public void resize() {
+        AsyncPermits permits = new AsyncPermits(2);
+        permits.acquire();
+        permits.acquire();
+        CompletableFuture<Void> third = permits.acquire();
+        CompletableFuture<Void> fourth = permits.acquire();
+        permits.resize(3);
+        Assert.assertTrue(third.isDone());
+        Assert.assertFalse(fourth.isDone());
+        // the removed permits are taken back before any waiter is granted
+        permits.resize(1);
+        Assert.assertEquals(-2, permits.available());
+        permits.release();
+        permits.release();
+        Assert.assertFalse(fourth.isDone());
+        permits.release();
+        Assert.assertTrue(fourth.isDone());
+        Assert.assertEquals(1, permits.permits());
+    }
+
+    @Test
+    public void unlimited() {
+        AsyncPermits permits = new AsyncPermits(0);
+        for (int i = 0; i < 10; i++)
+            Assert.assertTrue(permits.acquire().isDone());
+        Assert.assertEquals(0, permits.waiting());
+    }
+}
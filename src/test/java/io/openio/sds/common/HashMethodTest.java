@@ -0,0 +1,41 @@
+package io.openio.sds.common;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.hash.Hasher;
+
+/**
+ *
+ *
+ *
+ */
+public class HashMethodTest {
+
+    @Test
+    public void names() {
+        Assert.assertEquals(HashMethod.MD5, HashMethod.of(null));
+        Assert.assertEquals(HashMethod.CRC32C, HashMethod.of("CRC32C"));
+        Assert.assertEquals(HashMethod.NONE, HashMethod.of("xxh64"));
+        Assert.assertNull(HashMethod.NONE.newHasher());
+    }
+
+    @Test
+    public void directAndHeapBuffers() {
+        byte[] data = new byte[20000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) i;
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        Hasher h1 = HashMethod.MD5.newHasher();
+        Hasher h2 = HashMethod.MD5.newHasher();
+        HashMethod.update(h1, ByteBuffer.wrap(data));
+        HashMethod.update(h2, direct);
+        Assert.assertEquals(0, direct.position());
+        Assert.assertEquals(HashMethod.hash(h1), HashMethod.hash(h2));
+        Assert.assertEquals("D41D8CD98F00B204E9800998ECF8427E",
+                HashMethod.hash(HashMethod.MD5.newHasher()));
+    }
+}
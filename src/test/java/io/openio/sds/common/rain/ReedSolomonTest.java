@@ -0,0 +1,77 @@
+package io.openio.sds.common.rain;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class ReedSolomonTest {
+
+    private static final int LEN = 1000;
+
+    private ByteBuffer[] fragments(ReedSolomon rs, long seed) {
+        Random rand = new Random(seed);
+        ByteBuffer[] frags = new ByteBuffer[rs.k() + rs.m()];
+        ByteBuffer[] data = new ByteBuffer[rs.k()];
+        ByteBuffer[] parity = new ByteBuffer[rs.m()];
+        for (int i = 0; i < frags.length; i++) {
+            byte[] b = new byte[LEN];
+            if (i < rs.k())
+                rand.nextBytes(b);
+            frags[i] = ByteBuffer.wrap(b);
+            if (i < rs.k())
+                data[i] = frags[i];
+            else
+                parity[i - rs.k()] = frags[i];
+        }
+        rs.encode(data, parity, LEN);
+        return frags;
+    }
+
+    @Test
+    public void anyKFragmentsRebuildData() {
+        ReedSolomon rs = new ReedSolomon(4, 2);
+        ByteBuffer[] ref = fragments(rs, 42);
+        // every way of losing two fragments
+        for (int a = 0; a < 6; a++) {
+            for (int b = a + 1; b < 6; b++) {
+                ByteBuffer[] frags = new ByteBuffer[6];
+                boolean[] present = new boolean[6];
+                for (int i = 0; i < 6; i++) {
+                    present[i] = i != a && i != b;
+                    frags[i] = present[i] ? ref[i].duplicate()
+                            : ByteBuffer.allocate(LEN);
+                }
+                rs.decode(frags, present, LEN);
+                for (int i = 0; i < 4; i++)
+                    Assert.assertEquals(ref[i], frags[i]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notEnoughFragments() {
+        ReedSolomon rs = new ReedSolomon(3, 1);
+        ByteBuffer[] frags = fragments(rs, 1);
+        rs.decode(frags, new boolean[] { true, false, false, true }, LEN);
+    }
+
+    @Test
+    public void layout() {
+        StripeLayout l = new StripeLayout(3, 3L * StripeLayout.CELL_SIZE + 7);
+        Assert.assertEquals(2, l.stripes());
+        Assert.assertEquals(3, l.cellSize(1));
+        Assert.assertEquals(3, l.cellData(1, 0));
+        Assert.assertEquals(3, l.cellData(1, 1));
+        Assert.assertEquals(1, l.cellData(1, 2));
+        Assert.assertEquals(StripeLayout.CELL_SIZE + 3, l.fragmentSize());
+        Assert.assertEquals(0, new StripeLayout(3, 0).fragmentSize());
+        Assert.assertEquals(0, new StripeLayout(3, 1).cellData(0, 1));
+    }
+}
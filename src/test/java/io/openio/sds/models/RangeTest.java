@@ -0,0 +1,33 @@
+package io.openio.sds.models;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ *
+ *
+ */
+public class RangeTest {
+
+    @Test
+    public void beyondTwoGigabytes() {
+        Range r = Range.parse("3000000000-5000000000");
+        Assert.assertEquals(3000000000L, r.from());
+        Assert.assertEquals(5000000000L, r.to());
+        Assert.assertEquals("bytes=3000000000-5000000000", r.headerValue());
+        Assert.assertEquals("bytes=4294967296-",
+                Range.from(1L << 32).headerValue());
+    }
+
+    @Test
+    public void singleByte() {
+        Assert.assertEquals("bytes=7-7", Range.between(7L, 7L).headerValue());
+        try {
+            Range.between(7L, 6L);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}